@@ -0,0 +1,146 @@
+package Bench;
+
+import FileProcess.JsonWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Measurements of one way of compressing one tree: total time of every measured run,
+ * per-file latencies, compressed size and peak heap
+ */
+public final class CodecResult {
+    private static final double MB = 1 << 20;
+
+    private final String name;
+    private final int numFiles;
+    private final long originalBytes;
+    private final List<Long> compressRuns = new ArrayList<>();
+    private final List<Long> decompressRuns = new ArrayList<>();
+    private final LatencyRecorder compressLatency = new LatencyRecorder();
+    private final LatencyRecorder decompressLatency = new LatencyRecorder();
+    private long compressedBytes = 0;
+    private long peakHeapBytes = 0;
+    private boolean perFile = false;
+    private boolean verified = false;
+
+    /**
+     * @param numFiles      number of regular files in the tree
+     * @param originalBytes total size of the files
+     */
+    public CodecResult(String name, int numFiles, long originalBytes) {
+        this.name = name;
+        this.numFiles = numFiles;
+        this.originalBytes = originalBytes;
+    }
+
+
+    /**
+     * Add the total times of one measured run
+     */
+    public void addRun(long compressNanos, long decompressNanos) {
+        compressRuns.add(compressNanos);
+        decompressRuns.add(decompressNanos);
+    }
+
+
+    /**
+     * Add the times of one file in a measured run, the files are then coded one by one
+     */
+    public void addFile(long compressNanos, long decompressNanos) {
+        compressLatency.record(compressNanos);
+        decompressLatency.record(decompressNanos);
+        perFile = true;
+    }
+
+
+    public void setCompressedBytes(long compressedBytes) {
+        this.compressedBytes = compressedBytes;
+    }
+
+    public void setPeakHeapBytes(long peakHeapBytes) {
+        this.peakHeapBytes = peakHeapBytes;
+    }
+
+    /**
+     * @param verified whether the decompressed files were compared with the originals
+     */
+    public void setVerified(boolean verified) {
+        this.verified = verified;
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return compressed size over original size, in percent
+     */
+    public double getRatioPercent() {
+        return originalBytes == 0 ? Double.NaN : 100.0 * compressedBytes / originalBytes;
+    }
+
+    public double getCompressMBPerSecond() {
+        return originalBytes / MB / seconds(median(compressRuns));
+    }
+
+    public double getDecompressMBPerSecond() {
+        return originalBytes / MB / seconds(median(decompressRuns));
+    }
+
+
+    public void writeTo(JsonWriter json) {
+        json.beginObject();
+        json.name("compressedBytes").value(compressedBytes);
+        json.name("ratioPercent").value(getRatioPercent());
+        json.name("verified").value(verified);
+        json.name("compress");
+        writeRuns(json, compressRuns);
+        json.name("decompress");
+        writeRuns(json, decompressRuns);
+        if (perFile) {
+            json.name("latencyMs").beginObject();
+            json.name("compressP50").value(millis(compressLatency.percentile(50)));
+            json.name("compressP99").value(millis(compressLatency.percentile(99)));
+            json.name("decompressP50").value(millis(decompressLatency.percentile(50)));
+            json.name("decompressP99").value(millis(decompressLatency.percentile(99)));
+            json.endObject();
+        }
+        json.name("peakHeapMB").value(peakHeapBytes / MB);
+        json.endObject();
+    }
+
+
+    private void writeRuns(JsonWriter json, List<Long> runs) {
+        long median = median(runs);
+        json.beginObject();
+        json.name("medianMs").value(millis(median));
+        json.name("mbPerSecond").value(originalBytes / MB / seconds(median));
+        json.name("filesPerSecond").value(numFiles / seconds(median));
+        json.name("runsMs").beginArray();
+        for (long run : runs) {
+            json.value(millis(run));
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+
+    private static long median(List<Long> runs) {
+        if (runs.isEmpty()) return 0;
+        List<Long> sorted = new ArrayList<>(runs);
+        sorted.sort(null);
+        return sorted.get((sorted.size() - 1) / 2);
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+}
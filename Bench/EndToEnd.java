@@ -0,0 +1,245 @@
+package Bench;
+
+import FileProcess.ArchiveReader;
+import FileProcess.ArchiveWriter;
+import FileProcess.Compression;
+import FileProcess.CompressionOptions;
+import FileProcess.Decompression;
+import FileProcess.OverwritePolicy;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Whole-archive runs over a directory tree, each repeated after warm-up runs:
+ * <p>
+ * 1. the archive: the tree is compressed into an archive file and extracted again, as cf and xf do.
+ * <p>
+ * 2. per file: every file is compressed alone into memory and decoded again, once with this
+ * compressor and once with {@code Deflater} in its Huffman-only strategy, the same static
+ * Huffman coding without LZ77 matching, so the two are compared on the same work.
+ */
+public final class EndToEnd {
+    private final int warmupRuns;
+    private final int measuredRuns;
+    private final CompressionOptions options;
+    private final File workDirectory;
+
+    /**
+     * @param workDirectory where archives and extracted trees are written, emptied after each run
+     */
+    public EndToEnd(int warmupRuns, int measuredRuns, CompressionOptions options, File workDirectory) {
+        if (warmupRuns < 0 || measuredRuns < 1) throw new IllegalArgumentException("Need at least one measured run");
+        this.warmupRuns = warmupRuns;
+        this.measuredRuns = measuredRuns;
+        this.options = options;
+        this.workDirectory = workDirectory;
+    }
+
+
+    /**
+     * Compress the tree into an archive and extract it, with {@code options.getThreads()} workers both ways
+     */
+    public CodecResult runArchive(File root, List<File> files, long originalBytes) throws IOException {
+        CodecResult result = new CodecResult("huffman-archive", files.size(), originalBytes);
+        File archive = new File(workDirectory, root.getName() + ".huff");
+        File output = new File(workDirectory, "extracted");
+        resetPeakHeap();
+        for (int run = 0; run < warmupRuns + measuredRuns; run++) {
+            long start = System.nanoTime();
+            new ArchiveWriter(options).write(root.toPath(), archive.toPath(), OverwritePolicy.OVERWRITE);
+            long compressNanos = System.nanoTime() - start;
+
+            deleteTree(output);
+            Files.createDirectories(output.toPath());
+            start = System.nanoTime();
+            new ArchiveReader(archive.toPath()).extract(output.toPath(), List.of(), options.getThreads(), OverwritePolicy.FAIL);
+            long decompressNanos = System.nanoTime() - start;
+
+            if (run == 0) {
+                verifyTree(root, new File(output, root.getName()), files);
+                result.setVerified(true);
+            }
+            if (run >= warmupRuns) result.addRun(compressNanos, decompressNanos);
+        }
+        result.setCompressedBytes(archive.length());
+        result.setPeakHeapBytes(getPeakHeap());
+        deleteTree(output);
+        Files.deleteIfExists(archive.toPath());
+        return result;
+    }
+
+
+    /**
+     * Compress every file alone into memory and decode it to a null stream
+     */
+    public CodecResult runPerFile(List<File> files, long originalBytes) throws IOException {
+        CodecResult result = new CodecResult("huffman-per-file", files.size(), originalBytes);
+        CompressionOptions single = new CompressionOptions().maxCodeLength(options.getMaxCodeLength());
+        resetPeakHeap();
+        for (int run = 0; run < warmupRuns + measuredRuns; run++) {
+            long totalCompress = 0;
+            long totalDecompress = 0;
+            long compressedBytes = 0;
+            for (File f : files) {
+                long start = System.nanoTime();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(f.length() + 1024, Integer.MAX_VALUE - 8));
+                try (BufferedOutputStream out = new BufferedOutputStream(bytes)) {
+                    Compression.compress(f.getParentFile(), f, out, single);
+                }
+                long compressNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                Decompression.decompressToStream(new ByteArrayInputStream(bytes.toByteArray()), OutputStream.nullOutputStream());
+                long decompressNanos = System.nanoTime() - start;
+                if (run == 0) {
+                    ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+                    Decompression.decompressToStream(new ByteArrayInputStream(bytes.toByteArray()), decoded);
+                    if (!Arrays.equals(decoded.toByteArray(), Files.readAllBytes(f.toPath())))
+                        throw new IOException("Round trip of " + f + " differs");
+                }
+
+                totalCompress += compressNanos;
+                totalDecompress += decompressNanos;
+                compressedBytes += bytes.size();
+                if (run >= warmupRuns) result.addFile(compressNanos, decompressNanos);
+            }
+            if (run >= warmupRuns) result.addRun(totalCompress, totalDecompress);
+            result.setCompressedBytes(compressedBytes);
+        }
+        result.setVerified(true);
+        result.setPeakHeapBytes(getPeakHeap());
+        return result;
+    }
+
+
+    /**
+     * The baseline: {@code Deflater.HUFFMAN_ONLY} on every file, read into memory as {@link #runPerFile} reads it
+     */
+    public CodecResult runDeflater(List<File> files, long originalBytes) throws IOException {
+        CodecResult result = new CodecResult("deflater-huffman-only", files.size(), originalBytes);
+        byte[] buffer = new byte[1 << 16];
+        Deflater deflater = new Deflater();
+        deflater.setStrategy(Deflater.HUFFMAN_ONLY);
+        Inflater inflater = new Inflater();
+        resetPeakHeap();
+        try {
+            for (int run = 0; run < warmupRuns + measuredRuns; run++) {
+                long totalCompress = 0;
+                long totalDecompress = 0;
+                long compressedBytes = 0;
+                for (File f : files) {
+                    long start = System.nanoTime();
+                    byte[] data = Files.readAllBytes(f.toPath());
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 1024);
+                    deflater.reset();
+                    deflater.setInput(data);
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        bytes.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                    long compressNanos = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    inflater.reset();
+                    inflater.setInput(bytes.toByteArray());
+                    byte[] decoded = new byte[data.length];
+                    int length = 0;
+                    while (!inflater.finished() && length < decoded.length) {
+                        int n = inflater.inflate(decoded, length, decoded.length - length);
+                        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                            throw new IOException("Truncated deflate stream of " + f);
+                        length += n;
+                    }
+                    long decompressNanos = System.nanoTime() - start;
+                    if (run == 0 && !Arrays.equals(decoded, data))
+                        throw new IOException("Deflate round trip of " + f + " differs");
+
+                    totalCompress += compressNanos;
+                    totalDecompress += decompressNanos;
+                    compressedBytes += bytes.size();
+                    if (run >= warmupRuns) result.addFile(compressNanos, decompressNanos);
+                }
+                if (run >= warmupRuns) result.addRun(totalCompress, totalDecompress);
+                result.setCompressedBytes(compressedBytes);
+            }
+            result.setVerified(true);
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid deflate stream", e);
+        } finally {
+            deflater.end();
+            inflater.end();
+        }
+        result.setPeakHeapBytes(getPeakHeap());
+        return result;
+    }
+
+
+    /**
+     * @return the regular files under root, in a stable order
+     */
+    public static List<File> listFiles(File root) throws IOException {
+        try (Stream<Path> walk = Files.walk(root.toPath())) {
+            return walk.filter(Files::isRegularFile).sorted().map(Path::toFile).toList();
+        }
+    }
+
+
+    /**
+     * Delete a file or directory tree, if it exists
+     */
+    public static void deleteTree(File root) throws IOException {
+        if (!root.exists()) return;
+        try (Stream<Path> walk = Files.walk(root.toPath())) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+
+
+    private static void verifyTree(File root, File extracted, List<File> files) throws IOException {
+        for (File f : files) {
+            Path copy = extracted.toPath().resolve(root.toPath().relativize(f.toPath()));
+            if (!Files.exists(copy) || Files.mismatch(f.toPath(), copy) != -1)
+                throw new IOException("Extracted " + copy + " differs from " + f);
+        }
+    }
+
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * @return sum of the peak usage of the heap pools since the last reset
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+}
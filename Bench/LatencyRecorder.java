@@ -0,0 +1,42 @@
+package Bench;
+
+import java.util.Arrays;
+
+
+/**
+ * Records durations in nanoseconds and gives their percentiles
+ */
+public final class LatencyRecorder {
+    private long[] samples = new long[1024];
+    private int count = 0;
+    private boolean sorted = true;
+
+
+    public void record(long nanos) {
+        if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+        samples[count++] = nanos;
+        sorted = false;
+    }
+
+
+    public int getCount() {
+        return count;
+    }
+
+
+    /**
+     * @param percentile in (0, 100]
+     * @return the nearest-rank percentile in nanoseconds, 0 without samples
+     */
+    public long percentile(double percentile) {
+        if (!(percentile > 0 && percentile <= 100)) throw new IllegalArgumentException("Percentile must be in (0, 100]");
+        if (count == 0) return 0;
+        if (!sorted) {
+            Arrays.sort(samples, 0, count);
+            sorted = true;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return samples[Math.max(rank, 1) - 1];
+    }
+
+}
@@ -0,0 +1,182 @@
+package Bench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+
+/**
+ * Generates synthetic directory trees for end-to-end benchmarks, the same tree for the same seed and scale
+ */
+public final class TreeGenerator {
+    private static final String[] WORDS = {
+            "the", "of", "and", "to", "a", "in", "is", "that", "for", "it", "as", "was", "with", "be", "by", "on",
+            "not", "he", "this", "are", "or", "his", "from", "at", "which", "but", "have", "an", "had", "they",
+            "you", "were", "their", "one", "all", "we", "can", "her", "has", "there", "been", "if", "more", "when",
+            "function", "return", "var", "const", "import", "export", "class", "null", "true", "false", "{", "}",
+            "(", ")", ";", "=", "=>", "\"use strict\"", "module", "require", "length", "value", "index", "data"
+    };
+
+    /**
+     * Shapes of trees
+     */
+    public enum Scenario {
+        /**
+         * thousands of text files of 64 B to 4 KB in a few hundred directories
+         */
+        TINY(4000),
+        /**
+         * two 64 MB files, one text and one skewed
+         */
+        HUGE(2),
+        /**
+         * a chain of 48 nested directories with a few 1 KB to 16 KB files at every level
+         */
+        DEEP(48),
+        /**
+         * 16 random files of 2 MB, incompressible
+         */
+        BLOBS(16);
+
+        /**
+         * number of files, or levels for DEEP, at scale 1
+         */
+        private final int count;
+
+        Scenario(int count) {
+            this.count = count;
+        }
+
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Scenario parse(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown scenario " + name + ", expected tiny, huge, deep or blobs");
+            }
+        }
+    }
+
+    /**
+     * Content of a generated file
+     */
+    private enum Content {TEXT, SKEWED, RANDOM}
+
+    private final SplittableRandom random;
+    private final double scale;
+
+    /**
+     * @param seed  seed of all random choices
+     * @param scale factor of file counts, and of file sizes for HUGE and BLOBS
+     */
+    public TreeGenerator(long seed, double scale) {
+        if (!(scale > 0)) throw new IllegalArgumentException("Scale must be positive");
+        random = new SplittableRandom(seed);
+        this.scale = scale;
+    }
+
+
+    /**
+     * Generate the tree of a scenario
+     *
+     * @param root directory to create, must not exist yet
+     */
+    public void generate(Scenario scenario, File root) throws IOException {
+        if (root.exists()) throw new IOException(root + " already exists");
+        mkdirs(root);
+        switch (scenario) {
+            case TINY -> {
+                int numFiles = scaled(scenario.count);
+                int numDirectories = Math.max(1, numFiles / 16);
+                for (int i = 0; i < numFiles; i++) {
+                    File directory = new File(root, "pkg" + (i % numDirectories) + File.separator + "lib");
+                    mkdirs(directory);
+                    writeFile(new File(directory, "file" + i + ".js"), 64 + random.nextInt(4096 - 64), Content.TEXT);
+                }
+            }
+            case HUGE -> {
+                long size = Math.max(1, (long) (64L * (1 << 20) * scale));
+                for (int i = 0; i < scenario.count; i++) {
+                    writeFile(new File(root, "huge" + i + ".bin"), size, i % 2 == 0 ? Content.TEXT : Content.SKEWED);
+                }
+            }
+            case DEEP -> {
+                File directory = root;
+                for (int level = 0; level < scaled(scenario.count); level++) {
+                    directory = new File(directory, "d" + level);
+                    mkdirs(directory);
+                    for (int i = 0; i < 4; i++) {
+                        writeFile(new File(directory, "f" + i + ".txt"), 1024 + random.nextInt(15 * 1024),
+                                i == 3 ? Content.SKEWED : Content.TEXT);
+                    }
+                }
+            }
+            case BLOBS -> {
+                long size = Math.max(1, (long) (2L * (1 << 20) * scale));
+                for (int i = 0; i < scenario.count; i++) {
+                    writeFile(new File(root, "blob" + i + ".bin"), size, Content.RANDOM);
+                }
+            }
+        }
+    }
+
+
+    private int scaled(int count) {
+        return (int) Math.max(1, Math.round(count * scale));
+    }
+
+
+    private void writeFile(File file, long size, Content content) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            long remaining = size;
+            while (remaining > 0) {
+                int n = (int) Math.min(buffer.length, remaining);
+                fill(buffer, n, content);
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+
+
+    private void fill(byte[] buffer, int n, Content content) {
+        switch (content) {
+            case RANDOM -> {
+                for (int i = 0; i < n; i++) {
+                    buffer[i] = (byte) random.nextInt(256);
+                }
+            }
+            case SKEWED -> {
+                // byte k with probability 2^-(k+1)
+                for (int i = 0; i < n; i++) {
+                    buffer[i] = (byte) Math.min(Long.numberOfTrailingZeros(random.nextLong()), 255);
+                }
+            }
+            case TEXT -> {
+                int i = 0;
+                while (i < n) {
+                    // low ranks far more often, as in natural text
+                    String word = WORDS[Math.min(random.nextInt(WORDS.length), random.nextInt(WORDS.length))];
+                    for (int j = 0; j < word.length() && i < n; j++) {
+                        buffer[i++] = (byte) word.charAt(j);
+                    }
+                    if (i < n) buffer[i++] = (byte) (random.nextInt(12) == 0 ? '\n' : ' ');
+                }
+            }
+        }
+    }
+
+
+    private static void mkdirs(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Fail to create directory " + directory);
+    }
+
+}
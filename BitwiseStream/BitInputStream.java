@@ -3,12 +3,55 @@ package BitwiseStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 
+/**
+ * A stream where bits can be read from.
+ * <p>
+ * Bytes are taken from the input into a backing buffer several KB at a time, and the
+ * 64-bit bit buffer is refilled from it a whole word at a time. Bits can be peeked at
+ * before they are consumed.
+ */
 public final class BitInputStream implements AutoCloseable {
+    /**
+     * Longest window that can be requested from {@link #peekBits(int)} or {@link #readBits(int)}
+     */
+    public static final int MAX_PEEK_BITS = 56;
+    /**
+     * Size of the backing byte buffer when reading from a stream
+     */
+    public static final int BUFFER_SIZE = 1 << 13;
+    /**
+     * Upper bound of whole bytes read ahead of the consumed bits.
+     * <p>
+     * A {@link PushbackInputStream} given to this stream should be able to take back this many bytes.
+     */
+    public static final int MAX_LOOKAHEAD_BYTES = BUFFER_SIZE + Long.BYTES;
+
+    /**
+     * source of the backing buffer, {@code null} for an in-memory stream
+     */
     private final InputStream input;
-    private int byteBuffer;
+    private final byte[] buffer;
+    private final ByteBuffer words;
+    /**
+     * next unread byte in buffer
+     */
+    private int position;
+    /**
+     * end of valid bytes in buffer
+     */
+    private int limit;
+    /**
+     * bits taken from buffer but not consumed yet, right aligned
+     */
+    private long bitBuffer;
+    /**
+     * Number of valid bits in bitBuffer, -1 once closed
+     */
     private int numBitsRemaining;
 
     /**
@@ -16,7 +59,26 @@ public final class BitInputStream implements AutoCloseable {
      */
     public BitInputStream(InputStream in) {
         input = Objects.requireNonNull(in);
-        byteBuffer = 0;
+        buffer = new byte[BUFFER_SIZE];
+        words = ByteBuffer.wrap(buffer);
+        position = 0;
+        limit = 0;
+        bitBuffer = 0;
+        numBitsRemaining = 0;
+    }
+
+
+    /**
+     * Constructs a bit stream reading {@code len} bytes of {@code data} starting at {@code off}.
+     */
+    public BitInputStream(byte[] data, int off, int len) {
+        Objects.checkFromIndexSize(off, len, data.length);
+        input = null;
+        buffer = data;
+        words = ByteBuffer.wrap(buffer);
+        position = off;
+        limit = off + len;
+        bitBuffer = 0;
         numBitsRemaining = 0;
     }
 
@@ -28,38 +90,111 @@ public final class BitInputStream implements AutoCloseable {
      * @throws EOFException if reached the end of input
      */
     public int read() throws IOException {
-        int result = readHelper();
-        if (result != -1) return result;
-        else throw new EOFException();
+        return (int) readBits(1);
     }
 
 
     /**
-     * destroy the stream by setting byteBuffer = -1
-     * leave the underlying input stream for future usage
+     * Reads the next {@code n} bits.
+     *
+     * @param n number of bits, in [1, MAX_PEEK_BITS]
+     * @return the bits, the first one in the most significant position
+     * @throws EOFException if fewer than {@code n} bits are left in the input
      */
-    public void close() {
-        byteBuffer = -1;
-        numBitsRemaining = 0;
+    public long readBits(int n) throws IOException {
+        long result = peekBits(n);
+        consumeBits(n);
+        return result;
     }
 
 
     /**
-     * Reads a bit from this stream. Returns 0 or 1 if a bit is available, or -1 if
-     * the end of stream is reached. The end of stream always occurs on a byte boundary.
+     * Look at the next {@code n} bits without consuming them.
+     * <p>
+     * Bits beyond the end of input are read as 0.
      *
-     * @return the next bit of 0 or 1, or -1 for the end of stream
-     */
-    private int readHelper() throws IOException {
-        if (byteBuffer == -1) return -1;
-        if (numBitsRemaining == 0) {
-            byteBuffer = input.read();
-            if (byteBuffer == -1) return -1;
-            numBitsRemaining = 8;
+     * @param n number of bits, in [1, MAX_PEEK_BITS]
+     * @return the bits, the first one in the most significant position
+     */
+    public long peekBits(int n) throws IOException {
+        if (n <= 0 || n > MAX_PEEK_BITS) throw new IllegalArgumentException("Peek length out of range");
+        if (numBitsRemaining < n) refill();
+        long mask = (1L << n) - 1;
+        if (numBitsRemaining >= n) return (bitBuffer >>> (numBitsRemaining - n)) & mask;
+        // end of input reached, pad with 0
+        return (bitBuffer << (n - numBitsRemaining)) & mask;
+    }
+
+
+    /**
+     * Skip {@code n} bits that have been looked at with {@link #peekBits(int)}.
+     *
+     * @throws EOFException if fewer than {@code n} bits are left in the input
+     */
+    public void consumeBits(int n) throws IOException {
+        if (n > numBitsRemaining) throw new EOFException("Unexpected end of encoded bits");
+        numBitsRemaining -= n;
+    }
+
+
+    /**
+     * destroy the stream by setting numBitsRemaining = -1
+     * leave the underlying input stream for future usage
+     * <p>
+     * The rest of the current byte is dropped. Whole bytes that were read ahead are
+     * given back if the underlying stream is a {@link PushbackInputStream}.
+     */
+    public void close() throws IOException {
+        if (input instanceof PushbackInputStream pushback && numBitsRemaining >= 0) {
+            // pushed back in reverse order, the buffered bits come out first
+            if (limit > position) pushback.unread(buffer, position, limit - position);
+            byte[] readAhead = new byte[numBitsRemaining / 8];
+            for (int i = readAhead.length - 1, shift = 0; i >= 0; i--, shift += 8) {
+                readAhead[i] = (byte) (bitBuffer >>> shift);
+            }
+            pushback.unread(readAhead);
         }
-        if (numBitsRemaining <= 0) throw new AssertionError();
-        numBitsRemaining--;
-        return (byteBuffer >>> numBitsRemaining) & 1;
+        position = limit;
+        bitBuffer = 0;
+        numBitsRemaining = -1;
+    }
+
+
+    /**
+     * Top up bitBuffer to at least MAX_PEEK_BITS bits, or until the end of stream is reached.
+     * The end of stream always occurs on a byte boundary.
+     */
+    private void refill() throws IOException {
+        if (numBitsRemaining == -1) throw new IOException("Stream closed");
+        if (limit - position >= Long.BYTES) {
+            // take as many whole bytes of the next word as fit
+            int numBytes = (63 - numBitsRemaining) >>> 3;
+            int numBits = numBytes * 8;
+            bitBuffer = (bitBuffer << numBits) | (words.getLong(position) >>> (64 - numBits));
+            position += numBytes;
+            numBitsRemaining += numBits;
+            return;
+        }
+        while (numBitsRemaining < MAX_PEEK_BITS) {
+            if (position == limit && !readInput()) return;
+            bitBuffer = (bitBuffer << 8) | (buffer[position++] & 0xFF);
+            numBitsRemaining += 8;
+        }
+    }
+
+
+    /**
+     * Load the next bytes of input into the empty buffer
+     *
+     * @return false if the end of input is reached
+     */
+    private boolean readInput() throws IOException {
+        if (input == null) return false;
+        int n = input.read(buffer, 0, buffer.length);
+        if (n <= 0) return false;
+        position = 0;
+        limit = n;
+        return true;
     }
 
 }
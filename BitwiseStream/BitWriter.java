@@ -0,0 +1,105 @@
+package BitwiseStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+
+/**
+ * A stream where codes of up to 64 bits can be written to.
+ * <p>
+ * Bits are gathered in a 64-bit accumulator, full words are stored into a reusable
+ * byte buffer, and the buffer is handed to the byte output stream in one call.
+ * End aligned with 0's up to finish a byte.
+ */
+public final class BitWriter implements AutoCloseable {
+    /**
+     * Size of the byte buffer between flushes to the output stream
+     */
+    public static final int BUFFER_SIZE = 1 << 13;
+
+    private final OutputStream output;
+    private final ByteBuffer buffer;
+    /**
+     * bits waiting to fill a word, right aligned
+     */
+    private long accumulator;
+    /**
+     * Number of bits in the accumulator, always less than 64
+     */
+    private int numBitsInAccumulator;
+
+
+    /**
+     * Constructs a bit writer based on the specified byte output stream.
+     *
+     * @param out the byte output stream
+     * @throws NullPointerException if the output stream is {@code null}
+     */
+    public BitWriter(OutputStream out) {
+        output = Objects.requireNonNull(out);
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        accumulator = 0;
+        numBitsInAccumulator = 0;
+    }
+
+
+    /**
+     * Writes the low {@code length} bits of {@code code}, the most significant one first.
+     *
+     * @param code   the bits to write, higher bits are ignored
+     * @param length number of bits, in [0, 64]
+     */
+    public void writeBits(long code, int length) throws IOException {
+        if (length < 0 || length > 64) throw new IllegalArgumentException("Bit length out of range");
+        if (length < 64) code &= (1L << length) - 1;
+        int free = 64 - numBitsInAccumulator;
+        if (length < free) {
+            accumulator = (accumulator << length) | code;
+            numBitsInAccumulator += length;
+            return;
+        }
+        // fill up the word, keep the rest in the accumulator
+        int rest = length - free;
+        long word = free == 64 ? code : (accumulator << free) | (code >>> rest);
+        putWord(word);
+        accumulator = rest == 0 ? 0 : code & ((1L << rest) - 1);
+        numBitsInAccumulator = rest;
+    }
+
+
+    /**
+     * Hand the buffered bytes to the output stream.
+     * The bits of an unfinished byte stay in the accumulator.
+     */
+    public void flush() throws IOException {
+        output.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+
+    /**
+     * Close this writer.
+     * leave the output working.
+     * If not aligned yet, align with 0.
+     */
+    public void close() throws IOException {
+        int numBytes = (numBitsInAccumulator + 7) / 8;
+        long aligned = accumulator << (numBytes * 8 - numBitsInAccumulator);
+        for (int i = numBytes - 1; i >= 0; i--) {
+            if (!buffer.hasRemaining()) flush();
+            buffer.put((byte) (aligned >>> (i * 8)));
+        }
+        accumulator = 0;
+        numBitsInAccumulator = 0;
+        flush();
+    }
+
+
+    private void putWord(long word) throws IOException {
+        if (buffer.remaining() < Long.BYTES) flush();
+        buffer.putLong(word);
+    }
+
+}
@@ -0,0 +1,137 @@
+package Daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+/**
+ * Client of the daemon: sends a command with its arguments and working directory, then relays the standard
+ * streams of the job until its exit status
+ */
+public final class JobClient {
+    /**
+     * system property that makes the commands run in their own JVM even when a daemon listens
+     */
+    public static final String DISABLE_PROPERTY = "huff.daemon.disable";
+
+    private JobClient() {
+    }
+
+
+    /**
+     * Run a command on the daemon of the default socket if one listens, with the streams of this process
+     *
+     * @return exit status of the job, or -1 if no daemon listens, so the command runs here
+     */
+    public static int tryRun(String command, String[] args) {
+        if (Boolean.getBoolean(DISABLE_PROPERTY)) return -1;
+        Path socket = Protocol.getSocket();
+        if (!Files.exists(socket)) return -1;
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            // a socket left behind by a daemon that is not running
+            return -1;
+        }
+        try (channel) {
+            return run(channel, command, args, new FileInputStream(FileDescriptor.in), new FileOutputStream(FileDescriptor.out), System.err);
+        } catch (IOException e) {
+            System.err.println("ERROR: lost the daemon on " + socket + ": " + e.getMessage());
+            return 1;
+        }
+    }
+
+
+    /**
+     * Run a command on a daemon
+     *
+     * @param in  standard input of the job, read when the job asks for it
+     * @param out standard output of the job
+     * @param err standard error of the job
+     * @return exit status of the job
+     */
+    public static int run(Path socket, String command, String[] args, InputStream in, OutputStream out, OutputStream err) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return run(channel, command, args, in, out, err);
+        }
+    }
+
+
+    /**
+     * Ask the daemon to stop once its running and waiting jobs are done
+     */
+    public static int stop(Path socket, OutputStream err) throws IOException {
+        return run(socket, Protocol.STOP, new String[0], InputStream.nullInputStream(), OutputStream.nullOutputStream(), err);
+    }
+
+
+    /**
+     * @return whether a daemon accepts connections on the socket
+     */
+    static boolean isListening(Path socket) {
+        try {
+            SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+            channel.close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    private static int run(SocketChannel channel, String command, String[] args, InputStream in, OutputStream out, OutputStream err) throws IOException {
+        DataOutputStream requests = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        DataInputStream frames = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        new Protocol.Request(command, Path.of("").toAbsolutePath(), args).write(requests);
+        byte[] buffer = new byte[1 << 16];
+        while (true) {
+            int type;
+            try {
+                type = frames.readByte();
+            } catch (EOFException e) {
+                throw new EOFException("the daemon closed the connection before the end of the job");
+            }
+            switch (type) {
+                case Protocol.OUT, Protocol.ERR -> {
+                    int length = frames.readInt();
+                    OutputStream stream = type == Protocol.OUT ? out : err;
+                    while (length > 0) {
+                        int n = frames.read(buffer, 0, Math.min(length, buffer.length));
+                        if (n == -1) throw new EOFException("Truncated frame");
+                        stream.write(buffer, 0, n);
+                        length -= n;
+                    }
+                    stream.flush();
+                }
+                case Protocol.READ -> {
+                    int n = in.read(buffer, 0, Math.min(frames.readInt(), buffer.length));
+                    requests.writeInt(n);
+                    if (n > 0) requests.write(buffer, 0, n);
+                    requests.flush();
+                }
+                case Protocol.EXIT -> {
+                    out.flush();
+                    return frames.readInt();
+                }
+                default -> throw new IOException("Unknown frame " + type + " from the daemon");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+package Daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Daemon running the jobs of clients in one long-lived JVM, so every job runs with warm JIT-compiled coding loops
+ * <p>
+ * It listens on a Unix domain socket that only its user may connect to. Each connection is one job, run on its
+ * own thread with the standard streams and working directory of its client. A fixed number of workers bounds the
+ * jobs that run at the same time: jobs beyond them wait in a bounded queue, the client is told when its job waits,
+ * and a job that does not fit in the queue is refused with exit status {@value Protocol#UNAVAILABLE}.
+ * <p>
+ * A job gives its worker back while it waits for the standard input of its client, which may be the output of
+ * another job, as in {@code cf - | xf -}. Otherwise the jobs of a pipeline longer than the workers would wait
+ * for each other forever.
+ */
+public final class JobServer {
+    /**
+     * A command the daemon runs, such as the main function of cf
+     */
+    @FunctionalInterface
+    public interface Command {
+        /**
+         * @return exit status
+         */
+        int run(String[] args, Terminal terminal) throws Exception;
+    }
+
+    private final Path socket;
+    private final Map<String, Command> commands;
+    /**
+     * a permit per worker, held by a job while it runs but not while it waits for its standard input
+     */
+    private final Semaphore workers;
+    /**
+     * largest number of jobs running or waiting for a worker
+     */
+    private final int maxJobs;
+    private final AtomicInteger numJobs = new AtomicInteger();
+    /**
+     * threads of the jobs, one per connection
+     */
+    private final ExecutorService jobs;
+    private ServerSocketChannel server;
+
+    /**
+     * @param socket    path of the socket file
+     * @param commands  commands by name
+     * @param threads   number of jobs run at the same time
+     * @param queueSize number of jobs that may wait for a worker
+     */
+    public JobServer(Path socket, Map<String, Command> commands, int threads, int queueSize) {
+        if (threads < 1 || queueSize < 1) throw new IllegalArgumentException("Number of threads and queue size must be positive");
+        this.socket = socket;
+        this.commands = Map.copyOf(commands);
+        workers = new Semaphore(threads, true);
+        maxJobs = threads + queueSize;
+        AtomicInteger numThreads = new AtomicInteger();
+        jobs = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "huffd-job-" + numThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * @return path of the socket, from the system property huff.daemon.socket, the environment variable
+     * HUFFD_SOCKET, or ~/.huff/huffd.sock
+     */
+    public static Path getDefaultSocket() {
+        return Protocol.getSocket();
+    }
+
+
+    /**
+     * Accept jobs until a stop request, then wait for the running and waiting jobs
+     *
+     * @throws IOException if the socket can not be bound, such as when another daemon listens on it
+     */
+    public void serve() throws IOException {
+        bind();
+        try {
+            // a stop request closes the server
+            while (server.isOpen()) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (AsynchronousCloseException e) {
+                    break;
+                }
+                accept(client);
+            }
+        } finally {
+            server.close();
+            Files.deleteIfExists(socket);
+            jobs.shutdown();
+            try {
+                jobs.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    private void bind() throws IOException {
+        if (Files.exists(socket)) {
+            // a socket left behind by a daemon that did not stop cleanly
+            if (JobClient.isListening(socket)) throw new IOException("A daemon already listens on " + socket);
+            Files.delete(socket);
+        }
+        Path directory = socket.toAbsolutePath().getParent();
+        if (directory != null) Files.createDirectories(directory);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        try {
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system, its default permissions stay
+        }
+    }
+
+
+    /**
+     * Read the request of a new connection and start its job, or refuse it if the queue is full
+     */
+    private void accept(SocketChannel client) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+            Protocol.Request request;
+            try {
+                request = Protocol.Request.read(in);
+            } catch (IOException e) {
+                writeMessage(out, "huffd: " + e.getMessage());
+                writeExit(out, Protocol.UNAVAILABLE);
+                client.close();
+                return;
+            }
+            if (request.command().equals(Protocol.STOP)) {
+                server.close();
+                writeMessage(out, "huffd: stopping after " + numJobs.get() + " jobs");
+                writeExit(out, 0);
+                client.close();
+                return;
+            }
+            if (numJobs.incrementAndGet() > maxJobs) {
+                numJobs.decrementAndGet();
+                writeMessage(out, "huffd: too many jobs, try again later");
+                writeExit(out, Protocol.UNAVAILABLE);
+                client.close();
+                return;
+            }
+            jobs.execute(() -> {
+                try {
+                    runJob(request, client, in, out);
+                } finally {
+                    numJobs.decrementAndGet();
+                }
+            });
+        } catch (IOException e) {
+            // the client is gone
+            try {
+                client.close();
+            } catch (IOException ignored) {
+                // nothing left to release
+            }
+        }
+    }
+
+
+    /**
+     * Run the command of a request with the streams of its client once a worker is free, and send the exit status
+     */
+    private void runJob(Protocol.Request request, SocketChannel client, DataInputStream in, DataOutputStream out) {
+        try (client) {
+            Command command = commands.get(request.command());
+            if (command == null) {
+                writeMessage(out, "huffd: unknown command " + request.command());
+                writeExit(out, 1);
+                return;
+            }
+            if (!workers.tryAcquire(0, TimeUnit.SECONDS)) {
+                writeMessage(out, "huffd: waiting for a free worker, " + workers.getQueueLength() + " jobs ahead");
+                workers.acquire();
+            }
+            try {
+                PrintStream stdout = new PrintStream(new Protocol.FrameOutputStream(out, Protocol.OUT), true, StandardCharsets.UTF_8);
+                PrintStream stderr = new PrintStream(new Protocol.FrameOutputStream(out, Protocol.ERR), true, StandardCharsets.UTF_8);
+                InputStream stdin = new WorkerFreeingInputStream(new Protocol.RemoteInputStream(out, in));
+                Terminal terminal = new Terminal(request.workingDirectory(), stdin, new Protocol.FrameOutputStream(out, Protocol.OUT),
+                        stdout, stderr);
+                int status;
+                try {
+                    status = command.run(request.args(), terminal);
+                } catch (Exception e) {
+                    stderr.println("ERROR: " + e);
+                    status = 1;
+                }
+                writeExit(out, status);
+            } finally {
+                workers.release();
+            }
+        } catch (IOException e) {
+            // the client is gone, the job ends with it
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Standard input of a job, which gives the worker of the job to another one while it waits for the client
+     */
+    private final class WorkerFreeingInputStream extends FilterInputStream {
+        WorkerFreeingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            workers.release();
+            try {
+                return in.read();
+            } finally {
+                workers.acquireUninterruptibly();
+            }
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            workers.release();
+            try {
+                return in.read(b, off, len);
+            } finally {
+                workers.acquireUninterruptibly();
+            }
+        }
+    }
+
+
+    private static void writeMessage(DataOutputStream out, String message) throws IOException {
+        byte[] bytes = (message + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        synchronized (out) {
+            out.writeByte(Protocol.ERR);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.flush();
+        }
+    }
+
+
+    private static void writeExit(DataOutputStream out, int status) throws IOException {
+        synchronized (out) {
+            out.writeByte(Protocol.EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+    }
+
+}
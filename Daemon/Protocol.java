@@ -0,0 +1,166 @@
+package Daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+
+/**
+ * Messages between the daemon and its clients over a Unix domain socket
+ * <p>
+ * request: MAGIC(4 bytes)--command--workingDirectory--numArgs(4 bytes)--args, strings in modified UTF-8
+ * <p>
+ * Then the daemon sends frames: a frame type and its data. OUT and ERR carry a length(4 bytes) and bytes
+ * for the standard streams of the client, READ asks for at most a length(4 bytes) of standard input, which the
+ * client sends as a length(4 bytes) and bytes, -1 at the end of its input. EXIT carries the exit status(4 bytes)
+ * and ends the job.
+ */
+final class Protocol {
+    /**
+     * first bytes of a request, "HUF" and the version of the protocol
+     */
+    static final int MAGIC = 0x48554601;
+    static final int OUT = 1;
+    static final int ERR = 2;
+    static final int READ = 3;
+    static final int EXIT = 4;
+    /**
+     * command of a request that stops the daemon
+     */
+    static final String STOP = "stop";
+    /**
+     * exit status of a job that could not run, the daemon being busy or stopping
+     */
+    static final int UNAVAILABLE = 75;
+    /**
+     * system property of the socket path
+     */
+    static final String SOCKET_PROPERTY = "huff.daemon.socket";
+    /**
+     * environment variable of the socket path, if the property is not set
+     */
+    static final String SOCKET_ENV = "HUFFD_SOCKET";
+
+    private Protocol() {
+    }
+
+
+    /**
+     * @return path of the socket, from {@value #SOCKET_PROPERTY}, {@value #SOCKET_ENV}, or ~/.huff/huffd.sock
+     */
+    static Path getSocket() {
+        String socket = System.getProperty(SOCKET_PROPERTY);
+        if (socket == null) socket = System.getenv(SOCKET_ENV);
+        if (socket != null) return Path.of(socket);
+        return Path.of(System.getProperty("user.home"), ".huff", "huffd.sock");
+    }
+
+
+    /**
+     * A job sent by a client
+     *
+     * @param workingDirectory absolute working directory of the client
+     */
+    record Request(String command, Path workingDirectory, String[] args) {
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeUTF(command);
+            out.writeUTF(workingDirectory.toString());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+        }
+
+        static Request read(DataInputStream in) throws IOException {
+            if (in.readInt() != MAGIC) throw new IOException("Not a request of this version of the client");
+            String command = in.readUTF();
+            Path workingDirectory = Path.of(in.readUTF());
+            int numArgs = in.readInt();
+            if (numArgs < 0 || numArgs > 1 << 16) throw new IOException("Invalid number of arguments");
+            String[] args = new String[numArgs];
+            for (int i = 0; i < numArgs; i++) {
+                args[i] = in.readUTF();
+            }
+            return new Request(command, workingDirectory, args);
+        }
+    }
+
+
+    /**
+     * Stream of OUT or ERR frames, flushing the socket after each write, and closed with the job
+     */
+    static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream socket;
+        private final int type;
+
+        /**
+         * @param socket shared by the frames of a job, writes are synchronized on it
+         */
+        FrameOutputStream(DataOutputStream socket, int type) {
+            this.socket = socket;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            synchronized (socket) {
+                socket.writeByte(type);
+                socket.writeInt(len);
+                socket.write(b, off, len);
+                socket.flush();
+            }
+        }
+    }
+
+
+    /**
+     * Standard input of a client, read with READ frames when the job needs it
+     */
+    static final class RemoteInputStream extends InputStream {
+        private final DataOutputStream socket;
+        private final DataInputStream replies;
+        private boolean ended = false;
+
+        RemoteInputStream(DataOutputStream socket, DataInputStream replies) {
+            this.socket = socket;
+            this.replies = replies;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (ended) return -1;
+            synchronized (socket) {
+                socket.writeByte(READ);
+                socket.writeInt(len);
+                socket.flush();
+            }
+            int n = replies.readInt();
+            if (n == -1) {
+                ended = true;
+                return -1;
+            }
+            if (n <= 0 || n > len) throw new IOException("Invalid input from the client");
+            replies.readFully(b, off, n);
+            return n;
+        }
+    }
+
+}
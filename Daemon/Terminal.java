@@ -0,0 +1,84 @@
+package Daemon;
+
+import FileProcess.OverwritePolicy;
+import FileProcess.OverwriteProtector;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Objects;
+
+
+/**
+ * Standard streams and working directory of a command, those of the process or those of a daemon client
+ */
+public final class Terminal {
+    private final Path workingDirectory;
+    private final InputStream in;
+    private final OutputStream stdout;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    /**
+     * @param workingDirectory absolute directory relative paths are resolved against, null for the one of the process
+     * @param in               standard input
+     * @param stdout           standard output, for binary data
+     * @param out              standard output, for text
+     * @param err              standard error
+     */
+    public Terminal(Path workingDirectory, InputStream in, OutputStream stdout, PrintStream out, PrintStream err) {
+        this.workingDirectory = workingDirectory;
+        this.in = Objects.requireNonNull(in);
+        this.stdout = Objects.requireNonNull(stdout);
+        this.out = Objects.requireNonNull(out);
+        this.err = Objects.requireNonNull(err);
+    }
+
+
+    /**
+     * @return the streams of this process
+     */
+    public static Terminal system() {
+        return new Terminal(null, new FileInputStream(FileDescriptor.in), new FileOutputStream(FileDescriptor.out), System.out, System.err);
+    }
+
+
+    /**
+     * @return the file at a path given on the command line
+     */
+    public File resolve(String path) {
+        if (workingDirectory == null) return new File(path);
+        return workingDirectory.resolve(path).toFile();
+    }
+
+    /**
+     * @param stdinIsInput whether stdin carries the input of the command, so no answer can be read from it
+     * @return policy asking on this terminal before overwriting, or failing on an existing file when stdin is the
+     * input, as its data would be taken for answers
+     */
+    public OverwritePolicy overwritePolicy(boolean stdinIsInput) {
+        return stdinIsInput ? OverwritePolicy.FAIL : new OverwriteProtector(in, out);
+    }
+
+    public InputStream getIn() {
+        return in;
+    }
+
+    public OutputStream getStdout() {
+        return stdout;
+    }
+
+    public PrintStream getOut() {
+        return out;
+    }
+
+    public PrintStream getErr() {
+        return err;
+    }
+
+}
@@ -0,0 +1,18 @@
+package FileProcess;
+
+import java.io.IOException;
+
+
+/**
+ * Thrown when an archive is not well formed: a magic number does not match, a header or the central
+ * directory holds impossible values, or encoded bits do not decode
+ * <p>
+ * A truncated archive throws an {@link java.io.EOFException} instead.
+ */
+public class ArchiveException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ArchiveException(String message) {
+        super(message);
+    }
+}
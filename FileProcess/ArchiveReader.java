@@ -0,0 +1,249 @@
+package FileProcess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * Reads archives from a file, a channel or a byte array, for applications that extract in-process instead of running xf
+ * <p>
+ * An archive file is seeked with its central directory, so entries can be selected and decoded in parallel.
+ * An archive in memory is read from start to end by every call. An archive from a channel is read once
+ * from start to end, so the reader serves a single call, and the channel is left open for the caller to close.
+ * <p>
+ * Nothing is printed and nothing exits. A malformed archive throws an {@link ArchiveException},
+ * a truncated one an {@link EOFException}. Settings such as the codebook directory belong to the reader, so readers
+ * used at the same time, as by the jobs of a daemon, do not share them.
+ */
+public final class ArchiveReader {
+    private final Path file;
+    private final byte[] bytes;
+    private ReadableByteChannel channel;
+    private boolean mmap = false;
+    private File codebookDirectory = Codebook.getDirectory();
+
+    /**
+     * @param archive an archive file
+     */
+    public ArchiveReader(Path archive) {
+        file = Objects.requireNonNull(archive);
+        bytes = null;
+        channel = null;
+    }
+
+    /**
+     * @param archive a whole archive in memory
+     */
+    public ArchiveReader(byte[] archive) {
+        file = null;
+        bytes = Objects.requireNonNull(archive);
+        channel = null;
+    }
+
+    /**
+     * @param archive a channel positioned at the start of an archive, such as a pipe
+     */
+    public ArchiveReader(ReadableByteChannel archive) {
+        file = null;
+        bytes = null;
+        channel = Objects.requireNonNull(archive);
+    }
+
+
+    /**
+     * @param mmap whether files of at least 1 MB extracted with the central directory are written through a memory map,
+     *             off by default
+     * @return this reader
+     */
+    public ArchiveReader mmap(boolean mmap) {
+        this.mmap = mmap;
+        return this;
+    }
+
+
+    /**
+     * @param directory where the codebooks of CodebookFileBlocks are looked up, {@link Codebook#getDirectory()} by default
+     * @return this reader
+     */
+    public ArchiveReader codebookDirectory(Path directory) {
+        codebookDirectory = directory.toFile();
+        return this;
+    }
+
+
+    /**
+     * @return relative paths of all entries, from the header, in archive order
+     */
+    public List<String> getPaths() throws IOException {
+        List<String> paths = new ArrayList<>();
+        try (PushbackInputStream in = new PushbackInputStream(open())) {
+            FileIO.checkHeader(in);
+            int firstByte;
+            while ((firstByte = in.read()) != FileIO.HEADER_END_SIGN) {
+                if (firstByte == -1) throw new EOFException("Truncated header");
+                paths.add((char) firstByte + FileIO.readString(in));
+            }
+        }
+        return paths;
+    }
+
+
+    /**
+     * @return entries with their sizes from the central directory, or null if the archive is older than the central directory
+     * @throws UnsupportedOperationException if the archive comes from a channel, which can not be seeked
+     */
+    public List<CentralDirectory.Entry> getEntries() throws IOException {
+        if (file != null) return CentralDirectory.read(file.toFile());
+        if (bytes != null) return CentralDirectory.read(bytes);
+        throw new UnsupportedOperationException("The central directory of an archive from a channel can not be seeked");
+    }
+
+
+    /**
+     * Extract all entries into a directory, one after another
+     *
+     * @param outputRoot directory of the extracted entries, created if missing
+     * @param policy     what to do with entries that already exist
+     * @return number of extracted entries, without the skipped ones
+     */
+    public int extract(Path outputRoot, OverwritePolicy policy) throws IOException {
+        return extract(outputRoot, List.of(), 1, policy);
+    }
+
+
+    /**
+     * Extract the selected entries into a directory
+     *
+     * @param outputRoot directory of the extracted entries, created if missing
+     * @param patterns   paths or globs of the entries to extract, empty for all entries
+     * @param threads    number of files decoded at the same time
+     * @param policy     what to do with entries that already exist
+     * @return number of extracted entries, without the skipped ones
+     * @throws UnsupportedOperationException if entries are selected or decoded in parallel, but the archive is not a file
+     */
+    public int extract(Path outputRoot, List<String> patterns, int threads, OverwritePolicy policy) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("Number of threads must be positive");
+        Objects.requireNonNull(policy);
+        boolean seek = !patterns.isEmpty() || threads > 1;
+        if (seek && file == null) {
+            throw new UnsupportedOperationException("Selecting entries and decoding them in parallel seek in an archive file");
+        }
+        Files.createDirectories(outputRoot);
+        // the central directory of a file tells the sizes of the files, so they are laid out before decoding
+        if (file != null) {
+            return Decompression.extract(file.toFile(), outputRoot.toFile(), patterns, threads, policy, mmap, codebookDirectory);
+        }
+        try (InputStream in = open()) {
+            return Decompression.decompress(outputRoot.toFile(), in, policy, codebookDirectory);
+        }
+    }
+
+
+    /**
+     * Decode every file without writing anything, checking its size and CRC32C against the central directory
+     * <p>
+     * An archive from a channel or in memory is read from start to end, and its sizes and checksums are compared once
+     * its central directory is reached. An archive older than checksums is only checked for being decodable to its sizes.
+     *
+     * @param threads number of files decoded at the same time
+     * @return number of tested files
+     * @throws ArchiveException              if a file fails its check
+     * @throws UnsupportedOperationException if files are decoded in parallel, but the archive is not a file
+     */
+    public int test(int threads) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("Number of threads must be positive");
+        if (file != null) return Decompression.test(file.toFile(), threads, codebookDirectory);
+        if (threads > 1) throw new UnsupportedOperationException("Decoding files in parallel seeks in an archive file");
+        try (InputStream in = open()) {
+            return Decompression.test(in, codebookDirectory);
+        }
+    }
+
+
+    /**
+     * Decode the contents of all files, one after another, into a channel
+     * <p>
+     * An archive file is read with its central directory. An archive from a channel is read once, so it can not hold
+     * duplicates of dedup mode, whose originals would be needed again.
+     *
+     * @return number of decoded files
+     */
+    public int decompressTo(WritableByteChannel out) throws IOException {
+        OutputStream os = new BufferedOutputStream(Metrics.timed(Channels.newOutputStream(out)));
+        // a file is read with its central directory, so duplicates are decoded again
+        if (file != null) return Decompression.decompressToStream(file.toFile(), os, codebookDirectory);
+        try (InputStream in = open()) {
+            return Decompression.decompressToStream(in, os, codebookDirectory);
+        }
+    }
+
+
+    /**
+     * Decode all files into memory
+     *
+     * @return contents of the files by relative path, in archive order
+     */
+    public Map<String, byte[]> readFiles() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        try (InputStream in = open()) {
+            Decompression.decompress(in, codebookDirectory, new Decompression.EntrySink() {
+                @Override
+                public OutputStream open(String path) {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() {
+                            files.put(path, toByteArray());
+                        }
+                    };
+                }
+
+                @Override
+                public boolean directory(String path) {
+                    return false;
+                }
+
+                @Override
+                public boolean duplicate(String path, String original) throws ArchiveException {
+                    byte[] content = files.get(original);
+                    if (content == null) throw new ArchiveException(path + " is a copy of " + original + ", which was not decoded");
+                    files.put(path, content);
+                    return true;
+                }
+            });
+        }
+        return files;
+    }
+
+
+    /**
+     * @return the archive from its start, closing it leaves a channel open
+     * @throws IllegalStateException if the channel has been read already
+     */
+    private InputStream open() throws IOException {
+        if (file != null) return new BufferedInputStream(Metrics.timed(Files.newInputStream(file)));
+        if (bytes != null) return new ByteArrayInputStream(bytes);
+        if (channel == null) throw new IllegalStateException("The archive channel has been read already");
+        InputStream in = new BufferedInputStream(Metrics.timed(FileIO.newInputStream(channel)));
+        channel = null;
+        return in;
+    }
+
+}
@@ -0,0 +1,253 @@
+package FileProcess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+
+
+/**
+ * Writes archives from files, directory trees, channels or byte arrays, for applications that
+ * compress in-process instead of running cf
+ * <p>
+ * Nothing is printed and nothing exits, every failure is thrown. Channels are read or written
+ * as far as needed and left open for the caller to close.
+ */
+public final class ArchiveWriter {
+    /**
+     * Sizes of a written archive
+     *
+     * @param originalSize total size of the archived files
+     * @param archiveSize  size of the archive
+     */
+    public record Summary(long originalSize, long archiveSize) {
+    }
+
+    /**
+     * Sizes of an updated archive, and what was done to its files
+     *
+     * @param originalSize total size of the archived files
+     * @param archiveSize  size of the archive
+     * @param copiedFiles  number of unchanged files whose blocks were copied
+     * @param encodedFiles number of new or changed files that were encoded
+     */
+    public record UpdateSummary(long originalSize, long archiveSize, int copiedFiles, int encodedFiles) {
+    }
+
+    /**
+     * Sizes a file would take in an archive, see {@link #estimate}
+     *
+     * @param path         path of the file in the archive
+     * @param originalSize size of the file
+     * @param entropySize  size of the block with each chunk, or the whole file, coded at the order-0 entropy of its
+     *                     own bytes, without code tables, a lower bound of huffmanSize
+     * @param huffmanSize  size of the block with every chunk coded
+     * @param archivedSize size of the block as it is written, each chunk coded or stored, whichever is smaller
+     * @param method       how the file is written, "huffman", "stored", or "mixed" for a chunked file with both
+     */
+    public record Estimate(String path, long originalSize, long entropySize, long huffmanSize, long archivedSize, String method) {
+    }
+
+    private final CompressionOptions options;
+
+    public ArchiveWriter() {
+        this(new CompressionOptions());
+    }
+
+    /**
+     * @param options settings of every archive this writer writes
+     */
+    public ArchiveWriter(CompressionOptions options) {
+        this.options = Objects.requireNonNull(options);
+    }
+
+
+    /**
+     * Compress a file or a directory tree into an archive file
+     *
+     * @param source  a file or a directory, entries are named relative to its parent
+     * @param archive the archive file
+     * @param policy  whether to replace an existing archive file
+     * @throws FileAlreadyExistsException if the archive exists and the policy does not overwrite it
+     * @throws NoSuchFileException        if the source does not exist
+     */
+    public Summary write(Path source, Path archive, OverwritePolicy policy) throws IOException {
+        if (!Files.exists(source)) throw new NoSuchFileException(source.toString());
+        if (source.toAbsolutePath().normalize().equals(archive.toAbsolutePath().normalize())) {
+            throw new IllegalArgumentException("Source and archive are the same file");
+        }
+        if (Files.exists(archive) && !policy.overwrite(archive)) throw new FileAlreadyExistsException(archive.toString());
+        try (OutputStream out = Files.newOutputStream(archive)) {
+            return write(source, out);
+        }
+    }
+
+
+    /**
+     * Update the archive file of a file or a directory tree, or write it if it does not exist
+     * <p>
+     * Blocks of unchanged files are copied from the existing archive, and only new or changed files are encoded,
+     * see {@link Compression#update}. The new archive is written next to the old one and then moved over it, so
+     * a failed update leaves the old archive as it was.
+     *
+     * @param source    a file or a directory, entries are named relative to its parent
+     * @param archive   the archive file, an earlier archive of the same source
+     * @param byContent whether files are compared by checksum rather than by size and modification time
+     * @throws NoSuchFileException if the source does not exist
+     */
+    public UpdateSummary update(Path source, Path archive, boolean byContent) throws IOException {
+        if (!Files.exists(source)) throw new NoSuchFileException(source.toString());
+        if (source.toAbsolutePath().normalize().equals(archive.toAbsolutePath().normalize())) {
+            throw new IllegalArgumentException("Source and archive are the same file");
+        }
+        File src = source.toAbsolutePath().normalize().toFile();
+        File root = src.getParentFile();
+        if (root == null) throw new IllegalArgumentException("Can not archive the root of a file system");
+        Path directory = archive.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, archive.getFileName().toString(), ".tmp");
+        try {
+            int[] counts = new int[2];
+            long originalSize;
+            long archiveSize;
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                originalSize = Compression.update(root, src, Files.exists(archive) ? archive.toFile() : null, out, options,
+                        byContent, counts);
+                archiveSize = out.size();
+            }
+            try {
+                Files.move(temp, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, archive, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return new UpdateSummary(originalSize, archiveSize, counts[0], counts[1]);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+
+    /**
+     * Estimate the archive of a file or a directory tree without writing it
+     * <p>
+     * Each file is read once, and its block is sized exactly as it would be written on its own. Solid groups,
+     * codebooks, dedup mode and the block-sorting transform of the options are left out.
+     *
+     * @param source a file or a directory, entries are named relative to its parent
+     * @return the estimate of each file in archive order
+     * @throws NoSuchFileException if the source does not exist
+     */
+    public List<Estimate> estimate(Path source) throws IOException {
+        if (!Files.exists(source)) throw new NoSuchFileException(source.toString());
+        File src = source.toAbsolutePath().normalize().toFile();
+        File root = src.getParentFile();
+        if (root == null) throw new IllegalArgumentException("Can not archive the root of a file system");
+        return Compression.estimate(root, src, options);
+    }
+
+
+    /**
+     * Compress a file or a directory tree into a channel
+     *
+     * @param source a file or a directory, entries are named relative to its parent
+     * @throws NoSuchFileException if the source does not exist
+     */
+    public Summary write(Path source, WritableByteChannel archive) throws IOException {
+        return write(source, Channels.newOutputStream(archive));
+    }
+
+
+    /**
+     * Compress a file or a directory tree into memory
+     *
+     * @param source a file or a directory, entries are named relative to its parent
+     * @return the archive
+     * @throws NoSuchFileException if the source does not exist
+     */
+    public byte[] write(Path source) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(source, out);
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Compress a stream of unknown length, read once until its end, into an archive of a single file
+     *
+     * @param name    path of the file in the archive
+     * @param src     the stream to compress
+     * @param archive where the archive goes, nothing is seeked, so it may be a pipe
+     */
+    public Summary writeStream(String name, ReadableByteChannel src, WritableByteChannel archive) throws IOException {
+        return writeStream(name, new BufferedInputStream(Metrics.timed(FileIO.newInputStream(src))), Channels.newOutputStream(archive));
+    }
+
+
+    /**
+     * Compress a stream of unknown length, read once until its end, into an archive file of a single file
+     *
+     * @param name    path of the file in the archive
+     * @param src     the stream to compress
+     * @param archive the archive file
+     * @param policy  whether to replace an existing archive file
+     * @throws FileAlreadyExistsException if the archive exists and the policy does not overwrite it
+     */
+    public Summary writeStream(String name, ReadableByteChannel src, Path archive, OverwritePolicy policy) throws IOException {
+        if (Files.exists(archive) && !policy.overwrite(archive)) throw new FileAlreadyExistsException(archive.toString());
+        try (OutputStream out = Files.newOutputStream(archive)) {
+            return writeStream(name, new BufferedInputStream(Metrics.timed(FileIO.newInputStream(src))), out);
+        }
+    }
+
+
+    /**
+     * Compress bytes in memory into an archive of a single file
+     *
+     * @param name path of the file in the archive
+     * @return the archive
+     */
+    public byte[] write(String name, byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+        writeStream(name, new ByteArrayInputStream(data), out);
+        return out.toByteArray();
+    }
+
+
+    private Summary write(Path source, OutputStream archive) throws IOException {
+        if (!Files.exists(source)) throw new NoSuchFileException(source.toString());
+        File src = source.toAbsolutePath().normalize().toFile();
+        File root = src.getParentFile();
+        if (root == null) throw new IllegalArgumentException("Can not archive the root of a file system");
+        CountingOutputStream counter = new CountingOutputStream(Metrics.timed(archive));
+        BufferedOutputStream out = new BufferedOutputStream(counter);
+        long originalSize = Compression.compress(root, src, out, options);
+        out.flush();
+        return new Summary(originalSize, counter.getCount());
+    }
+
+
+    private Summary writeStream(String name, InputStream src, OutputStream archive) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(Metrics.timed(archive));
+        BufferedOutputStream out = new BufferedOutputStream(counter);
+        long originalSize = Compression.compressStream(name, src, out, options);
+        out.flush();
+        return new Summary(originalSize, counter.getCount());
+    }
+
+}
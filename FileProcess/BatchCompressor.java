@@ -0,0 +1,224 @@
+package FileProcess;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+
+/**
+ * Compresses many independent archives at once, one thread per archive, such as one archive per subdirectory
+ * <p>
+ * Threads are virtual where the runtime has them, so thousands of jobs cost little more than their work. What runs
+ * at the same time is limited apart for disk and for encoding: a job scans its source and settles its archive
+ * file with one of {@code ioLimit} permits, encodes with one of {@code cpuLimit} permits, and writes its archive
+ * with an I/O permit again. An archive that fits in what is left of {@code options.getMaxBufferedBytes()} is
+ * encoded into memory, so encoding never waits on a slow disk; a bigger one is encoded straight into its file,
+ * holding both permits.
+ * <p>
+ * A failed job is reported in its result and does not stop the others. A failed archive file is deleted.
+ */
+public final class BatchCompressor {
+    /**
+     * One archive to write
+     *
+     * @param source  a file or a directory, entries are named relative to its parent
+     * @param archive the archive file, its missing parent directories are created
+     */
+    public record Job(Path source, Path archive) {
+        public Job {
+            Objects.requireNonNull(source);
+            Objects.requireNonNull(archive);
+        }
+    }
+
+    /**
+     * Outcome of a job
+     *
+     * @param job          the job
+     * @param originalSize total size of the archived files, 0 if it failed
+     * @param archiveSize  size of the archive, 0 if it failed
+     * @param nanos        time from the first permit of the job to its end, without waiting for its first permit
+     * @param failure      why the job failed, null if it succeeded
+     */
+    public record Result(Job job, long originalSize, long archiveSize, long nanos, Exception failure) {
+        public boolean isSuccess() {
+            return failure == null;
+        }
+    }
+
+    /**
+     * unit of the memory budget, so it fits in the permits of a semaphore
+     */
+    private static final int BUDGET_UNIT = 1 << 10;
+
+    private final CompressionOptions options;
+    private final OverwritePolicy policy;
+    private final Semaphore io;
+    private final Semaphore cpu;
+    private final Semaphore memory;
+    private final int memoryUnits;
+
+    /**
+     * @param options  settings of every archive, with {@code getThreads()} workers inside each job
+     * @param ioLimit  number of jobs reading sources or writing archives at the same time
+     * @param cpuLimit number of jobs encoding at the same time
+     * @param policy   whether to replace existing archive files, asked from many threads at once
+     */
+    public BatchCompressor(CompressionOptions options, int ioLimit, int cpuLimit, OverwritePolicy policy) {
+        if (ioLimit < 1 || cpuLimit < 1) throw new IllegalArgumentException("I/O and CPU limits must be positive");
+        this.options = Objects.requireNonNull(options);
+        this.policy = Objects.requireNonNull(policy);
+        io = new Semaphore(ioLimit, true);
+        cpu = new Semaphore(cpuLimit, true);
+        memoryUnits = (int) Math.min(Integer.MAX_VALUE, options.getMaxBufferedBytes() / BUDGET_UNIT);
+        memory = new Semaphore(memoryUnits, true);
+    }
+
+
+    /**
+     * Run all jobs and wait for them
+     *
+     * @param listener told about each result as its job ends, from the thread of the job
+     * @return results in the order of the jobs
+     */
+    public List<Result> run(List<Job> jobs, Consumer<Result> listener) throws InterruptedIOException {
+        List<Future<Result>> futures = new ArrayList<>(jobs.size());
+        ExecutorService executor = newExecutor(io.availablePermits() + cpu.availablePermits());
+        try {
+            for (Job job : jobs) {
+                futures.add(executor.submit(() -> {
+                    Result result = runJob(job);
+                    listener.accept(result);
+                    return result;
+                }));
+            }
+            List<Result> results = new ArrayList<>(jobs.size());
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the batch");
+        } catch (ExecutionException e) {
+            // runJob catches every failure of a job, only the listener can throw
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * @return a virtual thread per task where the runtime has them (Java 21), else a pool of platform threads,
+     * as many as the jobs that can hold a permit at the same time
+     */
+    static ExecutorService newExecutor(int platformThreads) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // older runtime, or virtual threads still a preview feature
+            return Executors.newFixedThreadPool(platformThreads);
+        }
+    }
+
+
+    private Result runJob(Job job) {
+        long start = 0;
+        Path archive = job.archive();
+        boolean created = false;
+        try {
+            File src = job.source().toAbsolutePath().normalize().toFile();
+            File root = src.getParentFile();
+            if (root == null) throw new IllegalArgumentException("Can not archive the root of a file system");
+            long bound;
+            io.acquire();
+            start = System.nanoTime();
+            try {
+                if (!src.exists()) throw new NoSuchFileException(src.toString());
+                if (src.toPath().equals(archive.toAbsolutePath().normalize())) {
+                    throw new IllegalArgumentException("Source and archive are the same file");
+                }
+                if (Files.exists(archive) && !policy.overwrite(archive)) throw new FileAlreadyExistsException(archive.toString());
+                Path directory = archive.toAbsolutePath().getParent();
+                if (directory != null) Files.createDirectories(directory);
+                bound = Compression.maxArchiveSize(root, src, options);
+            } finally {
+                io.release();
+            }
+
+            long units = (bound + BUDGET_UNIT - 1) / BUDGET_UNIT;
+            if (bound > Integer.MAX_VALUE - 8 || units > memoryUnits) {
+                // too big for memory, encode into the file
+                created = true;
+                io.acquire();
+                try {
+                    cpu.acquire();
+                    try (CountingOutputStream counter = new CountingOutputStream(Files.newOutputStream(archive));
+                         BufferedOutputStream out = new BufferedOutputStream(counter)) {
+                        long originalSize = Compression.compress(root, src, out, options);
+                        out.flush();
+                        return new Result(job, originalSize, counter.getCount(), System.nanoTime() - start, null);
+                    } finally {
+                        cpu.release();
+                    }
+                } finally {
+                    io.release();
+                }
+            }
+
+            memory.acquire((int) units);
+            try {
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream((int) Math.min(bound, 1 << 16));
+                long originalSize;
+                cpu.acquire();
+                try (BufferedOutputStream out = new BufferedOutputStream(encoded)) {
+                    originalSize = Compression.compress(root, src, out, options);
+                } finally {
+                    cpu.release();
+                }
+                io.acquire();
+                try {
+                    created = true;
+                    try (OutputStream out = Files.newOutputStream(archive)) {
+                        encoded.writeTo(out);
+                    }
+                } finally {
+                    io.release();
+                }
+                return new Result(job, originalSize, encoded.size(), System.nanoTime() - start, null);
+            } finally {
+                memory.release((int) units);
+            }
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            if (created) {
+                try {
+                    Files.deleteIfExists(archive);
+                } catch (IOException ignored) {
+                    // the failure of the job is reported already
+                }
+            }
+            return new Result(job, 0, 0, start == 0 ? 0 : System.nanoTime() - start, e);
+        }
+    }
+
+}
@@ -0,0 +1,450 @@
+package FileProcess;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Block-sorting mode: each block of a file goes through the Burrows-Wheeler transform, move-to-front and run-length
+ * coding of zeros before its Huffman coding, so the order-0 code sees bytes grouped by the context that follows them
+ * <p>
+ * BlockSortedFileBlock: BLOCK_SORTED_FILE_MAGIC--StringOfPath--STRING_END_SIGN--blockSize(4 bytes)--numBlocks(4 bytes)--blocks
+ * <p>
+ * Block: blockLength(4 bytes)--primaryIndex(4 bytes)--MaxCodeLength--CanonicalCodeTable--encodedBits(ending with special EOF)
+ * <p>
+ * RawBlock: blockLength(4 bytes)--(-1)(4 bytes)--bytes, for a block the transform and coding would not shrink
+ * <p>
+ * The layout is the one of a ChunkedFileBlock, so blocks are encoded and decoded on the pool of {@link ChunkedFile}.
+ * The transform sorts the suffixes of a block with a suffix array built by induced sorting, as if an end marker smaller
+ * than every byte followed the block. The marker is left out of the last column, and the primary index is its row.
+ * The symbols of the transform stay bytes, so they are coded
+ * like a chunk, as a StoredChunk too, with 256 left for EOF: a run of move-to-front index 0 is written in bijective
+ * base 2 with the digits RUN_A and RUN_B, indices 1 to 253 as 2 to 254, and 254 and 255 as ESCAPE followed by 0 or 1.
+ * <p>
+ * Memory is bounded by the block size n, per worker: sorting takes about 20n bytes, the block as ints, the suffix
+ * array, the LMS positions and half as much again one level down, and the inverse one int array of n and the symbols
+ * and the block twice, about 9n bytes.
+ */
+final class BlockSort {
+    /**
+     * primaryIndex of a RawBlock
+     */
+    private static final int RAW = -1;
+    private static final int RUN_A = 0;
+    private static final int RUN_B = 1;
+    private static final int ESCAPE = 255;
+    /**
+     * Fewer symbols than this are sorted by comparing the suffixes
+     */
+    private static final int NAIVE_SORT_SIZE = 10;
+
+    private BlockSort() {
+    }
+
+
+    /**
+     * Whether a file is written as a BlockSortedFileBlock
+     */
+    static boolean isBlockSorted(File src, CompressionOptions options) {
+        // a codebook codes the whole file in one pass
+        return options.getBlockSortSize() > 0 && src.isFile() && options.getCodebook() == null;
+    }
+
+
+    /**
+     * Write a single file as a BlockSortedFileBlock
+     *
+     * @param root        the root path of source file(s)
+     * @param src         current compressing file
+     * @param dest        the archived file
+     * @param options     settings of this compression
+     * @param parallelism number of blocks encoded at the same time
+     * @return CRC32C of the file
+     */
+    static long compress(File root, File src, OutputStream dest, CompressionOptions options, int parallelism) throws IOException {
+        return ChunkedFile.compress(root, src, dest, FileIO.BLOCK_SORTED_FILE_MAGIC, options.getBlockSortSize(), parallelism,
+                data -> encodeBlock(data, options.getMaxCodeLength()));
+    }
+
+
+    /**
+     * Read the rest of a BlockSortedFileBlock after the path, and write the decoded bytes
+     *
+     * @param parallelism number of blocks decoded at the same time
+     * @param version     format version of the archive
+     */
+    static void decompress(InputStream in, OutputStream out, int parallelism, int version) throws IOException {
+        ChunkedFile.decompress(in, out, parallelism, (block, blockSize) -> decodeBlock(block, blockSize, version));
+    }
+
+
+    /**
+     * Transform and encode one block: primaryIndex--MaxCodeLength--CanonicalCodeTable--encodedBits, or -1--bytes
+     * if that is not smaller
+     */
+    static byte[] encodeBlock(byte[] data, int maxCodeLength) throws IOException {
+        long start = Metrics.start();
+        int n = data.length;
+        byte[] last = new byte[n];
+        int primaryIndex = transform(data, last);
+        byte[] symbols = new byte[2 * n];
+        int numSymbols = encodeSymbols(last, symbols);
+        Metrics.stop(Metrics.Phase.TRANSFORM, start, n);
+
+        byte[] chunk = ChunkedFile.encodeChunk(Arrays.copyOf(symbols, numSymbols), maxCodeLength);
+        boolean raw = chunk.length >= n;
+        ByteBuffer block = ByteBuffer.allocate(Integer.BYTES + (raw ? n : chunk.length));
+        block.putInt(raw ? RAW : primaryIndex);
+        block.put(raw ? data : chunk);
+        return block.array();
+    }
+
+
+    /**
+     * Decode one block and invert its transform
+     *
+     * @param blockSize most bytes a block decodes to
+     * @param version   format version of the archive
+     */
+    static byte[] decodeBlock(byte[] block, int blockSize, int version) throws IOException {
+        if (block.length < Integer.BYTES + 1) throw new ArchiveException("Invalid block length");
+        if (blockSize > CompressionOptions.MAX_BLOCK_SORT_SIZE) throw new ArchiveException("Invalid block size: " + blockSize);
+        int primaryIndex = ByteBuffer.wrap(block).getInt();
+        if (primaryIndex == RAW) {
+            if (block.length - Integer.BYTES > blockSize) throw new ArchiveException("Raw block is larger than the block size");
+            return Arrays.copyOfRange(block, Integer.BYTES, block.length);
+        }
+        // each byte of a block gives at most 2 symbols
+        byte[] symbols = ChunkedFile.decodeChunk(Arrays.copyOfRange(block, Integer.BYTES, block.length),
+                (int) Math.min(2L * blockSize, Integer.MAX_VALUE - 8), version);
+
+        long start = Metrics.start();
+        byte[] last = new byte[blockSize];
+        int n = decodeSymbols(symbols, last);
+        if (primaryIndex < 0 || primaryIndex > n) throw new ArchiveException("Invalid primary index of a sorted block");
+        byte[] data = inverseTransform(last, n, primaryIndex);
+        Metrics.stop(Metrics.Phase.TRANSFORM, start, n);
+        return data;
+    }
+
+
+    /**
+     * Burrows-Wheeler transform: sort the suffixes of data followed by an end marker smaller than every byte, and
+     * take the byte before each one
+     *
+     * @param data the block, not empty
+     * @param last output, the last column of the sorted suffixes without the end marker, as long as data
+     * @return the primary index, row of the suffix starting at 0, whose byte before is the end marker
+     */
+    static int transform(byte[] data, byte[] last) {
+        int n = data.length;
+        int[] s = new int[n];
+        for (int i = 0; i < n; i++) {
+            s[i] = data[i] & 0xFF;
+        }
+        int[] suffixes = suffixArray(s, FrequencyTable.BYTE_PATTERNS_NUM - 2);
+        // row 0 is the end marker alone, preceded by the last byte
+        last[0] = data[n - 1];
+        int primaryIndex = -1;
+        int size = 1;
+        for (int row = 1; row <= n; row++) {
+            int start = suffixes[row - 1];
+            if (start == 0) {
+                primaryIndex = row;
+            } else {
+                last[size++] = data[start - 1];
+            }
+        }
+        return primaryIndex;
+    }
+
+
+    /**
+     * Rebuild a block from the last column of its sorted suffixes
+     * <p>
+     * next[] maps the row of the suffix starting at i to the row of the suffix starting at i + 1, since the rows
+     * of a byte in the last column are in the order of its rows in the first column, where the end marker is row 0.
+     * The byte of each row in the last column is packed below its next row, so each step reads memory once.
+     *
+     * @param last         the last column without the end marker, its first n bytes
+     * @param primaryIndex row of the end marker in the last column, in [0, n]
+     */
+    static byte[] inverseTransform(byte[] last, int n, int primaryIndex) {
+        int[] start = new int[FrequencyTable.BYTE_PATTERNS_NUM];
+        for (int i = 0; i < n; i++) {
+            start[(last[i] & 0xFF) + 1]++;
+        }
+        // rows in the first column, after the end marker
+        start[0] = 1;
+        for (int b = 1; b < start.length; b++) {
+            start[b] += start[b - 1];
+        }
+        int[] next = new int[n + 1];
+        next[0] = primaryIndex;
+        for (int row = 0; row < primaryIndex; row++) {
+            next[start[last[row] & 0xFF]++] = row;
+        }
+        for (int row = primaryIndex + 1; row <= n; row++) {
+            next[start[last[row - 1] & 0xFF]++] = row;
+        }
+        // rows of a block up to MAX_BLOCK_SORT_SIZE take 23 bits
+        for (int row = 0; row < primaryIndex; row++) {
+            next[row] = next[row] << 8 | (last[row] & 0xFF);
+        }
+        for (int row = primaryIndex + 1; row <= n; row++) {
+            next[row] = next[row] << 8 | (last[row - 1] & 0xFF);
+        }
+        next[primaryIndex] <<= 8;
+        byte[] data = new byte[n];
+        int row = next[primaryIndex] >>> 8;
+        for (int i = 0; i < n; i++) {
+            // the end marker is only reached after the last byte
+            int entry = next[row];
+            data[i] = (byte) entry;
+            row = entry >>> 8;
+        }
+        return data;
+    }
+
+
+    /**
+     * Suffix array by induced sorting (SA-IS), in linear time: the LMS substrings are sorted by induction, named,
+     * and their order is found from the suffix array of the names, one level down, before the suffixes are induced
+     * from them again
+     * <p>
+     * A suffix that is a prefix of another one comes first, as if an end marker smaller than every symbol followed.
+     *
+     * @param s     symbols in [0, upper]
+     * @param upper largest symbol
+     * @return the start of each suffix in sorted order
+     */
+    static int[] suffixArray(int[] s, int upper) {
+        int n = s.length;
+        if (n < NAIVE_SORT_SIZE) return naiveSuffixArray(s);
+
+        // S-type suffixes are smaller than the suffix after them, L-type ones larger
+        boolean[] sType = new boolean[n];
+        for (int i = n - 2; i >= 0; i--) {
+            sType[i] = s[i] == s[i + 1] ? sType[i + 1] : s[i] < s[i + 1];
+        }
+        // start of the L-type and of the S-type suffixes of each symbol
+        int[] startL = new int[upper + 2];
+        int[] startS = new int[upper + 2];
+        for (int i = 0; i < n; i++) {
+            if (sType[i]) {
+                startL[s[i] + 1]++;
+            } else {
+                startS[s[i]]++;
+            }
+        }
+        for (int c = 0; c <= upper; c++) {
+            startS[c] += startL[c];
+            startL[c + 1] += startS[c];
+        }
+
+        // leftmost S-type positions, in text order, and the index of each one
+        int[] lmsIndex = new int[n];
+        int m = 0;
+        for (int i = 1; i < n; i++) {
+            lmsIndex[i] = !sType[i - 1] && sType[i] ? m++ : -1;
+        }
+        lmsIndex[0] = -1;
+        int[] lms = new int[m];
+        for (int i = 1, j = 0; i < n; i++) {
+            if (lmsIndex[i] >= 0) lms[j++] = i;
+        }
+
+        int[] sa = new int[n];
+        int[] bucket = new int[upper + 2];
+        induce(s, sType, lms, sa, startL, startS, bucket);
+        if (m == 0) return sa;
+
+        int[] sortedLms = new int[m];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (lmsIndex[sa[i]] >= 0) sortedLms[j++] = sa[i];
+        }
+        // name the LMS substrings, equal substrings get the same name
+        int[] names = new int[m];
+        int name = 0;
+        names[lmsIndex[sortedLms[0]]] = 0;
+        for (int i = 1; i < m; i++) {
+            int l = sortedLms[i - 1];
+            int r = sortedLms[i];
+            int endL = lmsIndex[l] + 1 < m ? lms[lmsIndex[l] + 1] : n;
+            int endR = lmsIndex[r] + 1 < m ? lms[lmsIndex[r] + 1] : n;
+            boolean same = endL - l == endR - r;
+            if (same) {
+                while (l < endL && s[l] == s[r]) {
+                    l++;
+                    r++;
+                }
+                same = l < n && s[l] == s[r];
+            }
+            if (!same) name++;
+            names[lmsIndex[sortedLms[i]]] = name;
+        }
+        lmsIndex = null;
+
+        int[] namesOrder = suffixArray(names, name);
+        for (int i = 0; i < m; i++) {
+            sortedLms[i] = lms[namesOrder[i]];
+        }
+        induce(s, sType, sortedLms, sa, startL, startS, bucket);
+        return sa;
+    }
+
+
+    /**
+     * Place the given LMS suffixes at the end of their buckets, then induce the L-type suffixes from left to
+     * right and the S-type suffixes from right to left
+     */
+    private static void induce(int[] s, boolean[] sType, int[] lms, int[] sa, int[] startL, int[] startS, int[] bucket) {
+        int n = s.length;
+        Arrays.fill(sa, -1);
+        System.arraycopy(startS, 0, bucket, 0, bucket.length);
+        for (int d : lms) {
+            sa[bucket[s[d]]++] = d;
+        }
+        System.arraycopy(startL, 0, bucket, 0, bucket.length);
+        sa[bucket[s[n - 1]]++] = n - 1;
+        for (int i = 0; i < n; i++) {
+            int v = sa[i];
+            if (v >= 1 && !sType[v - 1]) sa[bucket[s[v - 1]]++] = v - 1;
+        }
+        System.arraycopy(startL, 0, bucket, 0, bucket.length);
+        for (int i = n - 1; i >= 0; i--) {
+            int v = sa[i];
+            if (v >= 1 && sType[v - 1]) sa[--bucket[s[v - 1] + 1]] = v - 1;
+        }
+    }
+
+
+    /**
+     * Suffix array of a few symbols by comparing the suffixes
+     */
+    private static int[] naiveSuffixArray(int[] s) {
+        Integer[] order = new Integer[s.length];
+        for (int i = 0; i < s.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            for (int i = a, j = b; i < s.length && j < s.length; i++, j++) {
+                if (s[i] != s[j]) return Integer.compare(s[i], s[j]);
+            }
+            // the shorter suffix comes first
+            return Integer.compare(b, a);
+        });
+        int[] sa = new int[s.length];
+        for (int i = 0; i < s.length; i++) {
+            sa[i] = order[i];
+        }
+        return sa;
+    }
+
+
+    /**
+     * Move-to-front and run-length coding of zeros, see the symbols in {@link BlockSort}
+     *
+     * @param last    the last column of the sorted suffixes
+     * @param symbols output, at least twice as long as last
+     * @return number of symbols
+     */
+    static int encodeSymbols(byte[] last, byte[] symbols) {
+        byte[] order = identity();
+        int size = 0;
+        int run = 0;
+        for (byte b : last) {
+            if (order[0] == b) {
+                run++;
+                continue;
+            }
+            size = writeRun(symbols, size, run);
+            run = 0;
+            int index = 1;
+            while (order[index] != b) {
+                index++;
+            }
+            System.arraycopy(order, 0, order, 1, index);
+            order[0] = b;
+            if (index < ESCAPE - 1) {
+                symbols[size++] = (byte) (index + 1);
+            } else {
+                symbols[size++] = (byte) ESCAPE;
+                symbols[size++] = (byte) (index - (ESCAPE - 1));
+            }
+        }
+        return writeRun(symbols, size, run);
+    }
+
+
+    /**
+     * Undo {@link #encodeSymbols}
+     *
+     * @param last output, its length bounds the block
+     * @return number of bytes of the last column
+     */
+    static int decodeSymbols(byte[] symbols, byte[] last) throws ArchiveException {
+        byte[] order = identity();
+        int size = 0;
+        long run = 0;
+        long weight = 1;
+        for (int i = 0; i < symbols.length; i++) {
+            int symbol = symbols[i] & 0xFF;
+            if (symbol == RUN_A || symbol == RUN_B) {
+                run += (symbol + 1) * weight;
+                weight <<= 1;
+                if (run > last.length - size) throw new ArchiveException("Sorted block decodes past the block size");
+                continue;
+            }
+            if (run > 0) {
+                Arrays.fill(last, size, size + (int) run, order[0]);
+                size += (int) run;
+                run = 0;
+                weight = 1;
+            }
+            int index = symbol - 1;
+            if (symbol == ESCAPE) {
+                if (++i == symbols.length || (symbols[i] & 0xFF) > 1) throw new ArchiveException("Invalid escape in a sorted block");
+                index = ESCAPE - 1 + symbols[i];
+            }
+            if (size == last.length) throw new ArchiveException("Sorted block decodes past the block size");
+            byte b = order[index];
+            System.arraycopy(order, 0, order, 1, index);
+            order[0] = b;
+            last[size++] = b;
+        }
+        Arrays.fill(last, size, size + (int) run, order[0]);
+        return size + (int) run;
+    }
+
+
+    /**
+     * Write a run of zeros in bijective base 2, least significant digit first
+     */
+    private static int writeRun(byte[] symbols, int size, int run) {
+        while (run > 0) {
+            if ((run & 1) == 1) {
+                symbols[size++] = RUN_A;
+                run = (run - 1) >> 1;
+            } else {
+                symbols[size++] = RUN_B;
+                run = (run - 2) >> 1;
+            }
+        }
+        return size;
+    }
+
+
+    private static byte[] identity() {
+        byte[] order = new byte[FrequencyTable.BYTE_PATTERNS_NUM - 1];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = (byte) i;
+        }
+        return order;
+    }
+
+}
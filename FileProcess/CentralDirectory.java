@@ -0,0 +1,195 @@
+package FileProcess;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Index of the blocks, written after the last block of an archive.
+ * <p>
+ * It tells where each block starts, so a single entry can be read without decoding the
+ * ones before it, and how big the entries are, without decoding any of them.
+ * <p>
+ * CentralDirectory: CENTRAL_DIRECTORY_MAGIC--numEntries(4 bytes)--entries--directoryOffset(8 bytes)--CENTRAL_DIRECTORY_END_SIGN
+ * <p>
+ * entry: blockMagic--offset(8 bytes)--compressedSize(8 bytes)--originalSize(8 bytes)--checksum(4 bytes)--modifiedTime(8 bytes)
+ * --StringOfPath--STRING_END_SIGN
+ * <p>
+ * checksum is the CRC32C of the original file, 0 for a directory, and is only there from version 9 on.
+ * modifiedTime is the last modification of the file in milliseconds since the epoch, 0 if unknown, from version 10 on.
+ * <p>
+ * directoryOffset points at CENTRAL_DIRECTORY_MAGIC, and is found at a fixed distance from the end of the archive.
+ */
+public final class CentralDirectory {
+    /**
+     * directoryOffset and CENTRAL_DIRECTORY_END_SIGN
+     */
+    static final int TRAILER_SIZE = Long.BYTES + 1;
+    /**
+     * first version with a central directory
+     */
+    static final int MIN_VERSION = 4;
+    /**
+     * first version with a checksum in every entry
+     */
+    static final int MIN_CHECKSUM_VERSION = 9;
+    /**
+     * checksum of an entry of an archive older than checksums
+     */
+    public static final long NO_CHECKSUM = -1;
+    /**
+     * first version with the modification time in every entry
+     */
+    static final int MIN_MODIFIED_TIME_VERSION = 10;
+
+    /**
+     * One block of the archive
+     *
+     * @param type           magic number of the block
+     * @param path           relative path of the file or directory
+     * @param offset         position of the block magic in the archive
+     * @param compressedSize size of the whole block, including magic and path
+     * @param originalSize   size of the file, 0 for a directory
+     * @param checksum       CRC32C of the file, or {@link #NO_CHECKSUM}
+     * @param modifiedTime   last modification of the file in milliseconds since the epoch, 0 if unknown
+     */
+    public record Entry(int type, String path, long offset, long compressedSize, long originalSize, long checksum, long modifiedTime) {
+        public boolean isDirectory() {
+            return type == FileIO.DIRECTORY_MAGIC;
+        }
+
+        public boolean hasChecksum() {
+            return checksum != NO_CHECKSUM;
+        }
+    }
+
+    private CentralDirectory() {
+    }
+
+
+    /**
+     * Write the central directory and the trailer
+     *
+     * @param out             the archived file, after the last block
+     * @param entries         blocks in archive order
+     * @param directoryOffset position of out in the archive
+     */
+    static void write(OutputStream out, List<Entry> entries, long directoryOffset) throws IOException {
+        out.write(FileIO.CENTRAL_DIRECTORY_MAGIC);
+        FileIO.writeInt(out, entries.size());
+        for (Entry entry : entries) {
+            out.write(entry.type());
+            FileIO.writeLong(out, entry.offset());
+            FileIO.writeLong(out, entry.compressedSize());
+            FileIO.writeLong(out, entry.originalSize());
+            FileIO.writeInt(out, (int) entry.checksum());
+            FileIO.writeLong(out, entry.modifiedTime());
+            FileIO.writeString(out, entry.path());
+        }
+        FileIO.writeLong(out, directoryOffset);
+        out.write(FileIO.CENTRAL_DIRECTORY_END_SIGN);
+    }
+
+
+    /**
+     * Read the central directory of an archive, seeking from its end
+     *
+     * @return blocks in archive order, or null if the archive is older than the central directory
+     */
+    public static List<Entry> read(File archive) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            int version = FileIO.checkHeader(Channels.newInputStream(channel));
+            if (version < MIN_VERSION) return null;
+
+            long size = channel.size();
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            readFully(channel, trailer, size - TRAILER_SIZE);
+            long directoryOffset = getDirectoryOffset(trailer, size);
+
+            channel.position(directoryOffset);
+            return readEntries(new BufferedInputStream(Channels.newInputStream(channel)), directoryOffset, version);
+        }
+    }
+
+
+    /**
+     * Read the central directory of an archive in memory
+     *
+     * @return blocks in archive order, or null if the archive is older than the central directory
+     */
+    static List<Entry> read(byte[] archive) throws IOException {
+        int version = FileIO.checkHeader(new ByteArrayInputStream(archive));
+        if (version < MIN_VERSION) return null;
+        if (archive.length < TRAILER_SIZE) throw new EOFException("Archive too short for a central directory");
+        long directoryOffset = getDirectoryOffset(ByteBuffer.wrap(archive, archive.length - TRAILER_SIZE, TRAILER_SIZE).slice(), archive.length);
+        int offset = (int) directoryOffset;
+        return readEntries(new ByteArrayInputStream(archive, offset, archive.length - offset), directoryOffset, version);
+    }
+
+
+    /**
+     * @param trailer the last TRAILER_SIZE bytes of the archive
+     * @param size    size of the archive
+     */
+    private static long getDirectoryOffset(ByteBuffer trailer, long size) throws IOException {
+        long directoryOffset = trailer.getLong(0);
+        if (trailer.get(Long.BYTES) != (byte) FileIO.CENTRAL_DIRECTORY_END_SIGN
+                || directoryOffset < 0 || directoryOffset > size - TRAILER_SIZE) {
+            throw new ArchiveException("Invalid central directory trailer");
+        }
+        return directoryOffset;
+    }
+
+
+    /**
+     * @param in              positioned at CENTRAL_DIRECTORY_MAGIC
+     * @param directoryOffset position of the central directory, blocks must end before it
+     * @param version         format version of the archive
+     */
+    static List<Entry> readEntries(InputStream in, long directoryOffset, int version) throws IOException {
+        if (in.read() != FileIO.CENTRAL_DIRECTORY_MAGIC) throw new ArchiveException("Central directory magic number NOT match");
+        int numEntries = FileIO.readInt(in);
+        if (numEntries < 0) throw new ArchiveException("Invalid central directory size");
+        List<Entry> entries = new ArrayList<>(Math.min(numEntries, 1 << 16));
+        for (int i = 0; i < numEntries; i++) {
+            int type = in.read();
+            long offset = FileIO.readLong(in);
+            long compressedSize = FileIO.readLong(in);
+            long originalSize = FileIO.readLong(in);
+            long checksum = version >= MIN_CHECKSUM_VERSION ? FileIO.readInt(in) & 0xFFFFFFFFL : NO_CHECKSUM;
+            long modifiedTime = version >= MIN_MODIFIED_TIME_VERSION ? FileIO.readLong(in) : 0;
+            String path = FileIO.readString(in);
+            if (offset < 0 || compressedSize < 0 || offset + compressedSize > directoryOffset)
+                throw new ArchiveException("Invalid central directory entry");
+            entries.add(new Entry(type, path, offset, compressedSize, originalSize, checksum, modifiedTime));
+        }
+        return entries;
+    }
+
+
+    /**
+     * Check the trailer after the entries of an archive read from start to end, which can not seek to it
+     *
+     * @param in positioned after the last entry
+     */
+    static void readTrailer(InputStream in) throws IOException {
+        FileIO.readLong(in);
+        int endSign = in.read();
+        if (endSign == -1) throw new EOFException("Truncated central directory");
+        if (endSign != FileIO.CENTRAL_DIRECTORY_END_SIGN) throw new ArchiveException("Invalid central directory trailer");
+    }
+
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        if (position < 0) throw new EOFException("Archive too short for a central directory");
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) throw new EOFException("Truncated central directory");
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package FileProcess;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+
+
+/**
+ * Reads a region of a file channel with positional reads.
+ * <p>
+ * The position of the channel is never moved, so several streams can read their own
+ * regions of one channel at the same time.
+ */
+final class ChannelRegionInputStream extends InputStream {
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    /**
+     * @param offset first byte of the region
+     * @param length size of the region in bytes
+     */
+    ChannelRegionInputStream(FileChannel channel, long offset, long length) {
+        this.channel = Objects.requireNonNull(channel);
+        if (offset < 0 || length < 0) throw new IllegalArgumentException("Region out of range");
+        position = offset;
+        end = offset + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) return 0;
+        if (position >= end) return -1;
+        int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+        if (n == -1) return -1;
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(end - position, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The channel is left open for the other regions
+     */
+    @Override
+    public void close() {
+        position = end;
+    }
+
+}
@@ -0,0 +1,424 @@
+package FileProcess;
+
+import BitwiseStream.BitInputStream;
+import BitwiseStream.BitWriter;
+import Huffman.TreeCanonization;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32C;
+
+
+/**
+ * Block mode for large files: the file is cut into fixed-size chunks, and each chunk gets
+ * its own frequencies, canonical lengthsTable and byte-aligned coded bits.
+ * <p>
+ * Chunks do not depend on each other, so they are encoded and decoded on a fork/join pool.
+ * <p>
+ * ChunkedFileBlock: CHUNKED_FILE_MAGIC--StringOfPath--STRING_END_SIGN--chunkSize(4 bytes)--numChunks(4 bytes)--chunks
+ * <p>
+ * Chunk: chunkLength(4 bytes)--MaxCodeLength--CanonicalCodeTable--encodedBits(ending with special EOF)
+ * <p>
+ * StoredChunk: chunkLength(4 bytes)--0--bytes, for a chunk that coding would not shrink, from format version 12 on
+ * <p>
+ * chunkLength counts the bytes after itself, so the lengths index the chunks and a reader can
+ * hand each chunk to a worker without decoding the ones before it.
+ * <p>
+ * A stream of unknown length is buffered one chunk at a time and stored as a StreamedFileBlock,
+ * where a chunk length of 0 takes the place of numChunks:
+ * <p>
+ * StreamedFileBlock: STREAMED_FILE_MAGIC--StringOfPath--STRING_END_SIGN--chunkSize(4 bytes)--chunks--0(4 bytes)
+ * <p>
+ * A BlockSortedFileBlock has the layout of a ChunkedFileBlock with chunks of its own, see {@link BlockSort}.
+ */
+public final class ChunkedFile {
+    /**
+     * Largest MaxCodeLength and CanonicalCodeTable in front of the coded bits
+     */
+    static final int CHUNK_HEADER_SIZE = 1 + FrequencyTable.BYTE_PATTERNS_NUM;
+    /**
+     * MaxCodeLength of a StoredChunk
+     */
+    static final int STORED = 0;
+
+    private ChunkedFile() {
+    }
+
+
+    /**
+     * Encodes the bytes of one chunk into the chunk written after its length
+     */
+    interface ChunkEncoder {
+        byte[] encode(byte[] data) throws IOException;
+    }
+
+    /**
+     * Decodes one chunk read after its length into at most chunkSize bytes
+     */
+    interface ChunkDecoder {
+        byte[] decode(byte[] chunk, int chunkSize) throws IOException;
+    }
+
+
+    /**
+     * Whether a file is big enough to be split into chunks
+     */
+    static boolean isChunked(File src, CompressionOptions options) {
+        // a codebook codes the whole file in one pass
+        return options.getChunkSize() > 0 && src.length() > options.getChunkSize() && options.getCodebook() == null;
+    }
+
+
+    /**
+     * Number of chunks the file is cut into
+     */
+    static int numChunks(File src, CompressionOptions options) {
+        return (int) ((src.length() + options.getChunkSize() - 1) / options.getChunkSize());
+    }
+
+
+    /**
+     * Write a single file as a ChunkedFileBlock
+     *
+     * @param root        the root path of source file(s)
+     * @param src         current compressing file
+     * @param dest        the archived file
+     * @param options     settings of this compression
+     * @param parallelism number of chunks encoded at the same time
+     * @return CRC32C of the file
+     */
+    static long compress(File root, File src, OutputStream dest, CompressionOptions options, int parallelism) throws IOException {
+        return compress(root, src, dest, FileIO.CHUNKED_FILE_MAGIC, options.getChunkSize(), parallelism,
+                data -> encodeChunk(data, options.getMaxCodeLength()));
+    }
+
+
+    /**
+     * Write a single file as a block of independently encoded chunks, a ChunkedFileBlock or a BlockSortedFileBlock
+     *
+     * @param magic       magic number of the block
+     * @param chunkSize   size of every chunk but the last
+     * @param parallelism number of chunks encoded at the same time
+     * @param encoder     encodes each chunk
+     * @return CRC32C of the file
+     */
+    static long compress(File root, File src, OutputStream dest, int magic, int chunkSize, int parallelism,
+                         ChunkEncoder encoder) throws IOException {
+        int numChunks = (int) ((src.length() + chunkSize - 1) / chunkSize);
+
+        dest.write(magic);
+        FileIO.writeString(dest, FileIO.getRelativePathStr(root, src));
+        FileIO.writeInt(dest, chunkSize);
+        FileIO.writeInt(dest, numChunks);
+
+        CRC32C checksum = new CRC32C();
+        try (FileChannel channel = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+            if (parallelism == 1) {
+                for (int i = 0; i < numChunks; i++) {
+                    byte[] data = readChunk(channel, i, chunkSize);
+                    checksum.update(data);
+                    writeChunk(dest, encoder.encode(data));
+                }
+                return checksum.getValue();
+            }
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                // a window of chunks in flight bounds the memory, chunks are read in order for the checksum
+                Deque<ForkJoinTask<byte[]>> window = new ArrayDeque<>();
+                int submitted = 0;
+                for (int i = 0; i < numChunks; i++) {
+                    while (submitted < numChunks && window.size() < 2 * parallelism) {
+                        byte[] data = readChunk(channel, submitted++, chunkSize);
+                        checksum.update(data);
+                        window.add(pool.submit(() -> encoder.encode(data)));
+                    }
+                    writeChunk(dest, join(window.remove()));
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        return checksum.getValue();
+    }
+
+
+    /**
+     * Write a stream of unknown length as a StreamedFileBlock
+     * <p>
+     * The stream is read once. Memory is bounded by 2 * parallelism chunks in flight.
+     *
+     * @param path        relative path the stream is stored under
+     * @param src         the stream to compress, read until its end
+     * @param dest        the archived file
+     * @param options     settings of this compression
+     * @param parallelism number of chunks encoded at the same time
+     * @return number of bytes read from src
+     */
+    static long compressStream(String path, InputStream src, OutputStream dest, CompressionOptions options, int parallelism) throws IOException {
+        int chunkSize = options.getStreamChunkSize();
+
+        dest.write(FileIO.STREAMED_FILE_MAGIC);
+        FileIO.writeString(dest, path);
+        FileIO.writeInt(dest, chunkSize);
+
+        long size = 0;
+        if (parallelism == 1) {
+            byte[] data;
+            while ((data = src.readNBytes(chunkSize)).length > 0) {
+                size += data.length;
+                writeChunk(dest, encodeChunk(data, options.getMaxCodeLength()));
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                Deque<ForkJoinTask<byte[]>> window = new ArrayDeque<>();
+                boolean end = false;
+                while (true) {
+                    // reading stays sequential, encoding runs ahead on the pool
+                    while (!end && window.size() < 2 * parallelism) {
+                        byte[] data = src.readNBytes(chunkSize);
+                        if (data.length == 0) {
+                            end = true;
+                        } else {
+                            size += data.length;
+                            window.add(pool.submit(() -> encodeChunk(data, options.getMaxCodeLength())));
+                        }
+                    }
+                    if (window.isEmpty()) break;
+                    writeChunk(dest, join(window.remove()));
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        FileIO.writeInt(dest, 0);  // end of chunks
+        return size;
+    }
+
+
+    /**
+     * Read the rest of a ChunkedFileBlock after the path, and write the decoded bytes
+     *
+     * @param in          byteWise input stream, positioned after the path
+     * @param out         byteWise outputStream
+     * @param parallelism number of chunks decoded at the same time
+     * @param version     format version of the archive
+     */
+    static void decompress(InputStream in, OutputStream out, int parallelism, int version) throws IOException {
+        decompress(in, out, parallelism, (chunk, chunkSize) -> decodeChunk(chunk, chunkSize, version));
+    }
+
+
+    /**
+     * Read the rest of a ChunkedFileBlock or a BlockSortedFileBlock after the path, and write the decoded bytes
+     *
+     * @param parallelism number of chunks decoded at the same time
+     * @param decoder     decodes each chunk
+     */
+    static void decompress(InputStream in, OutputStream out, int parallelism, ChunkDecoder decoder) throws IOException {
+        int chunkSize = FileIO.readInt(in);
+        int numChunks = FileIO.readInt(in);
+        if (chunkSize <= 0 || numChunks < 0) throw new ArchiveException("Invalid chunked file header");
+        if (chunkSize > CompressionOptions.MAX_CHUNK_SIZE) throw new ArchiveException("Invalid chunk size: " + chunkSize);
+
+        if (parallelism == 1) {
+            for (int i = 0; i < numChunks; i++) {
+                out.write(decoder.decode(readChunkBlock(in), chunkSize));
+            }
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            Deque<ForkJoinTask<byte[]>> window = new ArrayDeque<>();
+            int submitted = 0;
+            for (int i = 0; i < numChunks; i++) {
+                // reading stays sequential, decoding runs ahead on the pool
+                while (submitted < numChunks && window.size() < 2 * parallelism) {
+                    byte[] chunk = readChunkBlock(in);
+                    submitted++;
+                    window.add(pool.submit(() -> decoder.decode(chunk, chunkSize)));
+                }
+                out.write(join(window.remove()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Read the rest of a StreamedFileBlock after the path, and write the decoded bytes
+     *
+     * @param in          byteWise input stream, positioned after the path
+     * @param out         byteWise outputStream
+     * @param parallelism number of chunks decoded at the same time
+     * @param version     format version of the archive
+     */
+    static void decompressStream(InputStream in, OutputStream out, int parallelism, int version) throws IOException {
+        int chunkSize = FileIO.readInt(in);
+        if (chunkSize <= 0) throw new ArchiveException("Invalid streamed file header");
+        if (chunkSize > CompressionOptions.MAX_CHUNK_SIZE) throw new ArchiveException("Invalid chunk size: " + chunkSize);
+
+        if (parallelism == 1) {
+            byte[] chunk;
+            while ((chunk = readStreamedChunkBlock(in)) != null) {
+                out.write(decodeChunk(chunk, chunkSize, version));
+            }
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            Deque<ForkJoinTask<byte[]>> window = new ArrayDeque<>();
+            boolean end = false;
+            while (true) {
+                while (!end && window.size() < 2 * parallelism) {
+                    byte[] chunk = readStreamedChunkBlock(in);
+                    if (chunk == null) {
+                        end = true;
+                    } else {
+                        window.add(pool.submit(() -> decodeChunk(chunk, chunkSize, version)));
+                    }
+                }
+                if (window.isEmpty()) break;
+                out.write(join(window.remove()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Encode one chunk: MaxCodeLength--CanonicalCodeTable--encodedBits, or a StoredChunk if that is not larger,
+     * see {@link CodedSize}
+     */
+    static byte[] encodeChunk(byte[] data, int maxCodeLength) throws IOException {
+        long start = Metrics.start();
+        FrequencyTable freqTable = new FrequencyTable();
+        freqTable.increment(data, 0, data.length);
+        freqTable.increment(256);  // EOF symbol gets a frequency of 1
+        Metrics.stop(Metrics.Phase.FREQUENCY_COUNT, start, data.length);
+        start = Metrics.start();
+        TreeCanonization canonCode = new TreeCanonization(freqTable, maxCodeLength);
+        Metrics.stop(Metrics.Phase.TREE_BUILD, start, 0);
+        start = Metrics.start();
+        int[] codes = canonCode.getCodes();
+        byte[] codeLengths = canonCode.getCodeLengths();
+        Metrics.stop(Metrics.Phase.CANONICALIZATION, start, 0);
+        if (1 + data.length <= CodedSize.huffman(freqTable, canonCode.getLengthsTable())) {
+            byte[] stored = new byte[1 + data.length];
+            stored[0] = STORED;
+            System.arraycopy(data, 0, stored, 1, data.length);
+            return stored;
+        }
+        Metrics.encoded(freqTable, canonCode.getLengthsTable());
+
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream(CHUNK_HEADER_SIZE + data.length + data.length / 8 + 2);
+        chunk.write(maxCodeLength);
+        Compression.writeLengthsTable(chunk, canonCode.getLengthsTable());
+        start = Metrics.start();
+        BitWriter out = new BitWriter(chunk);
+        Encoder enc = new Encoder(out, codes, codeLengths);
+        enc.write(data, 0, data.length);
+        enc.write(256);  // EOF
+        out.close();
+        Metrics.stop(Metrics.Phase.ENCODE, start, data.length);
+        return chunk.toByteArray();
+    }
+
+
+    /**
+     * Decode one chunk given as MaxCodeLength--CanonicalCodeTable--encodedBits, or as a StoredChunk
+     *
+     * @param chunkSize most bytes a chunk decodes to
+     * @param version   format version of the archive
+     */
+    static byte[] decodeChunk(byte[] chunk, int chunkSize, int version) throws IOException {
+        if (chunk[0] == STORED) {
+            if (chunk.length - 1 > chunkSize) throw new ArchiveException("Stored chunk is larger than the chunk size");
+            return Arrays.copyOfRange(chunk, 1, chunk.length);
+        }
+        ByteArrayInputStream header = new ByteArrayInputStream(chunk);
+        int maxCodeLength = header.read();
+        int[] lengthsTable = Decompression.readLengthsTable(header, version);
+        int headerSize = chunk.length - header.available();
+        BitInputStream bitIn = new BitInputStream(chunk, headerSize, chunk.length - headerSize);
+        long start = Metrics.start();
+        TableDecoder decoder = new TableDecoder(bitIn, lengthsTable, maxCodeLength);
+        Metrics.stop(Metrics.Phase.CANONICALIZATION, start, 0);
+
+        start = Metrics.start();
+        byte[] data = new byte[chunkSize];
+        int size = decoder.read(data, 0, chunkSize);
+        if (size == chunkSize && decoder.read() != 256) throw new ArchiveException("Chunk decodes past the chunk size");
+        Metrics.stop(Metrics.Phase.DECODE, start, size);
+        Metrics.decoded(size + 1);  // and EOF
+        return size == chunkSize ? data : Arrays.copyOf(data, size);
+    }
+
+
+    private static byte[] readChunk(FileChannel channel, int index, int chunkSize) throws IOException {
+        long start = Metrics.start();
+        long position = (long) index * chunkSize;
+        int size = (int) Math.min(chunkSize, channel.size() - position);
+        // every chunk but the last is full, and the last has a byte at least
+        if (size <= 0) throw new EOFException("File shrank while compressing");
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) throw new EOFException("File shrank while compressing");
+        }
+        Metrics.stop(Metrics.Phase.INPUT_READ, start, size);
+        return buffer.array();
+    }
+
+
+    private static void writeChunk(OutputStream dest, byte[] chunk) throws IOException {
+        FileIO.writeInt(dest, chunk.length);
+        dest.write(chunk);
+    }
+
+
+    private static byte[] readChunkBlock(InputStream in) throws IOException {
+        return readChunkBody(in, FileIO.readInt(in));
+    }
+
+
+    /**
+     * @return the next chunk, or null at the chunk length of 0 ending a StreamedFileBlock
+     */
+    private static byte[] readStreamedChunkBlock(InputStream in) throws IOException {
+        int length = FileIO.readInt(in);
+        return length == 0 ? null : readChunkBody(in, length);
+    }
+
+
+    private static byte[] readChunkBody(InputStream in, int length) throws IOException {
+        // a MaxCodeLength at least, the rest is checked as the chunk is decoded
+        if (length < 1) throw new ArchiveException("Invalid chunk length");
+        byte[] chunk = in.readNBytes(length);
+        if (chunk.length != length) throw new EOFException("Truncated chunk");
+        return chunk;
+    }
+
+
+    private static byte[] join(ForkJoinTask<byte[]> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a chunk");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) throw ioe;
+            throw new IOException(e.getCause());
+        }
+    }
+
+}
@@ -0,0 +1,275 @@
+package FileProcess;
+
+import BitwiseStream.BitInputStream;
+import Huffman.TreeCanonization;
+
+import java.io.*;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+
+/**
+ * A canonical code trained on sample data and saved under an ID, so files of a known kind
+ * are encoded in one pass, without counting their frequencies first.
+ * <p>
+ * Every bytePattern gets a code: the ones missing from the samples are counted once, so they
+ * fall to the longest codes and act as escape codes for bytes the samples did not show.
+ * <p>
+ * Codebook file, {@code <id>.codebook} in a codebook directory:
+ * HEADER_MAGIC_1--CODEBOOK_MAGIC--FormatVersion--StringOfId--STRING_END_SIGN--MaxCodeLength--CanonicalCodeTable
+ * <p>
+ * A file coded with a codebook only records the ID and a checksum of the code, see {@link #getChecksum()}.
+ * Replacing a codebook makes the files coded with the old one undecodable, so it is only done on purpose.
+ */
+public final class Codebook {
+    /**
+     * extension of codebook files
+     */
+    public static final String EXTENSION = ".codebook";
+    /**
+     * environment variable naming the codebook directory
+     */
+    public static final String DIRECTORY_ENV = "HUFF_CODEBOOK_DIR";
+    /**
+     * system property naming the codebook directory, before the environment variable
+     */
+    public static final String DIRECTORY_PROPERTY = "huff.codebook.dir";
+    private static final Pattern ID_PATTERN = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]{0,63}");
+
+    /**
+     * codebooks loaded so far, by file, read again when the file changes
+     */
+    private static final Map<File, Loaded> loaded = new HashMap<>();
+
+    private final String id;
+    private final int maxCodeLength;
+    private final int[] lengthsTable;
+    private final int[] codes;
+    private final byte[] codeLengths;
+    private final int checksum;
+    /**
+     * decoding tables, shared by the decoders of all files coded with this codebook
+     */
+    private final TableDecoder decoder;
+
+    private Codebook(String id, int maxCodeLength, int[] lengthsTable) {
+        this.id = id;
+        this.maxCodeLength = maxCodeLength;
+        this.lengthsTable = lengthsTable;
+        TreeCanonization canonCode = new TreeCanonization(lengthsTable);
+        codes = canonCode.getCodes();
+        codeLengths = canonCode.getCodeLengths();
+        CRC32 crc = new CRC32();
+        crc.update(codeLengths);
+        checksum = (int) crc.getValue();
+        decoder = TableDecoder.tables(lengthsTable, maxCodeLength);
+    }
+
+
+    /**
+     * Build a codebook from the bytes of sample files
+     *
+     * @param id            name of the codebook, letters, digits, '.', '_' and '-'
+     * @param samples       files, or directories whose files are all read
+     * @param maxCodeLength longest code length allowed
+     */
+    public static Codebook train(String id, List<File> samples, int maxCodeLength) throws IOException {
+        checkId(id);
+        FrequencyTable freqTable = new FrequencyTable();
+        byte[] buffer = new byte[1 << 16];
+        for (File sample : samples) {
+            if (!sample.exists()) throw new FileNotFoundException(sample.toString());
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(sample.toPath())) {
+                files = walk.filter(Files::isRegularFile).toList();
+            }
+            for (Path f : files) {
+                try (InputStream in = Files.newInputStream(f)) {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        freqTable.increment(buffer, 0, n);
+                    }
+                }
+            }
+        }
+        // escape codes for bytePatterns the samples do not show, and EOF
+        for (int i = 0; i < FrequencyTable.BYTE_PATTERNS_NUM; i++) {
+            if (freqTable.get(i) == 0) freqTable.increment(i);
+        }
+        return new Codebook(id, maxCodeLength, new TreeCanonization(freqTable, maxCodeLength).getLengthsTable());
+    }
+
+
+    /**
+     * Directory where codebooks are saved and looked up: the {@code DIRECTORY_PROPERTY} system property,
+     * the {@code DIRECTORY_ENV} environment variable, or .huff/codebooks in the user's home
+     */
+    public static File getDirectory() {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory == null) directory = System.getenv(DIRECTORY_ENV);
+        if (directory == null) return new File(System.getProperty("user.home"), ".huff" + File.separator + "codebooks");
+        return new File(directory);
+    }
+
+
+    /**
+     * Load a codebook from the codebook directory, once per file
+     *
+     * @throws FileNotFoundException if there is no codebook with the ID
+     */
+    public static Codebook load(String id) throws IOException {
+        return load(id, getDirectory());
+    }
+
+
+    /**
+     * Load a codebook from a directory, once per file
+     *
+     * @throws FileNotFoundException if there is no codebook with the ID
+     */
+    public static Codebook load(String id, File directory) throws IOException {
+        checkId(id);
+        File file = new File(directory, id + EXTENSION).getAbsoluteFile();
+        long lastModified = file.lastModified();
+        long size = file.length();
+        synchronized (loaded) {
+            Loaded cached = loaded.get(file);
+            if (cached != null && cached.lastModified() == lastModified && cached.size() == size) return cached.codebook();
+            Codebook codebook = read(file);
+            if (!codebook.id.equals(id)) throw new IOException("Codebook " + file + " has the ID " + codebook.id);
+            loaded.put(file, new Loaded(lastModified, size, codebook));
+            return codebook;
+        }
+    }
+
+
+    /**
+     * Save this codebook to the codebook directory, creating it if needed
+     *
+     * @return the codebook file
+     * @throws FileAlreadyExistsException if a codebook with the ID is saved already
+     */
+    public File save() throws IOException {
+        return save(getDirectory(), false);
+    }
+
+
+    /**
+     * Save this codebook to a directory, creating it if needed
+     * <p>
+     * The file is written aside and moved in place, so a codebook being loaded is never half written.
+     *
+     * @param replace whether a codebook saved with the ID is replaced, making the files coded with it undecodable
+     * @return the codebook file
+     * @throws FileAlreadyExistsException if a codebook with the ID is saved already and is not replaced
+     */
+    public File save(File directory, boolean replace) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Fail to create directory " + directory);
+        File file = new File(directory, id + EXTENSION);
+        if (!replace && file.exists()) throw new FileAlreadyExistsException(file.toString(), null, "codebook " + id + " exists");
+        Path temp = new File(directory, id + EXTENSION + ".tmp").toPath();
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                out.write(FileIO.HEADER_MAGIC_1);
+                out.write(FileIO.CODEBOOK_MAGIC);
+                out.write(FileIO.FORMAT_VERSION);
+                FileIO.writeString(out, id);
+                out.write(maxCodeLength);
+                LengthsTable.write(out, lengthsTable);
+            }
+            if (replace) {
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                // fails if another codebook was saved with the ID meanwhile
+                Files.move(temp, file.toPath());
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return file;
+    }
+
+
+    private static Codebook read(File file) throws IOException {
+        if (!file.isFile()) throw new FileNotFoundException("No codebook " + file);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            if (in.read() != FileIO.HEADER_MAGIC_1 || in.read() != FileIO.CODEBOOK_MAGIC)
+                throw new IOException(file + " is NOT a codebook");
+            int version = in.read();
+            if (version < LengthsTable.MIN_VERSION || version > FileIO.FORMAT_VERSION)
+                throw new IOException("Codebook format version " + version + " NOT supported");
+            String id = FileIO.readString(in);
+            int maxCodeLength = in.read();
+            int[] lengthsTable = LengthsTable.read(in);
+            for (int i = 0; i < FrequencyTable.BYTE_PATTERNS_NUM; i++) {
+                if (lengthsTable[i] == 0 || lengthsTable[i] > maxCodeLength) throw new IOException("Invalid codebook " + file);
+            }
+            return new Codebook(id, maxCodeLength, lengthsTable);
+        }
+    }
+
+
+    /**
+     * A codebook with the modification time and size of its file when it was read
+     */
+    private record Loaded(long lastModified, long size, Codebook codebook) {
+    }
+
+
+    private static void checkId(String id) {
+        Objects.requireNonNull(id);
+        if (!ID_PATTERN.matcher(id).matches())
+            throw new IllegalArgumentException("Codebook ID must be 1 to 64 letters, digits, '.', '_' or '-', got " + id);
+    }
+
+
+    public String getId() {
+        return id;
+    }
+
+    public int getMaxCodeLength() {
+        return maxCodeLength;
+    }
+
+    public int[] getLengthsTable() {
+        return lengthsTable;
+    }
+
+    /**
+     * @return canonical code of each bytePattern, for the encoder
+     */
+    public int[] getCodes() {
+        return codes;
+    }
+
+    /**
+     * @return code length of each bytePattern, for the encoder
+     */
+    public byte[] getCodeLengths() {
+        return codeLengths;
+    }
+
+    /**
+     * @return a decoder of this code reading the given bit input stream
+     */
+    TableDecoder newDecoder(BitInputStream in) {
+        return new TableDecoder(decoder, in);
+    }
+
+    /**
+     * @return CRC-32 of the code lengths, tells a codebook apart from another one saved under the same ID
+     */
+    public int getChecksum() {
+        return checksum;
+    }
+
+}
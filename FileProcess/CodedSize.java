@@ -0,0 +1,118 @@
+package FileProcess;
+
+import Huffman.TreeCanonization;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Exact size of a Huffman coding, from the frequencies and the canonical code lengths before anything is encoded,
+ * so data that coding would not shrink is stored as it is
+ * <p>
+ * Every symbol takes the length of its code, the EOF symbol included, and the coded bits are padded to a byte.
+ * A CompactCodeTable and the MaxCodeLength in front of them are the cost of the table.
+ * <p>
+ * Whether a file or a chunk is coded or stored is decided by the same sizes, so {@link #estimate} gives the size of
+ * a block exactly without encoding it.
+ */
+final class CodedSize {
+
+    private CodedSize() {
+    }
+
+
+    /**
+     * @param freqTable    frequencies the code was built from, with the EOF symbol
+     * @param lengthsTable code length of each bytePattern
+     * @return size of MaxCodeLength--CanonicalCodeTable--encodedBits in BYTES
+     */
+    static long huffman(FrequencyTable freqTable, int[] lengthsTable) {
+        long numBits = 0;
+        for (int i = 0; i < FrequencyTable.BYTE_PATTERNS_NUM; i++) {
+            numBits += (long) freqTable.get(i) * lengthsTable[i];
+        }
+        return 1 + LengthsTable.size(lengthsTable) + (numBits + 7) / 8;
+    }
+
+
+    /**
+     * Sizes of the block a file would be written as, from a single read of the file
+     * <p>
+     * The block is a FileBlock or a StoredFileBlock, or a ChunkedFileBlock of coded and stored chunks if the
+     * file is chunked. Each chunk has a code of its own, so the entropy is summed over the chunks, each at the
+     * entropy of its own bytes, and stays a lower bound of the Huffman size. Solid groups, codebooks, duplicates
+     * and the block-sorting transform are not estimated.
+     *
+     * @param path    relative path of the file in the archive
+     * @param src     the file
+     * @param options settings of the compression, the chunk size and the MaxCodeLength
+     */
+    static ArchiveWriter.Estimate estimate(String path, File src, CompressionOptions options) throws IOException {
+        boolean chunked = options.getChunkSize() > 0 && src.length() > options.getChunkSize();
+        long header = 1 + path.length() + 1 + (chunked ? 2 * Integer.BYTES : 0);
+        long[] counts = new long[FrequencyTable.BYTE_PATTERNS_NUM - 1];
+        long originalSize = 0;
+        long entropySize = header;
+        long huffmanSize = header;
+        long archivedSize = header;
+        int codedParts = 0;
+        int storedParts = 0;
+        byte[] buffer = new byte[chunked ? options.getChunkSize() : 1 << 16];
+        try (InputStream in = Metrics.timed(new FileInputStream(src))) {
+            // a part is a chunk, or the whole file
+            while (true) {
+                FrequencyTable freqTable = new FrequencyTable();
+                long partSize = 0;
+                int n;
+                while ((n = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+                    freqTable.increment(buffer, 0, n);
+                    partSize += n;
+                    if (chunked) break;
+                }
+                if (chunked && partSize == 0) break;
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = freqTable.get(i);
+                }
+                freqTable.increment(256);  // EOF
+                long coded = huffman(freqTable, new TreeCanonization(freqTable, options.getMaxCodeLength()).getLengthsTable());
+                long stored = (chunked ? 1 : Long.BYTES) + partSize;
+                long chunkLength = chunked ? Integer.BYTES : 0;
+                entropySize += chunkLength + entropy(counts);
+                huffmanSize += chunkLength + coded;
+                archivedSize += chunkLength + Math.min(coded, stored);
+                if (stored <= coded) {
+                    storedParts++;
+                } else {
+                    codedParts++;
+                }
+                originalSize += partSize;
+                if (!chunked) break;
+            }
+        }
+        String method = storedParts == 0 ? "huffman" : codedParts == 0 ? "stored" : "mixed";
+        return new ArchiveWriter.Estimate(path, originalSize, entropySize, huffmanSize, archivedSize, method);
+    }
+
+
+    /**
+     * Smallest size an order-0 code of these bytes alone can give, their Shannon entropy, without the table
+     *
+     * @param counts number of each byte value
+     * @return size in BYTES, rounded up
+     */
+    static long entropy(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        double numBits = 0;
+        for (long count : counts) {
+            if (count > 0) numBits += count * (Math.log((double) total / count) / Math.log(2));
+        }
+        return (long) Math.ceil(numBits / 8);
+    }
+
+}
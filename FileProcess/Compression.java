@@ -1,15 +1,39 @@
 package FileProcess;
 
-import BitwiseStream.BitOutputStream;
-import Huffman.HuffmanTree;
+import BitwiseStream.BitWriter;
 import Huffman.TreeCanonization;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
 
 public class Compression {
+    /**
+     * Largest block that can be encoded into memory
+     */
+    private static final long MAX_MEMORY_BLOCK = Integer.MAX_VALUE - 8;
+    /**
+     * Oldest archive whose blocks an update copies, blocks have kept their layout since and its entries have checksums
+     */
+    private static final int MIN_REUSED_VERSION = CentralDirectory.MIN_CHECKSUM_VERSION;
 
     /**
      * Main Api for compression
@@ -17,62 +41,633 @@ public class Compression {
      * @return total size of original files in BYTES
      */
     public static long compress(File root, File src, BufferedOutputStream dest) throws IOException {
-        writeHeader(dest, src, root);
+        return compress(root, src, dest, new CompressionOptions());
+    }
+
+    /**
+     * Main Api for compression, with the given settings
+     * <p>
+     * With more than one thread, files are encoded into memory by a pool of workers and
+     * written in the same order as a sequential run, so the archive is byte-identical.
+     * In solid mode, small files share the code of their group, see {@link #planBlocks}.
+     * In dedup mode, a file with the same content as an earlier one is stored as a reference, see {@link Deduplication}.
+     * The central directory follows the last block.
+     *
+     * @return total size of original files in BYTES
+     */
+    public static long compress(File root, File src, BufferedOutputStream dest, CompressionOptions options) throws IOException {
+        long scanStart = Metrics.start();
+        List<File> entries = listEntries(src);
+        Metrics.stop(Metrics.Phase.SCAN, scanStart, 0);
+        CountingOutputStream out = new CountingOutputStream(dest);
+        List<String> paths = new ArrayList<>(entries.size());
+        for (File f : entries) {
+            paths.add(FileIO.getRelativePathStr(root, f));
+        }
+        writeHeader(out, paths);
 
-        // use a stack to handle multiple files in a directory
-        // in a DFS order
-        Stack<File> folderStack = new Stack<>();
         long original_size = 0;
-        folderStack.push(src);
-        while (!folderStack.isEmpty()) {
-            File f = folderStack.pop();
-            if (f.isFile()) {
-                original_size += f.length();
-                compressSingleFile(root, f, dest);
-            } else if (f.isDirectory()) {
-                writeDirectoryName(root, f, dest);
-                for (File subfile : Objects.requireNonNull(f.listFiles())) {
-                    folderStack.push(subfile);
+        for (File f : entries) {
+            if (f.isFile()) original_size += f.length();
+        }
+
+        Map<File, Deduplication.Original> duplicates = findDuplicates(entries, options);
+        List<List<File>> blocks = planBlocks(entries, options, duplicates);
+        List<CentralDirectory.Entry> directory = new ArrayList<>(entries.size());
+        if (options.getThreads() == 1) {
+            for (List<File> block : blocks) {
+                long offset = out.getCount();
+                long[] memberSizes = new long[block.size()];
+                long[] checksums = new long[block.size()];
+                int type = writeBlock(root, block, out, options, duplicates, memberSizes, checksums);
+                addDirectoryEntries(directory, root, block, type, offset, out.getCount(), memberSizes, checksums);
+            }
+        } else {
+            writeBlocksInParallel(root, blocks, out, options, duplicates, directory);
+        }
+        CentralDirectory.write(out, directory, out.getCount());
+        Metrics.entries(directory);
+        return original_size;
+    }
+
+
+    /**
+     * Api for estimating the archive of src without writing it
+     * <p>
+     * Each file is read once and sized as {@link #compress} would write it on its own, coded or stored,
+     * see {@link CodedSize#estimate}. Directories take no estimate.
+     *
+     * @param options settings of the compression, its solid groups, codebook, dedup mode and block-sorting transform
+     *                are not estimated
+     * @return the estimate of each file in archive order
+     */
+    public static List<ArchiveWriter.Estimate> estimate(File root, File src, CompressionOptions options) throws IOException {
+        List<ArchiveWriter.Estimate> estimates = new ArrayList<>();
+        for (File f : listEntries(src)) {
+            if (f.isFile()) estimates.add(CodedSize.estimate(FileIO.getRelativePathStr(root, f), f, options));
+        }
+        return estimates;
+    }
+
+
+    /**
+     * Api for updating an archive of src, written again into dest with the blocks of unchanged files copied from it
+     * <p>
+     * A file is unchanged if the archive has an entry of its path with its size, and with its modification time, or with
+     * the CRC32C of its content if {@code byContent}. Its block is copied byte for byte with {@link FileChannel#transferTo},
+     * which the operating system may do without passing the bytes through the JVM. A solid group is copied only if the
+     * same files, all unchanged, fall in one group again; any other block is encoded as {@link #compress} would, on
+     * one thread apart from the chunks of a large file. The header and the central directory are written anew.
+     *
+     * @param archive   the archive of an earlier compression of src, not changed, or null to encode every file
+     * @param dest      the new archive, written from its position
+     * @param byContent whether files are compared by checksum, which reads them, rather than by modification time
+     * @param counts    output, the number of files copied and of files encoded, without duplicates in dedup mode
+     * @return total size of original files in BYTES
+     */
+    public static long update(File root, File src, File archive, FileChannel dest, CompressionOptions options, boolean byContent,
+                              int[] counts) throws IOException {
+        long scanStart = Metrics.start();
+        List<File> entries = listEntries(src);
+        Metrics.stop(Metrics.Phase.SCAN, scanStart, 0);
+
+        FileChannel old = archive == null ? null : FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+        try (old) {
+            // earlier entries by path, and the members of each solid group in order
+            Map<String, CentralDirectory.Entry> oldFiles = new HashMap<>();
+            Map<Long, List<String>> oldGroups = new HashMap<>();
+            if (old != null && FileIO.checkHeader(Channels.newInputStream(old)) >= MIN_REUSED_VERSION) {
+                for (CentralDirectory.Entry entry : CentralDirectory.read(archive)) {
+                    if (entry.isDirectory()) continue;
+                    oldFiles.put(entry.path(), entry);
+                    if (entry.type() == FileIO.SOLID_GROUP_MAGIC) {
+                        oldGroups.computeIfAbsent(entry.offset(), offset -> new ArrayList<>()).add(entry.path());
+                    }
+                }
+            }
+
+            CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(dest), 1 << 16));
+            List<String> paths = new ArrayList<>(entries.size());
+            for (File f : entries) {
+                paths.add(FileIO.getRelativePathStr(root, f));
+            }
+            writeHeader(out, paths);
+
+            long original_size = 0;
+            for (File f : entries) {
+                if (f.isFile()) original_size += f.length();
+            }
+
+            Map<File, Deduplication.Original> duplicates = findDuplicates(entries, options);
+            List<CentralDirectory.Entry> directory = new ArrayList<>(entries.size());
+            for (List<File> block : planBlocks(entries, options, duplicates)) {
+                List<CentralDirectory.Entry> reused = duplicates.containsKey(block.get(0)) ? null
+                        : findUnchanged(root, block, oldFiles, oldGroups, byContent);
+                long offset = out.getCount();
+                if (reused != null) {
+                    CentralDirectory.Entry first = reused.get(0);
+                    long size = block.size() > 1 ? blockSize(reused) : first.compressedSize();
+                    out.flush();
+                    transferFully(old, first.offset(), size, dest);
+                    out.skip(size);
+                    for (int i = 0; i < block.size(); i++) {
+                        // a file compared by content may have been touched since
+                        CentralDirectory.Entry entry = reused.get(i);
+                        directory.add(new CentralDirectory.Entry(entry.type(), entry.path(), offset, entry.compressedSize(),
+                                entry.originalSize(), entry.checksum(), block.get(i).lastModified()));
+                    }
+                    counts[0] += block.size();
+                    continue;
+                }
+                long[] memberSizes = new long[block.size()];
+                long[] checksums = new long[block.size()];
+                int type = writeBlock(root, block, out, options, duplicates, memberSizes, checksums);
+                addDirectoryEntries(directory, root, block, type, offset, out.getCount(), memberSizes, checksums);
+                for (File f : block) {
+                    if (f.isFile() && !duplicates.containsKey(f)) counts[1]++;
                 }
             }
+            CentralDirectory.write(out, directory, out.getCount());
+            out.flush();
+            Metrics.entries(directory);
+            return original_size;
         }
+    }
 
-        return original_size;
+
+    /**
+     * @return the earlier entries of a block of unchanged files to copy, in the order of the block, or null if it
+     * must be encoded
+     */
+    private static List<CentralDirectory.Entry> findUnchanged(File root, List<File> block, Map<String, CentralDirectory.Entry> oldFiles,
+                                                              Map<Long, List<String>> oldGroups, boolean byContent) throws IOException {
+        List<CentralDirectory.Entry> reused = new ArrayList<>(block.size());
+        for (File f : block) {
+            if (!f.isFile()) return null;
+            CentralDirectory.Entry entry = oldFiles.get(FileIO.getRelativePathStr(root, f));
+            if (entry == null || !isUnchanged(f, entry, byContent)) return null;
+            reused.add(entry);
+        }
+        CentralDirectory.Entry first = reused.get(0);
+        // a duplicate refers to its original by path, which may have changed
+        if (first.type() == FileIO.DUPLICATE_FILE_MAGIC) return null;
+        if (block.size() == 1) return first.type() == FileIO.SOLID_GROUP_MAGIC ? null : reused;
+        // the group must be the same files in the same order, their paths are in the block
+        List<String> members = oldGroups.get(first.offset());
+        if (first.type() != FileIO.SOLID_GROUP_MAGIC || members == null || members.size() != block.size()) return null;
+        for (int i = 0; i < block.size(); i++) {
+            if (!members.get(i).equals(reused.get(i).path())) return null;
+        }
+        return reused;
+    }
+
+
+    private static boolean isUnchanged(File f, CentralDirectory.Entry entry, boolean byContent) throws IOException {
+        if (f.length() != entry.originalSize() || !entry.hasChecksum()) return false;
+        if (!byContent) return entry.modifiedTime() != 0 && entry.modifiedTime() == f.lastModified();
+        CRC32C crc = new CRC32C();
+        try (InputStream in = new CheckedInputStream(new FileInputStream(f), crc)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return crc.getValue() == entry.checksum();
+    }
+
+
+    /**
+     * @return size of a solid group, the sum of the shares of its members
+     */
+    private static long blockSize(List<CentralDirectory.Entry> members) {
+        long size = 0;
+        for (CentralDirectory.Entry member : members) {
+            size += member.compressedSize();
+        }
+        return size;
+    }
+
+
+    private static void transferFully(FileChannel src, long position, long count, FileChannel dest) throws IOException {
+        while (count > 0) {
+            long n = src.transferTo(position, count, dest);
+            if (n <= 0) throw new EOFException("Archive ends inside a block at " + position);
+            position += n;
+            count -= n;
+        }
     }
 
+
     /**
-     * Compress a single file
+     * Api for compression of a stream of unknown length, such as stdin or a pipe
+     * <p>
+     * The stream is read once and buffered in chunks of {@code options.getStreamChunkSize()} bytes,
+     * each coded with its own code, so memory stays bounded. With a codebook, it is coded as it is read.
+     * Nothing is seeked, dest may be a pipe too.
      *
-     * @param root the root path of source file(s)
-     * @param src  current compressing file
-     * @param dest the archived file
+     * @param name    path of the single file in the archive
+     * @param src     the stream to compress
+     * @param dest    the archived file
+     * @param options settings of this compression, chunks are encoded on {@code options.getThreads()} workers
+     * @return number of bytes read from src
+     */
+    public static long compressStream(String name, InputStream src, OutputStream dest, CompressionOptions options) throws IOException {
+        if (name.isEmpty() || name.indexOf(FileIO.STRING_END_SIGN) != -1) throw new IllegalArgumentException("Invalid entry name");
+        CountingOutputStream out = new CountingOutputStream(dest);
+        writeHeader(out, List.of(name));
+        long offset = out.getCount();
+        CheckedInputStream in = new CheckedInputStream(src, new CRC32C());
+        long size;
+        int type;
+        if (options.getCodebook() != null) {
+            size = compressWithCodebook(name, in, out, options.getCodebook());
+            type = FileIO.CODEBOOK_FILE_MAGIC;
+        } else {
+            size = ChunkedFile.compressStream(name, in, out, options, options.getThreads());
+            type = FileIO.STREAMED_FILE_MAGIC;
+        }
+        CentralDirectory.Entry entry = new CentralDirectory.Entry(type, name, offset, out.getCount() - offset, size,
+                in.getChecksum().getValue(), 0);
+        CentralDirectory.write(out, List.of(entry), out.getCount());
+        Metrics.entries(List.of(entry));
+        return size;
+    }
+
+
+    /**
+     * Largest archive {@link #compress} can give for src, from the sizes of its files, so a caller
+     * can reserve room for it before compressing into memory
+     *
+     * @return size in BYTES
+     */
+    static long maxArchiveSize(File root, File src, CompressionOptions options) {
+        List<File> entries = listEntries(src);
+        // header magic, version and end, central directory magic, count and trailer
+        long size = 3 + 1 + 1 + 4 + CentralDirectory.TRAILER_SIZE;
+        for (File f : entries) {
+            long pathSize = FileIO.getRelativePathStr(root, f).length() + 1;
+            // once in the header, once in the central directory with type, offset and sizes
+            size += pathSize + 1 + 4 * Long.BYTES + Integer.BYTES + pathSize;
+        }
+        for (List<File> block : planBlocks(entries, options, Map.of())) {
+            size += maxBlockSize(root, block, options);
+        }
+        if (options.isDedup()) {
+            // without reading the files, any of them may leave its solid group, or refer to the longest path
+            long maxPathSize = 0;
+            for (File f : entries) {
+                maxPathSize = Math.max(maxPathSize, FileIO.getRelativePathStr(root, f).length() + 1);
+            }
+            size += entries.size() * (1 + ChunkedFile.CHUNK_HEADER_SIZE + 2 + maxPathSize);
+        }
+        return size;
+    }
+
+
+    /**
+     * @return the original of each duplicate in dedup mode, else none
+     */
+    private static Map<File, Deduplication.Original> findDuplicates(List<File> entries, CompressionOptions options) throws IOException {
+        return options.isDedup() ? Deduplication.findDuplicates(entries) : Map.of();
+    }
+
+
+    /**
+     * Arrange the entries into blocks, each a list of files.
+     * <p>
+     * Without solid mode every entry is a block of its own. In solid mode, files smaller than
+     * {@code options.getSolidGroupSize()} are collected into a group until it is full in size or
+     * in number of files, and the group is written after the entry that filled it. Directories and
+     * large files keep their place, so every directory comes before the groups of its files.
+     * A group of a single file is written as a plain FileBlock.
+     * <p>
+     * Duplicates and their originals are kept out of groups, so an original is written before its duplicates.
+     *
+     * @param duplicates the original of each duplicate
+     * @return blocks in archive order, a list of more than one file is a solid group
+     */
+    private static List<List<File>> planBlocks(List<File> entries, CompressionOptions options, Map<File, Deduplication.Original> duplicates) {
+        Set<File> shared = new HashSet<>(duplicates.keySet());
+        for (Deduplication.Original original : duplicates.values()) {
+            shared.add(original.original());
+        }
+        List<List<File>> blocks = new ArrayList<>(entries.size());
+        List<File> group = new ArrayList<>();
+        long groupSize = 0;
+        for (File f : entries) {
+            boolean small = f.isFile() && f.length() < options.getSolidGroupSize() && !ChunkedFile.isChunked(f, options)
+                    && options.getCodebook() == null && !shared.contains(f);
+            if (!small) {
+                blocks.add(List.of(f));
+                continue;
+            }
+            group.add(f);
+            groupSize += f.length();
+            if (groupSize >= options.getSolidGroupSize() || group.size() == options.getSolidGroupFiles()) {
+                blocks.add(group);
+                group = new ArrayList<>();
+                groupSize = 0;
+            }
+        }
+        if (!group.isEmpty()) blocks.add(group);
+        return blocks;
+    }
+
+
+    /**
+     * Encode files ahead on a pool of workers while writing the blocks in order.
+     * <p>
+     * A block is encoded ahead only if its largest possible size fits in what is left of
+     * {@code options.getMaxBufferedBytes()}. A file bigger than the whole budget is encoded
+     * straight into dest when its turn comes.
      */
-    private static void compressSingleFile(File root, File src, BufferedOutputStream dest) throws IOException {
+    private static void writeBlocksInParallel(File root, List<List<File>> blocks, CountingOutputStream dest, CompressionOptions options,
+                                              Map<File, Deduplication.Original> duplicates, List<CentralDirectory.Entry> directory)
+            throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(options.getThreads());
+        try {
+            long budget = Math.min(options.getMaxBufferedBytes(), MAX_MEMORY_BLOCK);
+            List<Future<byte[]>> encoded = new ArrayList<>(Collections.nCopies(blocks.size(), null));
+            long[][] memberSizes = new long[blocks.size()][];
+            long[][] checksums = new long[blocks.size()][];
+            long[] reserved = new long[blocks.size()];
+            long buffered = 0;
+            int submitted = 0;
+            for (int i = 0; i < blocks.size(); i++) {
+                // keep the workers busy as far as the budget allows
+                for (; submitted < blocks.size(); submitted++) {
+                    List<File> block = blocks.get(submitted);
+                    memberSizes[submitted] = new long[block.size()];
+                    checksums[submitted] = new long[block.size()];
+                    if (block.size() == 1 && (!block.get(0).isFile() || duplicates.containsKey(block.get(0)))) continue;
+                    long bound = maxBlockSize(root, block, options);
+                    if (bound > budget) continue;
+                    if (buffered + bound > budget) break;
+                    buffered += bound;
+                    reserved[submitted] = bound;
+                    long[] sizes = memberSizes[submitted];
+                    long[] crcs = checksums[submitted];
+                    encoded.set(submitted, pool.submit(() -> encodeToMemory(root, block, (int) bound, options, sizes, crcs)));
+                }
+
+                long offset = dest.getCount();
+                Future<byte[]> block = encoded.get(i);
+                int type;
+                if (block != null) {
+                    byte[] bytes = await(block);
+                    // every block starts with its magic number
+                    type = bytes[0] & 0xFF;
+                    dest.write(bytes);
+                    encoded.set(i, null);
+                    buffered -= reserved[i];
+                } else {
+                    type = writeBlock(root, blocks.get(i), dest, options, duplicates, memberSizes[i], checksums[i]);
+                }
+                addDirectoryEntries(directory, root, blocks.get(i), type, offset, dest.getCount(), memberSizes[i], checksums[i]);
+                memberSizes[i] = null;
+                checksums[i] = null;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Largest FileBlock a file can give: magic, path, limit, lengthsTable, and at most 9 bits
+     * per byte, since a 9-bit code for all 257 bytePatterns is never better than Huffman.
+     * A chunked file pays for the lengthsTable and the length of every chunk, and a solid
+     * group for the length of every member. A codebook is not fitted to the file, so every
+     * byte may take a code of the longest length. A block-sorted file is never larger than its
+     * bytes, and the length and primary index of every block.
+     */
+    private static long maxBlockSize(File root, List<File> block, CompressionOptions options) {
+        long size = 1 + ChunkedFile.CHUNK_HEADER_SIZE + 2;
+        for (File f : block) {
+            long pathSize = FileIO.getRelativePathStr(root, f).length() + 1;
+            long codedSize = f.length() + f.length() / 8;
+            if (options.getCodebook() != null) {
+                codedSize = f.length() * options.getCodebook().getMaxCodeLength() / 8 + 64 + 4;
+            } else if (BlockSort.isBlockSorted(f, options)) {
+                // a block that does not shrink is a RawBlock
+                long numBlocks = (f.length() + options.getBlockSortSize() - 1) / options.getBlockSortSize();
+                codedSize = 8 + f.length() + 8 * numBlocks;
+            } else if (ChunkedFile.isChunked(f, options)) {
+                long numChunks = ChunkedFile.numChunks(f, options);
+                codedSize += 8 + 6 * numChunks + (numChunks - 1) * (ChunkedFile.CHUNK_HEADER_SIZE + 2);
+            }
+            size += pathSize + codedSize + 4 + 1;
+        }
+        return size;
+    }
+
+
+    /**
+     * Encode a block into memory, on a worker, so the chunks of a file are encoded one by one
+     *
+     * @param memberSizes output, see {@link #writeBlock}
+     * @param checksums   output, see {@link #writeBlock}
+     */
+    private static byte[] encodeToMemory(File root, List<File> block, int bound, CompressionOptions options, long[] memberSizes,
+                                         long[] checksums) throws IOException {
+        if (block.size() > 1) return SolidGroup.encode(root, block, options.getMaxCodeLength(), memberSizes, checksums);
+        File f = block.get(0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bound);
+        if (BlockSort.isBlockSorted(f, options)) {
+            checksums[0] = BlockSort.compress(root, f, out, options, 1);
+        } else if (ChunkedFile.isChunked(f, options)) {
+            checksums[0] = ChunkedFile.compress(root, f, out, options, 1);
+        } else {
+            compressSingleFile(root, f, out, options, checksums);
+        }
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Record the block written between {@code offset} and {@code end} in the central directory,
+     * with an entry for each member of a solid group
+     *
+     * @param type magic number of the block, see {@link #writeBlock}
+     */
+    private static void addDirectoryEntries(List<CentralDirectory.Entry> directory, File root, List<File> block, int type,
+                                            long offset, long end, long[] memberSizes, long[] checksums) {
+        if (block.size() > 1) {
+            for (int i = 0; i < block.size(); i++) {
+                File f = block.get(i);
+                directory.add(new CentralDirectory.Entry(FileIO.SOLID_GROUP_MAGIC, FileIO.getRelativePathStr(root, f),
+                        offset, memberSizes[i], f.length(), checksums[i], f.lastModified()));
+            }
+            return;
+        }
+        File f = block.get(0);
+        // neither a file nor a directory, nothing was written
+        if (end == offset) return;
+        long originalSize = f.isFile() ? f.length() : 0;
+        directory.add(new CentralDirectory.Entry(type, FileIO.getRelativePathStr(root, f), offset, end - offset, originalSize,
+                checksums[0], f.lastModified()));
+    }
+
+
+    private static byte[] await(Future<byte[]> block) throws IOException {
+        try {
+            return block.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an encoded block");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) throw ioe;
+            throw new IOException(e.getCause());
+        }
+    }
+
+
+    /**
+     * Write the block of a file, a directory or a solid group
+     * <p>
+     * Chunks of a large file are encoded on {@code options.getThreads()} workers
+     *
+     * @param duplicates  the original of each duplicate, written as a reference
+     * @param memberSizes output, the share of each member of a solid group in the block
+     * @param checksums   output, the CRC32C of each file of the block, 0 for a directory
+     * @return magic number of the written block, 0 if nothing was written
+     */
+    private static int writeBlock(File root, List<File> block, OutputStream dest, CompressionOptions options,
+                                  Map<File, Deduplication.Original> duplicates, long[] memberSizes, long[] checksums) throws IOException {
+        if (block.size() > 1) {
+            dest.write(SolidGroup.encode(root, block, options.getMaxCodeLength(), memberSizes, checksums));
+            return FileIO.SOLID_GROUP_MAGIC;
+        }
+        File f = block.get(0);
+        Deduplication.Original original = duplicates.get(f);
+        if (original != null) {
+            Deduplication.write(dest, FileIO.getRelativePathStr(root, f), FileIO.getRelativePathStr(root, original.original()));
+            checksums[0] = original.checksum();
+            return FileIO.DUPLICATE_FILE_MAGIC;
+        } else if (BlockSort.isBlockSorted(f, options)) {
+            checksums[0] = BlockSort.compress(root, f, dest, options, options.getThreads());
+            return FileIO.BLOCK_SORTED_FILE_MAGIC;
+        } else if (ChunkedFile.isChunked(f, options)) {
+            checksums[0] = ChunkedFile.compress(root, f, dest, options, options.getThreads());
+            return FileIO.CHUNKED_FILE_MAGIC;
+        } else if (f.isFile()) {
+            return compressSingleFile(root, f, dest, options, checksums);
+        } else if (f.isDirectory()) {
+            writeDirectoryName(root, f, dest);
+            return FileIO.DIRECTORY_MAGIC;
+        }
+        return 0;
+    }
+
+    /**
+     * Compress a single file, or store it if its Huffman coding would be as large, see {@link CodedSize}
+     *
+     * @param root      the root path of source file(s)
+     * @param src       current compressing file
+     * @param dest      the archived file
+     * @param options   settings of this compression
+     * @param checksums output, the CRC32C of the file, computed in the frequency pass
+     * @return magic number of the written block
+     */
+    private static int compressSingleFile(File root, File src, OutputStream dest, CompressionOptions options, long[] checksums) throws IOException {
+        if (options.getCodebook() != null) {
+            try (CheckedInputStream in = new CheckedInputStream(new BufferedInputStream(Metrics.timed(new FileInputStream(src))), new CRC32C())) {
+                compressWithCodebook(FileIO.getRelativePathStr(root, src), in, dest, options.getCodebook());
+                checksums[0] = in.getChecksum().getValue();
+                return FileIO.CODEBOOK_FILE_MAGIC;
+            }
+        }
+        int maxCodeLength = options.getMaxCodeLength();
         // Read input file the first time to compute symbol frequencies.
-        FrequencyTable freqTable = getFrequencies(src);
+        long start = Metrics.start();
+        CRC32C checksum = new CRC32C();
+        FrequencyTable freqTable = getFrequencies(src, checksum);
         freqTable.increment(256);  // EOF symbol gets a frequency of 1
-        HuffmanTree huffmanTree = new HuffmanTree(freqTable);
-        TreeCanonization canonCode = new TreeCanonization(huffmanTree);
-
-        List<List<Integer>> codesList = canonCode.getHuffmanTree().getCodesList();
+        checksums[0] = checksum.getValue();
+        Metrics.stop(Metrics.Phase.FREQUENCY_COUNT, start, src.length());
+        start = Metrics.start();
+        TreeCanonization canonCode = new TreeCanonization(freqTable, maxCodeLength);
+        Metrics.stop(Metrics.Phase.TREE_BUILD, start, 0);
+        String pathStr = FileIO.getRelativePathStr(root, src);
+        if (Long.BYTES + src.length() <= CodedSize.huffman(freqTable, canonCode.getLengthsTable())) {
+            writeStoredFile(pathStr, src, dest);
+            return FileIO.STORED_FILE_MAGIC;
+        }
+        start = Metrics.start();
+        int[] codes = canonCode.getCodes();
+        byte[] codeLengths = canonCode.getCodeLengths();
+        Metrics.stop(Metrics.Phase.CANONICALIZATION, start, 0);
+        Metrics.encoded(freqTable, canonCode.getLengthsTable());
 
         // Read input file again, cf with Huffman coding, and write output file
-        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(src))) {
+        try (InputStream in = new BufferedInputStream(Metrics.timed(new FileInputStream(src)))) {
             // Magic Number
             dest.write(FileIO.SINGLE_FILE_MAGIC);
 
             // write file name not encoded
-            String pathStr = FileIO.getRelativePathStr(root, src);
             FileIO.writeString(dest, pathStr);
 
+            // the limit sizes the decoding tables
+            dest.write(maxCodeLength);
             // instantiate bitOutput to write lengthTable and compressed data
             writeLengthsTable(dest, canonCode.getLengthsTable());
-            BitOutputStream out = new BitOutputStream(dest);
-            writeEncodedBits(codesList, in, out);
+            BitWriter out = new BitWriter(dest);
+            writeEncodedBits(new Encoder(out, codes, codeLengths), in, out);
+            return FileIO.SINGLE_FILE_MAGIC;
+        }
+    }
+
+
+    /**
+     * Store a single file as it is, copied in bulk by {@link FileChannel#transferTo}
+     * <p>
+     * StoredFileBlock: STORED_FILE_MAGIC--StringOfPath--STRING_END_SIGN--size(8 bytes)--bytes
+     *
+     * @param path relative path of the file in the archive
+     */
+    private static void writeStoredFile(String path, File src, OutputStream dest) throws IOException {
+        try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            dest.write(FileIO.STORED_FILE_MAGIC);
+            FileIO.writeString(dest, path);
+            FileIO.writeLong(dest, size);
+            WritableByteChannel out = Channels.newChannel(dest);
+            // one OUTPUT_WRITE for the whole copy, dest does not time the writes of the transfer again
+            long start = Metrics.startTransfer();
+            try {
+                long position = 0;
+                while (position < size) {
+                    long n = in.transferTo(position, size - position, out);
+                    if (n <= 0) throw new EOFException("File shrank while compressing");
+                    position += n;
+                }
+            } finally {
+                Metrics.stopTransfer(Metrics.Phase.OUTPUT_WRITE, start, size);
+            }
         }
     }
 
 
+    /**
+     * Compress a single file in one pass with a trained codebook
+     * <p>
+     * CodebookFileBlock: CODEBOOK_FILE_MAGIC--StringOfPath--STRING_END_SIGN--StringOfCodebookId--STRING_END_SIGN
+     * --checksum(4 bytes)--encodedBits(ending with special EOF)
+     *
+     * @param path relative path of the file in the archive
+     * @param src  the file content, read until its end
+     * @param dest the archived file
+     * @return number of bytes read from src
+     */
+    private static long compressWithCodebook(String path, InputStream src, OutputStream dest, Codebook codebook) throws IOException {
+        dest.write(FileIO.CODEBOOK_FILE_MAGIC);
+        FileIO.writeString(dest, path);
+        FileIO.writeString(dest, codebook.getId());
+        FileIO.writeInt(dest, codebook.getChecksum());
+        BitWriter out = new BitWriter(dest);
+        long size = writeEncodedBits(new Encoder(out, codebook.getCodes(), codebook.getCodeLengths()), src, out);
+        Metrics.encoded(size + 1);  // and EOF
+        return size;
+    }
+
+
     /**
      * Write the directoryName directly without encoding
      *
@@ -80,7 +675,7 @@ public class Compression {
      * @param src  current processing directory
      * @param dest the archived file
      */
-    private static void writeDirectoryName(File root, File src, BufferedOutputStream dest) throws IOException {
+    private static void writeDirectoryName(File root, File src, OutputStream dest) throws IOException {
         dest.write(FileIO.DIRECTORY_MAGIC);
         // write file name not encoded
         String pathStr = FileIO.getRelativePathStr(root, src);
@@ -93,18 +688,20 @@ public class Compression {
      * <p>
      * Also contains an extra entry for symbol 256, whose frequency is set to 0.
      *
+     * @param checksum updated with the bytes of the file
      * @return a frequency table based on the bytes in the given file.
      */
-    private static FrequencyTable getFrequencies(File file) throws IOException {
+    private static FrequencyTable getFrequencies(File file, Checksum checksum) throws IOException {
         if (!file.isFile()) {
             throw new IllegalArgumentException("getFrequencies must receive a singleFile argument");
         }
         FrequencyTable freqTable = new FrequencyTable();
-        try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
-            while (true) {
-                int b = input.read();
-                if (b == -1) break;
-                freqTable.increment(b);
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream input = Metrics.timed(new FileInputStream(file))) {
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                freqTable.increment(buffer, 0, n);
+                checksum.update(buffer, 0, n);
             }
         }
         return freqTable;
@@ -112,52 +709,72 @@ public class Compression {
 
 
     /**
-     * Write the lengthsTable into archived file
+     * Write the lengthsTable into archived file, as a compact table
      * @param dest the archived file
      * @param lengthsTable lengthsTable
      */
-    private static void writeLengthsTable(OutputStream dest, int[] lengthsTable) throws IOException {
-        for (int i = 0; i < FrequencyTable.BYTE_PATTERNS_NUM; i++) {
-            dest.write(lengthsTable[i]);
-        }
+    static void writeLengthsTable(OutputStream dest, int[] lengthsTable) throws IOException {
+        LengthsTable.write(dest, lengthsTable);
     }
 
 
     /**
      * Write encoded data into the archived file
+     *
+     * @return number of bytes encoded
      */
-    private static void writeEncodedBits(List<List<Integer>> codesList, InputStream in, BitOutputStream out) throws IOException {
-        Encoder enc = new Encoder(out, codesList);
-        while (true) {
-            int b = in.read();
-            if (b == -1) break;
-            enc.write(b);
+    private static long writeEncodedBits(Encoder enc, InputStream in, BitWriter out) throws IOException {
+        long start = Metrics.start();
+        byte[] buffer = new byte[BitWriter.BUFFER_SIZE];
+        long size = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            enc.write(buffer, 0, n);
+            size += n;
         }
         enc.write(256);  // EOF
         out.close();
+        Metrics.stop(Metrics.Phase.ENCODE, start, size);
+        return size;
     }
 
     /**
      * Traverse all file in source path.
      * <p>
-     * Write relative path as Strings into header.
-     * <p>
-     * This method writes: Magic Numbers (2 bytes),
-     * Strings end with {@code FileIO.STRING_END_SIGN},
-     * {@code HEADER_END_SIGN}
+     * use a stack to handle multiple files in a directory
+     * in a DFS order, the order of both header and blocks
+     *
+     * @return files and directories in archive order
      */
-    private static void writeHeader(OutputStream out, File src, File root) throws IOException {
-        out.write(FileIO.HEADER_MAGIC_1);
-        out.write(FileIO.HEADER_MAGIC_2);
+    private static List<File> listEntries(File src) {
+        List<File> entries = new ArrayList<>();
         Stack<File> folderStack = new Stack<>();
         folderStack.push(src);
         while (!folderStack.isEmpty()) {
             File f = folderStack.pop();
-            FileIO.writeString(out, FileIO.getRelativePathStr(root, f));
+            entries.add(f);
             if (f.isDirectory()) {
                 folderStack.addAll(List.of(Objects.requireNonNull(f.listFiles())));
             }
         }
+        return entries;
+    }
+
+
+    /**
+     * Write relative path as Strings into header.
+     * <p>
+     * This method writes: Magic Numbers (2 bytes), {@code FileIO.FORMAT_VERSION},
+     * Strings end with {@code FileIO.STRING_END_SIGN},
+     * {@code HEADER_END_SIGN}
+     */
+    private static void writeHeader(OutputStream out, List<String> paths) throws IOException {
+        out.write(FileIO.HEADER_MAGIC_1);
+        out.write(FileIO.HEADER_MAGIC_2);
+        out.write(FileIO.FORMAT_VERSION);
+        for (String path : paths) {
+            FileIO.writeString(out, path);
+        }
         out.write(FileIO.HEADER_END_SIGN);
     }
 
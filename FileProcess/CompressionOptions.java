@@ -0,0 +1,194 @@
+package FileProcess;
+
+import Huffman.CodeLengths;
+
+
+/**
+ * Settings of one compression run, shared by all files of the archive
+ * <p>
+ * Setters check their argument and return this, so settings can be chained.
+ */
+public final class CompressionOptions {
+    /**
+     * Default cap of encoded blocks held in memory by parallel compression
+     */
+    public static final long DEFAULT_MAX_BUFFERED_BYTES = 256L << 20;
+    /**
+     * Smallest chunk size of block mode
+     */
+    public static final int MIN_CHUNK_SIZE = 1 << 10;
+    /**
+     * Largest chunk size, a chunk is read and decoded in memory, and an archive giving more is corrupt
+     */
+    public static final int MAX_CHUNK_SIZE = 1 << 28;
+    /**
+     * Chunk size of a stream compressed without a chunk size setting
+     */
+    public static final int DEFAULT_STREAM_CHUNK_SIZE = 4 << 20;
+    /**
+     * Default cap of the number of files in a solid group
+     */
+    public static final int DEFAULT_SOLID_GROUP_FILES = 1024;
+    /**
+     * Largest solid group size, a group is encoded in memory
+     */
+    public static final int MAX_SOLID_GROUP_SIZE = 1 << 28;
+    /**
+     * Largest block of the block-sorting transform, sorting takes about 20 bytes of memory per byte of a block
+     */
+    public static final int MAX_BLOCK_SORT_SIZE = 4 << 20;
+
+    private int maxCodeLength = CodeLengths.MAX_CODE_LENGTH;
+    private int threads = 1;
+    private long maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+    private int chunkSize = 0;
+    private int solidGroupSize = 0;
+    private int solidGroupFiles = DEFAULT_SOLID_GROUP_FILES;
+    private Codebook codebook = null;
+    private boolean dedup = false;
+    private int blockSortSize = 0;
+
+
+    /**
+     * @param maxCodeLength in [CodeLengths.MIN_CODE_LENGTH_LIMIT, CodeLengths.MAX_CODE_LENGTH]
+     */
+    public CompressionOptions maxCodeLength(int maxCodeLength) {
+        if (maxCodeLength < CodeLengths.MIN_CODE_LENGTH_LIMIT || maxCodeLength > CodeLengths.MAX_CODE_LENGTH)
+            throw new IllegalArgumentException("Maximum code length must be in [" + CodeLengths.MIN_CODE_LENGTH_LIMIT
+                    + ", " + CodeLengths.MAX_CODE_LENGTH + "]");
+        this.maxCodeLength = maxCodeLength;
+        return this;
+    }
+
+
+    /**
+     * @param threads number of files encoded at the same time, 1 for sequential compression
+     */
+    public CompressionOptions threads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Number of threads must be positive");
+        this.threads = threads;
+        return this;
+    }
+
+
+    /**
+     * @param maxBufferedBytes cap of encoded blocks waiting in memory for their turn to be written
+     */
+    public CompressionOptions maxBufferedBytes(long maxBufferedBytes) {
+        if (maxBufferedBytes <= 0) throw new IllegalArgumentException("Buffer size must be positive");
+        this.maxBufferedBytes = maxBufferedBytes;
+        return this;
+    }
+
+
+    /**
+     * @param chunkSize files larger than this are split into independently coded chunks of
+     *                  this many bytes, at most MAX_CHUNK_SIZE, 0 keeps every file in one piece
+     */
+    public CompressionOptions chunkSize(int chunkSize) {
+        if (chunkSize != 0 && (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE))
+            throw new IllegalArgumentException("Chunk size must be 0 or in [" + MIN_CHUNK_SIZE + ", " + MAX_CHUNK_SIZE + "] bytes");
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+
+    /**
+     * @param solidGroupSize files smaller than this share a code with their neighbours, in groups
+     *                       of about this many bytes, 0 gives every file its own code
+     */
+    public CompressionOptions solidGroupSize(int solidGroupSize) {
+        if (solidGroupSize < 0 || solidGroupSize > MAX_SOLID_GROUP_SIZE)
+            throw new IllegalArgumentException("Solid group size must be in [0, " + MAX_SOLID_GROUP_SIZE + "] bytes");
+        this.solidGroupSize = solidGroupSize;
+        return this;
+    }
+
+
+    /**
+     * @param solidGroupFiles most files in a solid group
+     */
+    public CompressionOptions solidGroupFiles(int solidGroupFiles) {
+        if (solidGroupFiles < 2) throw new IllegalArgumentException("A solid group needs room for at least 2 files");
+        this.solidGroupFiles = solidGroupFiles;
+        return this;
+    }
+
+
+    /**
+     * @param codebook trained code every file is coded with in a single pass, instead of a code of its own,
+     *                 null to count the frequencies of each file
+     */
+    public CompressionOptions codebook(Codebook codebook) {
+        this.codebook = codebook;
+        return this;
+    }
+
+
+    /**
+     * @param dedup whether a file with the same content as an earlier file is stored as a reference to it
+     */
+    public CompressionOptions dedup(boolean dedup) {
+        this.dedup = dedup;
+        return this;
+    }
+
+
+    /**
+     * @param blockSortSize files are cut into blocks of this many bytes that go through the block-sorting transform
+     *                      before they are coded, in place of chunks, 0 codes the bytes as they are.
+     *                      Streams of unknown length, solid groups and codebook files are coded without it.
+     */
+    public CompressionOptions blockSortSize(int blockSortSize) {
+        if (blockSortSize != 0 && (blockSortSize < MIN_CHUNK_SIZE || blockSortSize > MAX_BLOCK_SORT_SIZE))
+            throw new IllegalArgumentException("Block size of the transform must be 0 or in [" + MIN_CHUNK_SIZE + ", "
+                    + MAX_BLOCK_SORT_SIZE + "] bytes");
+        this.blockSortSize = blockSortSize;
+        return this;
+    }
+
+
+    public int getMaxCodeLength() {
+        return maxCodeLength;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getSolidGroupSize() {
+        return solidGroupSize;
+    }
+
+    public int getSolidGroupFiles() {
+        return solidGroupFiles;
+    }
+
+    public Codebook getCodebook() {
+        return codebook;
+    }
+
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    public int getBlockSortSize() {
+        return blockSortSize;
+    }
+
+    /**
+     * @return size of the blocks a stream of unknown length is buffered in
+     */
+    public int getStreamChunkSize() {
+        return chunkSize > 0 ? chunkSize : DEFAULT_STREAM_CHUNK_SIZE;
+    }
+
+}
@@ -0,0 +1,46 @@
+package FileProcess;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * An output stream that counts the bytes written through it, so block offsets are known
+ */
+public final class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    public CountingOutputStream(OutputStream out) {
+        super(out);
+        count = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    /**
+     * Count bytes written around this stream, such as by {@link java.nio.channels.FileChannel#transferTo}
+     * into the channel under it
+     */
+    void skip(long n) {
+        count += n;
+    }
+
+    /**
+     * @return number of bytes written so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+}
@@ -1,94 +1,861 @@
 package FileProcess;
 
 import BitwiseStream.BitInputStream;
-import Huffman.HuffmanTree;
-import Huffman.InternalNode;
 import Huffman.TreeCanonization;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
 
 public class Decompression {
+    /**
+     * Bytes decoded at a time before they are written, one buffer for each decoding thread
+     */
+    private static final ThreadLocal<byte[]> DECODE_BUFFER = ThreadLocal.withInitial(() -> new byte[1 << 16]);
+
+    /**
+     * Decoding work of one block, run on the calling thread or on a worker
+     */
+    @FunctionalInterface
+    private interface BlockTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * Where a file entry of the central directory is decoded to
+     */
+    @FunctionalInterface
+    private interface FileTarget {
+        OutputStream open(CentralDirectory.Entry entry) throws IOException;
+
+        /**
+         * Write a duplicate as a copy of its original, once the original is decoded
+         *
+         * @return false if the original was not decoded to this target, so it is decoded again for the duplicate
+         */
+        default boolean copy(CentralDirectory.Entry original, CentralDirectory.Entry duplicate) throws IOException {
+            return false;
+        }
+    }
+
+    /**
+     * Where the entries of an archive read from start to end are decoded to
+     */
+    interface EntrySink extends SolidGroup.MemberSink {
+        /**
+         * @param path relative path of a directory entry
+         * @return whether the directory was extracted
+         */
+        boolean directory(String path) throws IOException;
+
+        /**
+         * @param path     relative path of a duplicate file entry
+         * @param original relative path of the earlier file with its content, which was offered to this sink
+         * @return whether the duplicate was extracted
+         * @throws ArchiveException if the content of the original is gone, as from a stream
+         */
+        default boolean duplicate(String path, String original) throws IOException {
+            throw new ArchiveException(path + " is a copy of " + original + ", which can not be read again from a stream");
+        }
+    }
+
+    /**
+     * Main api for decompression
+     *
+     * @param outputRoot a directory, where to store archived file(s)
+     * @param archive    byte-wise input stream
+     * @param policy     what to do with entries that already exist
+     * @return number of extracted entries, without the skipped ones
+     */
+    public static int decompress(File outputRoot, InputStream archive, OverwritePolicy policy) throws IOException {
+        return decompress(outputRoot, archive, policy, Codebook.getDirectory());
+    }
+
+
     /**
      * Main api for decompression
      *
      * @param outputRoot a directory, where to store archived file(s)
-     * @param in         byte-wise input stream
+     * @param archive    byte-wise input stream
+     * @param policy     what to do with entries that already exist
+     * @param codebooks  directory the codebooks of CodebookFileBlocks are looked up in
+     * @return number of extracted entries, without the skipped ones
+     */
+    public static int decompress(File outputRoot, InputStream archive, OverwritePolicy policy, File codebooks) throws IOException {
+        Set<String> extracted = new HashSet<>();
+        return decompress(archive, codebooks, new EntrySink() {
+            @Override
+            public OutputStream open(String path) throws IOException {
+                File file = new File(outputRoot, path);
+                if (file.exists() && !policy.overwrite(file.toPath())) return null;
+                extracted.add(path);
+                return OutputFile.open(file, -1);
+            }
+
+            @Override
+            public boolean duplicate(String path, String original) throws IOException {
+                File file = new File(outputRoot, path);
+                if (file.exists() && !policy.overwrite(file.toPath())) return false;
+                if (!extracted.contains(original)) {
+                    throw new ArchiveException(path + " is a copy of " + original + ", which was not extracted");
+                }
+                Deduplication.copy(new File(outputRoot, original), file);
+                extracted.add(path);
+                return true;
+            }
+
+            @Override
+            public boolean directory(String path) throws IOException {
+                File directory = new File(outputRoot, path);
+                if (directory.exists()) return policy.overwrite(directory.toPath());
+                if (!directory.mkdir()) throw new IOException("Fail to create directory " + directory);
+                return true;
+            }
+        });
+    }
+
+
+    /**
+     * Decode the contents of all files of an archive, one after another, into a single stream
+     * <p>
+     * The archive is read once from start to end, so it may come from a pipe. Directories are skipped.
+     *
+     * @param archive byte-wise input stream
+     * @param out     where the decoded bytes go, such as stdout
+     * @return number of decoded files
+     */
+    public static int decompressToStream(InputStream archive, OutputStream out) throws IOException {
+        return decompressToStream(archive, out, Codebook.getDirectory());
+    }
+
+
+    /**
+     * Decode the contents of all files of an archive, one after another, into a single stream
+     * <p>
+     * The archive is read once from start to end, so it may come from a pipe. Directories are skipped.
+     *
+     * @param archive   byte-wise input stream
+     * @param out       where the decoded bytes go, such as stdout
+     * @param codebooks directory the codebooks of CodebookFileBlocks are looked up in
+     * @return number of decoded files
+     */
+    public static int decompressToStream(InputStream archive, OutputStream out, File codebooks) throws IOException {
+        int numFiles = decompress(archive, codebooks, new EntrySink() {
+            @Override
+            public OutputStream open(String path) {
+                // files are closed one by one, out stays open
+                return new FilterOutputStream(out) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                };
+            }
+
+            @Override
+            public boolean directory(String path) {
+                return false;
+            }
+        });
+        out.flush();
+        return numFiles;
+    }
+
+
+    /**
+     * Decode the contents of all files of an archive file, one after another, into a single stream
+     * <p>
+     * Blocks are read in archive order with the central directory, so a duplicate is decoded again from its original.
+     * An archive without a central directory is read from start to end.
+     *
+     * @param archive   the archived file
+     * @param out       where the decoded bytes go, such as stdout
+     * @param codebooks directory the codebooks of CodebookFileBlocks are looked up in
+     * @return number of decoded files
+     */
+    public static int decompressToStream(File archive, OutputStream out, File codebooks) throws IOException {
+        List<CentralDirectory.Entry> entries = CentralDirectory.read(archive);
+        if (entries == null) {
+            try (BufferedInputStream is = new BufferedInputStream(Metrics.timed(new FileInputStream(archive)))) {
+                return decompressToStream(is, out, codebooks);
+            }
+        }
+        Metrics.entries(entries);
+        List<CentralDirectory.Entry> files = new ArrayList<>();
+        for (CentralDirectory.Entry entry : entries) {
+            if (!entry.isDirectory()) files.add(entry);
+        }
+        // files are closed one by one, out stays open
+        OutputStream file = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        decodeFiles(archive, entries, files, 1, codebooks, entry -> file);
+        out.flush();
+        return files.size();
+    }
+
+
+    /**
+     * Read an archive from start to end, decoding every entry into a sink
+     * <p>
+     * A file the sink skips is decoded anyway, as the next block is only found after it.
+     * The sizes and checksums of the files the sink took are compared with the central directory once it is reached.
+     *
+     * @param archive   byte-wise input stream
+     * @param codebooks directory the codebooks of CodebookFileBlocks are looked up in
+     * @return number of entries the sink took
+     * @throws ArchiveException if a file decodes to another size or fails its checksum
      */
-    public static void decompress(File outputRoot, BufferedInputStream in) throws IOException {
-        FileIO.checkHeader(in);
+    static int decompress(InputStream archive, File codebooks, EntrySink sink) throws IOException {
+        // the table decoder reads ahead, the extra bytes are given back for the next block
+        PushbackInputStream in = new PushbackInputStream(archive, BitInputStream.MAX_LOOKAHEAD_BYTES);
+        int version = FileIO.checkHeader(in);
         FileIO.skipHeader(in);
+        Map<String, Checksum> checksums = new HashMap<>();
+        Map<String, CountingOutputStream> sizes = new HashMap<>();
+        Map<String, String> duplicates = new HashMap<>();
+        EntrySink checked = new EntrySink() {
+            @Override
+            public OutputStream open(String path) throws IOException {
+                OutputStream os = sink.open(path);
+                if (os == null) return null;
+                CountingOutputStream counter = new CountingOutputStream(os);
+                CheckedOutputStream out = new CheckedOutputStream(counter, new CRC32C());
+                checksums.put(path, out.getChecksum());
+                sizes.put(path, counter);
+                return out;
+            }
+
+            @Override
+            public boolean directory(String path) throws IOException {
+                return sink.directory(path);
+            }
+
+            @Override
+            public boolean duplicate(String path, String original) throws IOException {
+                if (!sink.duplicate(path, original)) return false;
+                duplicates.put(path, original);
+                return true;
+            }
+        };
 
         int mode;
-        OverwriteProtector protector = new OverwriteProtector();
+        int numExtracted = 0;
         while ((mode = in.read()) != -1) {
-            if (mode != FileIO.SINGLE_FILE_MAGIC && mode != FileIO.DIRECTORY_MAGIC) {
-                System.err.println("ERROR: inner magic number NOT match");
-                System.exit(1);
-                return;
-            }
-            String fileName = FileIO.readString(in);
-            assert fileName != null;
-            if (mode == FileIO.DIRECTORY_MAGIC) {
-                File directory = new File(outputRoot, fileName);
-                if (directory.exists()) {
-                    protector.askUser(directory);
-                } else {
-                    if (!directory.mkdir()) {
-                        throw new IOException();
-                    }
+            // the central directory follows the last block
+            if (mode == FileIO.CENTRAL_DIRECTORY_MAGIC) {
+                if (version < CentralDirectory.MIN_VERSION) break;
+                in.unread(mode);
+                Map<String, CentralDirectory.Entry> byPath = new HashMap<>();
+                for (CentralDirectory.Entry entry : CentralDirectory.readEntries(in, Long.MAX_VALUE, version)) {
+                    CountingOutputStream size = sizes.get(entry.path());
+                    if (size != null && size.getCount() != entry.originalSize()) throw sizeMismatch(entry, size.getCount());
+                    Checksum checksum = checksums.get(entry.path());
+                    if (checksum != null && entry.hasChecksum() && checksum.getValue() != entry.checksum()) throw checksumMismatch(entry);
+                    byPath.put(entry.path(), entry);
                 }
-            } else {
-                File singleFile = new File(outputRoot, fileName);
-                if (singleFile.exists()) {
-                    protector.askUser(singleFile);
+                CentralDirectory.readTrailer(in);
+                // a duplicate is as sound as its original
+                for (Map.Entry<String, String> duplicate : duplicates.entrySet()) {
+                    CentralDirectory.Entry entry = byPath.get(duplicate.getKey());
+                    if (entry == null) throw new ArchiveException(duplicate.getKey() + " is not in the central directory");
+                    checkOriginal(entry, byPath.get(duplicate.getValue()));
                 }
-                try (BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(singleFile))) {
-                    TreeCanonization canonCode = new TreeCanonization(readLengthsTable(in));
-                    try (BitInputStream bitIn = new BitInputStream(in)) {
-                        HuffmanTree HuffmanTree = canonCode.getHuffmanTree();
-                        writeDecodedBytes(HuffmanTree.getRoot(), bitIn, os);
-                        os.close();
-                    } catch (Exception e) {
-                        System.err.println("ERROR: fail in bitInputStream");
-//                        e.printStackTrace();
+                return numExtracted;
+            }
+            numExtracted += decompressBlock(mode, in, checked, version, codebooks);
+        }
+        if (version >= CentralDirectory.MIN_VERSION) throw new EOFException("Archive ends before its central directory");
+        return numExtracted;
+    }
+
+
+    /**
+     * Extract entries with the central directory, decoding files on a pool of workers
+     * <p>
+     * The directory skeleton is created and overwrites are confirmed first, then every worker
+     * reads the region of its own block with positional reads, so entries are decoded in any order.
+     * Chunks of a chunked file are decoded by its worker alone, unless there is a single thread.
+     * The selected members of a solid group are decoded together by one worker.
+     * An archive without a central directory is extracted sequentially.
+     *
+     * @param archive    the archived file
+     * @param outputRoot a directory, where to store archived file(s)
+     * @param patterns   paths or globs of the entries to extract, empty for all entries
+     * @param threads    number of files decoded at the same time
+     * @param policy     what to do with entries that already exist
+     * @param mmap       whether files of at least {@link OutputFile#MIN_MAPPED_SIZE} are written through a memory map
+     * @param codebooks  directory the codebooks of CodebookFileBlocks are looked up in
+     * @return number of extracted entries, without the skipped ones
+     */
+    public static int extract(File archive, File outputRoot, List<String> patterns, int threads, OverwritePolicy policy,
+                              boolean mmap, File codebooks) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("Number of threads must be positive");
+        List<CentralDirectory.Entry> entries = CentralDirectory.read(archive);
+        if (entries == null) {
+            if (!patterns.isEmpty()) throw new IOException("Archive has no central directory, extract it as a whole");
+            try (BufferedInputStream is = new BufferedInputStream(Metrics.timed(new FileInputStream(archive)))) {
+                return decompress(outputRoot, is, policy, codebooks);
+            }
+        }
+
+        List<CentralDirectory.Entry> selected = select(entries, patterns);
+        Metrics.entries(selected);
+        List<CentralDirectory.Entry> files = new ArrayList<>();
+        int numExtracted = createSkeleton(outputRoot, selected, policy, files);
+        Set<String> decoded = new HashSet<>();
+        for (CentralDirectory.Entry entry : files) {
+            decoded.add(entry.path());
+        }
+        decodeFiles(archive, entries, files, threads, codebooks, new FileTarget() {
+            @Override
+            public OutputStream open(CentralDirectory.Entry entry) throws IOException {
+                return OutputFile.open(new File(outputRoot, entry.path()), entry.originalSize(), mmap);
+            }
+
+            @Override
+            public boolean copy(CentralDirectory.Entry original, CentralDirectory.Entry duplicate) throws IOException {
+                if (!decoded.contains(original.path())) return false;
+                Deduplication.copy(new File(outputRoot, original.path()), new File(outputRoot, duplicate.path()));
+                return true;
+            }
+        });
+        return numExtracted + files.size();
+    }
+
+
+    /**
+     * Decode every file of an archive without writing it, checking its size and checksum against the central directory
+     * <p>
+     * Files are decoded on a pool of workers as by {@link #extract}. An archive without a central directory
+     * is decoded sequentially, and an archive older than checksums is only checked for being decodable to its sizes.
+     *
+     * @param archive   the archived file
+     * @param threads   number of files decoded at the same time
+     * @param codebooks directory the codebooks of CodebookFileBlocks are looked up in
+     * @return number of tested files
+     * @throws ArchiveException if a file decodes to another size or fails its checksum
+     */
+    public static int test(File archive, int threads, File codebooks) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("Number of threads must be positive");
+        List<CentralDirectory.Entry> entries = CentralDirectory.read(archive);
+        if (entries == null) {
+            try (BufferedInputStream is = new BufferedInputStream(Metrics.timed(new FileInputStream(archive)))) {
+                return test(is, codebooks);
+            }
+        }
+        Metrics.entries(entries);
+        List<CentralDirectory.Entry> files = new ArrayList<>();
+        for (CentralDirectory.Entry entry : entries) {
+            if (!entry.isDirectory()) files.add(entry);
+        }
+        decodeFiles(archive, entries, files, threads, codebooks, new FileTarget() {
+            @Override
+            public OutputStream open(CentralDirectory.Entry entry) {
+                return OutputStream.nullOutputStream();
+            }
+
+            @Override
+            public boolean copy(CentralDirectory.Entry original, CentralDirectory.Entry duplicate) {
+                // every original is tested, and the duplicate matches it
+                return true;
+            }
+        });
+        return files.size();
+    }
+
+
+    /**
+     * Decode every file of an archive read from start to end without writing it, checking its checksum
+     * against the central directory at the end
+     *
+     * @param archive   byte-wise input stream
+     * @param codebooks directory the codebooks of CodebookFileBlocks are looked up in
+     * @return number of tested files
+     */
+    static int test(InputStream archive, File codebooks) throws IOException {
+        return decompress(archive, codebooks, new EntrySink() {
+            @Override
+            public OutputStream open(String path) {
+                return OutputStream.nullOutputStream();
+            }
+
+            @Override
+            public boolean duplicate(String path, String original) {
+                // checked against its original with the central directory
+                return true;
+            }
+
+            @Override
+            public boolean directory(String path) {
+                return false;
+            }
+        });
+    }
+
+
+    /**
+     * Decode file entries, each from its own region of the archive, into their targets
+     * <p>
+     * On a single thread, blocks are decoded in archive order, which puts an original before its duplicates.
+     * On more, duplicates are written once every other file is. A duplicate is a copy of its original where
+     * the target has it, or else the block of its original decoded again.
+     *
+     * @param entries   all entries of the central directory
+     * @param files     the file entries to decode, in archive order
+     * @param codebooks directory the codebooks of CodebookFileBlocks are looked up in
+     */
+    private static void decodeFiles(File archive, List<CentralDirectory.Entry> entries, List<CentralDirectory.Entry> files,
+                                    int threads, File codebooks, FileTarget target) throws IOException {
+        // the block of a solid group spans the shares of all its members
+        Map<Long, Long> groupSizes = new HashMap<>();
+        Map<String, CentralDirectory.Entry> byPath = new HashMap<>();
+        for (CentralDirectory.Entry entry : entries) {
+            if (entry.type() == FileIO.SOLID_GROUP_MAGIC) groupSizes.merge(entry.offset(), entry.compressedSize(), Long::sum);
+            byPath.put(entry.path(), entry);
+        }
+
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            int version = FileIO.checkHeader(Channels.newInputStream(channel));
+            int parallelism = threads == 1 ? Runtime.getRuntime().availableProcessors() : 1;
+            List<BlockTask> tasks = new ArrayList<>();
+            List<BlockTask> copies = new ArrayList<>();
+            Map<Long, Map<String, CentralDirectory.Entry>> groups = new HashMap<>();
+            for (CentralDirectory.Entry entry : files) {
+                if (entry.type() == FileIO.SOLID_GROUP_MAGIC) {
+                    Map<String, CentralDirectory.Entry> members = groups.get(entry.offset());
+                    if (members == null) {
+                        // one task for the group, at the place of its first member
+                        long offset = entry.offset();
+                        Map<String, CentralDirectory.Entry> group = new HashMap<>();
+                        groups.put(offset, group);
+                        tasks.add(() -> extractGroup(channel, offset, groupSizes.get(offset), group, target, version));
+                        members = group;
                     }
-                } catch (Exception e) {
-//                    e.printStackTrace();
+                    members.put(entry.path(), entry);
+                } else if (entry.type() == FileIO.DUPLICATE_FILE_MAGIC) {
+                    (threads == 1 ? tasks : copies).add(() -> extractDuplicate(channel, entry, byPath, groupSizes, target, parallelism, version, codebooks));
+                } else {
+                    tasks.add(() -> extractFile(channel, entry, target, parallelism, version, codebooks));
+                }
+            }
+            if (threads == 1) {
+                for (BlockTask task : tasks) {
+                    task.run();
                 }
+                return;
+            }
+            runTasks(tasks, threads);
+            runTasks(copies, threads);
+        }
+    }
+
+
+    private static void runTasks(List<BlockTask> tasks, int threads) throws IOException {
+        if (tasks.isEmpty()) return;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>(tasks.size());
+            for (BlockTask task : tasks) {
+                results.add(pool.submit(() -> {
+                    task.run();
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                await(result);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Entries matching any of the patterns, all entries if there is no pattern
+     * <p>
+     * A pattern matches an entry by its relative path, by a glob over that path,
+     * or by naming a directory the entry is in.
+     */
+    private static List<CentralDirectory.Entry> select(List<CentralDirectory.Entry> entries, List<String> patterns) {
+        if (patterns.isEmpty()) return entries;
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String pattern : patterns) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+        }
+        List<CentralDirectory.Entry> selected = new ArrayList<>();
+        for (CentralDirectory.Entry entry : entries) {
+            if (matches(entry.path(), patterns, matchers)) selected.add(entry);
+        }
+        return selected;
+    }
+
+
+    private static boolean matches(String path, List<String> patterns, List<PathMatcher> matchers) {
+        for (int i = 0; i < patterns.size(); i++) {
+            String pattern = patterns.get(i);
+            if (path.equals(pattern) || path.startsWith(pattern + File.separator)) return true;
+            if (matchers.get(i).matches(Path.of(path))) return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Create the directories and the missing parents of all selected entries, and settle
+     * overwrites with the policy, so workers only write files
+     *
+     * @param files output, the file entries to decode in archive order
+     * @return number of directory entries
+     */
+    private static int createSkeleton(File outputRoot, List<CentralDirectory.Entry> entries, OverwritePolicy policy,
+                                      List<CentralDirectory.Entry> files) throws IOException {
+        int numDirectories = 0;
+        for (CentralDirectory.Entry entry : entries) {
+            File target = new File(outputRoot, entry.path());
+            File directory = entry.isDirectory() ? target : target.getParentFile();
+            if (target.exists() && !policy.overwrite(target.toPath())) {
+                continue;
+            }
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Fail to create directory " + directory);
             }
+            if (entry.isDirectory()) {
+                numDirectories++;
+            } else {
+                files.add(entry);
+            }
+        }
+        return numDirectories;
+    }
+
+
+    /**
+     * Decode the block of a file entry from its region of the archive
+     *
+     * @param parallelism number of chunks of a chunked file decoded at the same time
+     * @param version     format version of the archive
+     * @param codebooks   directory the codebook of a CodebookFileBlock is looked up in
+     */
+    private static void extractFile(FileChannel channel, CentralDirectory.Entry entry, FileTarget target, int parallelism,
+                                    int version, File codebooks) throws IOException {
+        int bufferSize = (int) Math.max(1, Math.min(entry.compressedSize(), BitInputStream.BUFFER_SIZE));
+        InputStream in = new BufferedInputStream(Metrics.timed(new ChannelRegionInputStream(channel, entry.offset(), entry.compressedSize())), bufferSize);
+        int mode = in.read();
+        if (mode != entry.type()) throw new ArchiveException("Block of " + entry.path() + " does not match the central directory");
+        // the path is known from the central directory
+        FileIO.readString(in);
+        try (OutputStream os = verified(target.open(entry), entry)) {
+            writeFile(mode, in, os, parallelism, version, codebooks);
         }
     }
 
 
     /**
-     * Write decoded path to out
+     * Decode the wanted members of a solid group from its region of the archive
+     *
+     * @param members entries of the members to decode, by relative path
+     */
+    private static void extractGroup(FileChannel channel, long offset, long size, Map<String, CentralDirectory.Entry> members,
+                                     FileTarget target, int version) throws IOException {
+        int bufferSize = (int) Math.max(1, Math.min(size, BitInputStream.BUFFER_SIZE));
+        InputStream in = new BufferedInputStream(Metrics.timed(new ChannelRegionInputStream(channel, offset, size)), bufferSize);
+        if (in.read() != FileIO.SOLID_GROUP_MAGIC) throw new ArchiveException("Solid group does not match the central directory");
+        int numDecoded = SolidGroup.decompress(in, version, path -> members.containsKey(path)
+                ? verified(target.open(members.get(path)), members.get(path)) : null);
+        if (numDecoded != members.size()) throw new ArchiveException("Solid group misses members of the central directory");
+    }
+
+
+    /**
+     * Write a duplicate from its original, found by the path in its block
      *
-     * @param treeRoot use for construct a decoder
-     * @param in       bitWise inputStream
-     * @param out      byteWise outputStream
+     * @param byPath     all entries of the central directory by relative path
+     * @param groupSizes size of each solid group by offset
+     */
+    private static void extractDuplicate(FileChannel channel, CentralDirectory.Entry entry, Map<String, CentralDirectory.Entry> byPath,
+                                         Map<Long, Long> groupSizes, FileTarget target, int parallelism, int version,
+                                         File codebooks) throws IOException {
+        InputStream in = new BufferedInputStream(new ChannelRegionInputStream(channel, entry.offset(), entry.compressedSize()),
+                (int) Math.max(1, Math.min(entry.compressedSize(), BitInputStream.BUFFER_SIZE)));
+        if (in.read() != FileIO.DUPLICATE_FILE_MAGIC) throw new ArchiveException("Block of " + entry.path() + " does not match the central directory");
+        FileIO.readString(in);
+        String path = Deduplication.readOriginal(in);
+        CentralDirectory.Entry original = byPath.get(path);
+        checkOriginal(entry, original);
+        if (target.copy(original, entry)) return;
+        // the content of the original goes to the duplicate, checked against the original
+        FileTarget duplicate = member -> target.open(entry);
+        if (original.type() == FileIO.SOLID_GROUP_MAGIC) {
+            extractGroup(channel, original.offset(), groupSizes.get(original.offset()), Map.of(path, original), duplicate, version);
+        } else {
+            extractFile(channel, original, duplicate, parallelism, version, codebooks);
+        }
+    }
+
+
+    /**
+     * @param original entry of the path a duplicate refers to, null if there is none
+     * @throws ArchiveException if the original is not a file with the size and checksum of the duplicate
+     */
+    private static void checkOriginal(CentralDirectory.Entry duplicate, CentralDirectory.Entry original) throws ArchiveException {
+        if (original == null || original.isDirectory() || original.type() == FileIO.DUPLICATE_FILE_MAGIC
+                || original.originalSize() != duplicate.originalSize() || original.checksum() != duplicate.checksum()) {
+            throw new ArchiveException(duplicate.path() + " refers to a file without its content, the archive is corrupt");
+        }
+    }
+
+
+    /**
+     * Wrap the stream of a decoded file, so closing it checks the size and the checksum of its entry
      */
-    private static void writeDecodedBytes(InternalNode treeRoot, BitInputStream in, OutputStream out) throws IOException {
-        Decoder decoder = new Decoder(in, treeRoot);
-        while (true) {
-            int symbol = decoder.read();
-            if (symbol == 256)  // EOF symbol
-                break;
+    private static OutputStream verified(OutputStream out, CentralDirectory.Entry entry) {
+        return new CheckedOutputStream(out, new CRC32C()) {
+            private long size = 0;
+
+            @Override
+            public void write(int b) throws IOException {
+                super.write(b);
+                size++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                super.write(b, off, len);
+                size += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (size != entry.originalSize()) throw sizeMismatch(entry, size);
+                if (entry.hasChecksum() && getChecksum().getValue() != entry.checksum()) throw checksumMismatch(entry);
+            }
+        };
+    }
+
+
+    private static ArchiveException sizeMismatch(CentralDirectory.Entry entry, long size) {
+        return new ArchiveException(entry.path() + " decodes to " + size + " bytes, the central directory tells " + entry.originalSize());
+    }
+
+
+    private static ArchiveException checksumMismatch(CentralDirectory.Entry entry) {
+        return new ArchiveException(entry.path() + " fails its CRC32C check, the archive is corrupt");
+    }
+
+
+    private static void await(Future<?> result) throws IOException {
+        try {
+            result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a decoded file");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) throw ioe;
+            throw new IOException(e.getCause());
+        }
+    }
+
+
+    /**
+     * Read one block after its magic number, and write the file(s) or directory it holds
+     *
+     * @param mode      magic number of the block
+     * @param in        byteWise input stream, positioned after the magic number
+     * @param version   format version of the archive
+     * @param codebooks directory the codebook of a CodebookFileBlock is looked up in
+     * @return number of entries in the block the sink took
+     */
+    private static int decompressBlock(int mode, PushbackInputStream in, EntrySink sink, int version, File codebooks) throws IOException {
+        if (mode == FileIO.SOLID_GROUP_MAGIC) {
+            return SolidGroup.decompress(in, version, sink);
+        }
+        if (mode == FileIO.DUPLICATE_FILE_MAGIC) {
+            String path = FileIO.readString(in);
+            return sink.duplicate(path, Deduplication.readOriginal(in)) ? 1 : 0;
+        }
+        if (!isBlockMagic(mode)) {
+            throw new ArchiveException("Inner magic number NOT match");
+        }
+        String fileName = FileIO.readString(in);
+        if (mode == FileIO.DIRECTORY_MAGIC) {
+            return sink.directory(fileName) ? 1 : 0;
+        }
+        OutputStream os = sink.open(fileName);
+        try (OutputStream out = os == null ? OutputStream.nullOutputStream() : os) {
+            writeFile(mode, in, out, Runtime.getRuntime().availableProcessors(), version, codebooks);
+        }
+        return os == null ? 0 : 1;
+    }
+
+
+    /**
+     * Whether a magic number starts a block with a path, every block except a SolidGroupBlock
+     */
+    private static boolean isBlockMagic(int mode) {
+        return mode == FileIO.SINGLE_FILE_MAGIC || mode == FileIO.DIRECTORY_MAGIC || mode == FileIO.CHUNKED_FILE_MAGIC
+                || mode == FileIO.STREAMED_FILE_MAGIC || mode == FileIO.CODEBOOK_FILE_MAGIC || mode == FileIO.STORED_FILE_MAGIC
+                || mode == FileIO.BLOCK_SORTED_FILE_MAGIC;
+    }
+
+
+    /**
+     * Decode the rest of a FileBlock, ChunkedFileBlock, StreamedFileBlock, CodebookFileBlock, StoredFileBlock or
+     * BlockSortedFileBlock after the path
+     *
+     * @param mode        magic number of the block
+     * @param parallelism number of chunks of a chunked file decoded at the same time
+     * @param version     format version of the archive
+     * @param codebooks   directory the codebook of a CodebookFileBlock is looked up in
+     */
+    private static void writeFile(int mode, InputStream in, OutputStream os, int parallelism, int version, File codebooks) throws IOException {
+        if (mode == FileIO.CHUNKED_FILE_MAGIC) {
+            ChunkedFile.decompress(in, os, parallelism, version);
+            return;
+        }
+        if (mode == FileIO.BLOCK_SORTED_FILE_MAGIC) {
+            BlockSort.decompress(in, os, parallelism, version);
+            return;
+        }
+        if (mode == FileIO.STREAMED_FILE_MAGIC) {
+            ChunkedFile.decompressStream(in, os, parallelism, version);
+            return;
+        }
+        if (mode == FileIO.STORED_FILE_MAGIC) {
+            copyStoredBytes(in, os, FileIO.readLong(in));
+            return;
+        }
+        if (mode == FileIO.CODEBOOK_FILE_MAGIC) {
+            String id = FileIO.readString(in);
+            int checksum = FileIO.readInt(in);
+            Codebook codebook = Codebook.load(id, codebooks);
+            if (codebook.getChecksum() != checksum) throw new IOException("Codebook " + id + " differs from the one the file was coded with");
+            try (BitInputStream bitIn = new BitInputStream(in)) {
+                writeDecodedBytes(codebook.newDecoder(bitIn), os);
+            }
+            return;
+        }
+        if (version == FileIO.LEGACY_FORMAT_VERSION) {
+            // no maximum code length was recorded, the codes may be longer than the tables can peek
+            int[] lengthsTable = readLengthsTable(in, version);
+            try (BitInputStream bitIn = new BitInputStream(in)) {
+                writeDecodedBytes(new Decoder(bitIn, new TreeCanonization(lengthsTable).getHuffmanTree().getRoot()), os);
+            }
+            return;
+        }
+        int maxCodeLength = in.read();
+        int[] lengthsTable = readLengthsTable(in, version);
+        try (BitInputStream bitIn = new BitInputStream(in)) {
+            long start = Metrics.start();
+            TableDecoder decoder = new TableDecoder(bitIn, lengthsTable, maxCodeLength);
+            Metrics.stop(Metrics.Phase.CANONICALIZATION, start, 0);
+            writeDecodedBytes(decoder, os);
+        }
+    }
+
+
+    /**
+     * Write decoded path to out, a buffer at a time
+     *
+     * @param decoder table decoder reading the bitWise inputStream
+     * @param out     byteWise outputStream
+     */
+    static void writeDecodedBytes(TableDecoder decoder, OutputStream out) throws IOException {
+        long start = Metrics.start();
+        byte[] buffer = DECODE_BUFFER.get();
+        long size = 0;
+        int n;
+        do {
+            n = decoder.read(buffer, 0, buffer.length);
+            out.write(buffer, 0, n);
+            size += n;
+        } while (n == buffer.length);
+        Metrics.stop(Metrics.Phase.DECODE, start, size);
+        Metrics.decoded(size + 1);  // and EOF
+    }
+
+    /**
+     * Write the path a tree decoder reads to out, a symbol at a time
+     *
+     * @param decoder tree decoder reading the bitWise inputStream
+     * @param out     byteWise outputStream
+     */
+    private static void writeDecodedBytes(Decoder decoder, OutputStream out) throws IOException {
+        long start = Metrics.start();
+        long size = 0;
+        int symbol;
+        while ((symbol = decoder.read()) != 256) {  // EOF symbol
             out.write(symbol);
+            size++;
+        }
+        Metrics.stop(Metrics.Phase.DECODE, start, size);
+        Metrics.decoded(size + 1);  // and EOF
+    }
+
+    /**
+     * Copy the bytes of a StoredFileBlock, a buffer at a time
+     *
+     * @param size number of bytes stored
+     */
+    private static void copyStoredBytes(InputStream in, OutputStream out, long size) throws IOException {
+        if (size < 0) throw new ArchiveException("Invalid size of a stored file: " + size);
+        // the archive and output streams time their own reads and writes
+        byte[] buffer = DECODE_BUFFER.get();
+        for (long left = size; left > 0; ) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+            if (n < 0) throw new EOFException("Truncated stored file");
+            out.write(buffer, 0, n);
+            left -= n;
         }
     }
 
     /**
      * ByteWise
      * <p>
-     * Read LengthTable before encoded bits.
+     * Read LengthTable before encoded bits, compact from format version 6 on, one byte per bytePattern before.
      *
-     * @param in byteWise input stream
+     * @param in      byteWise input stream
+     * @param version format version of the archive
      * @return LengthsTable
      */
-    private static int[] readLengthsTable(InputStream in) throws IOException {
+    static int[] readLengthsTable(InputStream in, int version) throws IOException {
+        if (version >= LengthsTable.MIN_VERSION) return LengthsTable.read(in);
+        byte[] table = in.readNBytes(FrequencyTable.BYTE_PATTERNS_NUM);
+        if (table.length != FrequencyTable.BYTE_PATTERNS_NUM) throw new EOFException("Truncated lengths table");
         int[] codeLengths = new int[FrequencyTable.BYTE_PATTERNS_NUM];
         for (int i = 0; i < codeLengths.length; i++) {
-            codeLengths[i] = in.read();
+            codeLengths[i] = table[i] & 0xFF;
         }
         return codeLengths;
     }
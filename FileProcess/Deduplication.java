@@ -0,0 +1,151 @@
+package FileProcess;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+
+/**
+ * Dedup mode: a file with the same content as an earlier file of the archive is stored as a reference to it
+ * <p>
+ * DuplicateFileBlock: DUPLICATE_FILE_MAGIC--StringOfPath--STRING_END_SIGN--StringOfOriginalPath--STRING_END_SIGN
+ * <p>
+ * Only files that share their size with another file are read for a CRC32C, and files with the same size and
+ * checksum are compared byte for byte before one is taken for a copy of the other, so a checksum collision never
+ * loses a file. The original is the first of its copies in archive order and keeps its own block, so it is always
+ * decoded before its duplicates.
+ */
+final class Deduplication {
+    /**
+     * Smallest file worth a reference, below it a block of its own costs about as much as the paths
+     */
+    static final long MIN_FILE_SIZE = 64;
+
+    /**
+     * The earlier file a duplicate is a copy of
+     *
+     * @param original the file whose block holds the content
+     * @param checksum CRC32C of the content
+     */
+    record Original(File original, long checksum) {
+    }
+
+    private Deduplication() {
+    }
+
+
+    /**
+     * Find the files with the same content as an earlier file
+     *
+     * @param entries files and directories in archive order
+     * @return the original of each duplicate
+     */
+    static Map<File, Original> findDuplicates(List<File> entries) throws IOException {
+        Map<Long, List<File>> bySize = new LinkedHashMap<>();
+        for (File f : entries) {
+            if (f.isFile() && f.length() >= MIN_FILE_SIZE) bySize.computeIfAbsent(f.length(), size -> new ArrayList<>()).add(f);
+        }
+        Map<File, Original> duplicates = new LinkedHashMap<>();
+        for (List<File> sameSize : bySize.values()) {
+            if (sameSize.size() < 2) continue;
+            // the distinct contents of this size so far, by checksum
+            Map<Long, List<File>> originals = new HashMap<>();
+            for (File f : sameSize) {
+                long checksum = checksum(f);
+                List<File> candidates = originals.computeIfAbsent(checksum, crc -> new ArrayList<>());
+                File original = null;
+                for (File candidate : candidates) {
+                    if (sameContent(candidate, f)) {
+                        original = candidate;
+                        break;
+                    }
+                }
+                if (original == null) {
+                    candidates.add(f);
+                } else {
+                    duplicates.put(f, new Original(original, checksum));
+                }
+            }
+        }
+        return duplicates;
+    }
+
+
+    /**
+     * Write the DuplicateFileBlock of a file
+     *
+     * @param path     relative path of the duplicate
+     * @param original relative path of the file it is a copy of
+     */
+    static void write(OutputStream dest, String path, String original) throws IOException {
+        dest.write(FileIO.DUPLICATE_FILE_MAGIC);
+        FileIO.writeString(dest, path);
+        FileIO.writeString(dest, original);
+    }
+
+
+    /**
+     * Read the rest of a DuplicateFileBlock after the path
+     *
+     * @return relative path of the original
+     */
+    static String readOriginal(InputStream in) throws IOException {
+        return FileIO.readString(in);
+    }
+
+
+    /**
+     * Copy the file of an original into the file of its duplicate
+     */
+    static void copy(File original, File duplicate) throws IOException {
+        long start = Metrics.start();
+        try (FileChannel in = FileChannel.open(original.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(duplicate.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long n = in.transferTo(position, size - position, out);
+                if (n <= 0) throw new IOException(original + " changed while it was copied");
+                position += n;
+            }
+            Metrics.stop(Metrics.Phase.OUTPUT_WRITE, start, size);
+        }
+    }
+
+
+    private static long checksum(File f) throws IOException {
+        long start = Metrics.start();
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        try (FileChannel in = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        Metrics.stop(Metrics.Phase.INPUT_READ, start, f.length());
+        return crc.getValue();
+    }
+
+
+    private static boolean sameContent(File a, File b) throws IOException {
+        long start = Metrics.start();
+        boolean same = Files.mismatch(a.toPath(), b.toPath()) == -1;
+        Metrics.stop(Metrics.Phase.INPUT_READ, start, a.length() + b.length());
+        return same;
+    }
+
+}
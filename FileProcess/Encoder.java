@@ -1,31 +1,46 @@
 package FileProcess;
 
-import BitwiseStream.BitOutputStream;
+import BitwiseStream.BitWriter;
 
 import java.io.IOException;
-import java.util.List;
 import java.util.Objects;
 
 
 /**
  * Encodes symbols and writes to a Huffman-coded bit stream.
+ * <p>
+ * The codebook is kept in two primitive arrays indexed by bytePattern.
  */
 public final class Encoder {
-    private final BitOutputStream bitOutputStream;
-    private final List<List<Integer>> codesList;
+    private final BitWriter bitWriter;
+    private final int[] codes;
+    private final byte[] lengths;
 
     /**
-     * Constructs a Huffman encoder based on the specified bitOutputStream stream.
+     * Constructs a Huffman encoder based on the specified bit writer.
+     *
+     * @param codes   canonical code of each bytePattern, right aligned
+     * @param lengths code length of each bytePattern
      */
-    public Encoder(BitOutputStream out, List<List<Integer>> codesList) {
-        bitOutputStream = Objects.requireNonNull(out);
-        this.codesList = Objects.requireNonNull(codesList);
+    public Encoder(BitWriter out, int[] codes, byte[] lengths) {
+        bitWriter = Objects.requireNonNull(out);
+        this.codes = Objects.requireNonNull(codes);
+        this.lengths = Objects.requireNonNull(lengths);
+        if (codes.length != lengths.length) throw new IllegalArgumentException("Codebook arrays differ in size");
     }
 
     public void write(int bytePattern) throws IOException {
-        List<Integer> bits = codesList.get(bytePattern);
-        for (int b : bits)
-            bitOutputStream.write(b);
+        bitWriter.writeBits(codes[bytePattern], lengths[bytePattern]);
+    }
+
+    /**
+     * Encode {@code len} bytes of {@code data} starting at {@code off}
+     */
+    public void write(byte[] data, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            int bytePattern = data[i] & 0xFF;
+            bitWriter.writeBits(codes[bytePattern], lengths[bytePattern]);
+        }
     }
 
 }
@@ -1,9 +1,13 @@
 package FileProcess;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
 
 
@@ -19,6 +23,49 @@ public class FileIO {
      * second byte magic number to check whether the file is compressed by us
      */
     public static final int HEADER_MAGIC_2 = 155;
+    /**
+     * byte after the magic numbers, the version of the archive layout
+     * <p>
+     * version 2: each file block records its maximum code length before the lengthsTable
+     * <p>
+     * version 3: large files may be stored as chunked file blocks
+     * <p>
+     * version 4: a central directory after the last block records where each block starts
+     * <p>
+     * version 5: a file read from a stream of unknown length is stored as a streamed file block
+     * <p>
+     * version 6: lengthsTables are stored compactly, as a bitmap of used bytePatterns and bit-packed lengths
+     * <p>
+     * version 7: small files may share one code in a solid group block
+     * <p>
+     * version 8: files may be coded with a trained codebook, only its ID is stored
+     * <p>
+     * version 9: every entry of the central directory records the CRC32C of its file
+     * <p>
+     * version 10: every entry of the central directory records the modification time of its file
+     * <p>
+     * version 11: a file with the same content as an earlier one may be stored as a duplicate file block
+     * <p>
+     * version 12: a file or a chunk that coding would not shrink is stored as it is
+     * <p>
+     * version 13: blocks of a file may go through the block-sorting transform before they are coded
+     */
+    public static final int FORMAT_VERSION = 13;
+    /**
+     * oldest version that can still be read, every later version only adds to it
+     */
+    public static final int MIN_FORMAT_VERSION = 2;
+    /**
+     * version of the archives written before the version byte, the header follows the magic numbers at once
+     * <p>
+     * Each file block has no maximum code length and a lengthsTable of one byte per bytePattern,
+     * its codes have any length and are decoded with the tree.
+     */
+    public static final int LEGACY_FORMAT_VERSION = 1;
+    /**
+     * a byte after the magic numbers up to it is a format version, a control character no path of a legacy header starts with
+     */
+    private static final int MAX_VERSION_BYTE = 31;
     /**
      * header before a single file
      */
@@ -31,6 +78,46 @@ public class FileIO {
      * header before a directory
      */
     public static final int DIRECTORY_MAGIC = 177;
+    /**
+     * header before a single file split into independently coded chunks
+     */
+    public static final int CHUNKED_FILE_MAGIC = 166;
+    /**
+     * header before a single file read from a stream, its chunks end with a chunk length of 0
+     */
+    public static final int STREAMED_FILE_MAGIC = 133;
+    /**
+     * header before a group of small files sharing one code
+     */
+    public static final int SOLID_GROUP_MAGIC = 122;
+    /**
+     * header before a single file coded with a trained codebook
+     */
+    public static final int CODEBOOK_FILE_MAGIC = 111;
+    /**
+     * header before a file with the same content as an earlier file, only the path of that file is stored
+     */
+    public static final int DUPLICATE_FILE_MAGIC = 99;
+    /**
+     * header before a single file stored without coding, as coding would not shrink it
+     */
+    public static final int STORED_FILE_MAGIC = 88;
+    /**
+     * header before a single file cut into blocks that are coded after the block-sorting transform
+     */
+    public static final int BLOCK_SORTED_FILE_MAGIC = 77;
+    /**
+     * second byte of a codebook file, after HEADER_MAGIC_1
+     */
+    public static final int CODEBOOK_MAGIC = 101;
+    /**
+     * header before the central directory, after the last block
+     */
+    public static final int CENTRAL_DIRECTORY_MAGIC = 144;
+    /**
+     * magic number to mark the end of the archive, after the central directory offset
+     */
+    public static final int CENTRAL_DIRECTORY_END_SIGN = 199;
     /**
      * magic number to mark the end of a string
      */
@@ -80,19 +167,16 @@ public class FileIO {
      * read a string ended with STRING_END_SIGN
      *
      * @param in InputStream
+     * @throws EOFException if the input ends first
      */
-    public static String readString(InputStream in) {
-        try {
-            StringBuilder sb = new StringBuilder();
-            int data;
-            while ((data = in.read()) != STRING_END_SIGN) {
-                sb.append((char) data);
-            }
-            return sb.toString();
-        } catch (Exception e) {
-            System.err.println("ERROR: fail to read file or directory name");
-            return null;
+    public static String readString(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int data;
+        while ((data = in.read()) != STRING_END_SIGN) {
+            if (data == -1) throw new EOFException("Truncated file or directory name");
+            sb.append((char) data);
         }
+        return sb.toString();
     }
 
 
@@ -108,20 +192,123 @@ public class FileIO {
     }
 
 
-    public static void checkHeader(InputStream in) throws IOException {
+    /**
+     * Write a 4-byte big-endian int
+     */
+    public static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+
+    /**
+     * Read a 4-byte big-endian int
+     *
+     * @throws EOFException if the input ends first
+     */
+    public static int readInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b == -1) throw new EOFException("Unexpected end of input");
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+
+    /**
+     * Write an 8-byte big-endian long
+     */
+    public static void writeLong(OutputStream out, long value) throws IOException {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+
+
+    /**
+     * Read an 8-byte big-endian long
+     *
+     * @throws EOFException if the input ends first
+     */
+    public static long readLong(InputStream in) throws IOException {
+        return ((long) readInt(in) << 32) | (readInt(in) & 0xFFFFFFFFL);
+    }
+
+
+    /**
+     * Stream over a channel that only reads, unlike {@code Channels.newInputStream}, which asks
+     * a file channel for its position in available and skip, and fails on a pipe
+     */
+    static InputStream newInputStream(ReadableByteChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+        };
+    }
+
+
+    /**
+     * Check the magic numbers and the format version at the start of an archive
+     * <p>
+     * A byte after the magic numbers that is not a control character starts the first path of a legacy header,
+     * the archive has {@link #LEGACY_FORMAT_VERSION} and the byte is read already.
+     *
+     * @return the format version
+     * @throws NotAnArchiveException       if the magic numbers do not match
+     * @throws UnsupportedVersionException if the format version is unknown
+     */
+    public static int checkHeader(InputStream in) throws IOException {
+        return getVersion(readVersionByte(in));
+    }
+
+    /**
+     * Check the magic numbers and the format version at the start of an archive, and leave the stream
+     * at the header, the first byte of a legacy header is given back
+     *
+     * @return the format version
+     * @throws NotAnArchiveException       if the magic numbers do not match
+     * @throws UnsupportedVersionException if the format version is unknown
+     */
+    public static int checkHeader(PushbackInputStream in) throws IOException {
+        int versionByte = readVersionByte(in);
+        int version = getVersion(versionByte);
+        if (version == LEGACY_FORMAT_VERSION) in.unread(versionByte);
+        return version;
+    }
+
+    private static int readVersionByte(InputStream in) throws IOException {
         int magic1 = in.read();
         int magic2 = in.read();
-        if (magic1 == HEADER_MAGIC_1 && magic2 == HEADER_MAGIC_2) {
-            return;
+        if (magic1 != HEADER_MAGIC_1 || magic2 != HEADER_MAGIC_2) {
+            throw new NotAnArchiveException("Magic number NOT match, this file was NOT created by cf");
+        }
+        return in.read();
+    }
+
+    private static int getVersion(int versionByte) throws UnsupportedVersionException {
+        if (versionByte > MAX_VERSION_BYTE) return LEGACY_FORMAT_VERSION;
+        if (versionByte < MIN_FORMAT_VERSION || versionByte > FORMAT_VERSION) {
+            throw new UnsupportedVersionException(versionByte);
         }
-        System.err.println("ERROR: magic number NOT match");
-        System.err.println("This file was NOT created by me");
-        System.exit(1);
+        return versionByte;
     }
 
     public static void skipHeader(InputStream in) throws IOException{
-        while(in.read()!=HEADER_END_SIGN){
-            /* empty */
+        int b;
+        while((b = in.read())!=HEADER_END_SIGN){
+            if (b == -1) throw new EOFException("Truncated header");
         }
     }
 }
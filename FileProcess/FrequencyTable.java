@@ -36,6 +36,17 @@ public final class FrequencyTable {
     }
 
 
+    /**
+     * Increment the frequency of each byte in {@code data[off, off + len)}.
+     */
+    public void increment(byte[] data, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            // protect against int overflow
+            if (++frequencies[data[i] & 0xFF] < 0) throw new IllegalStateException("Frequency int overflow");
+        }
+    }
+
+
     /**
      * protect against array out of bounds
      */
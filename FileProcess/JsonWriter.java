@@ -0,0 +1,137 @@
+package FileProcess;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+
+/**
+ * A small JSON writer for reports, indented with two spaces
+ * <p>
+ * Calls must nest as in JSON: inside an object, every value follows a {@link #name(String)}.
+ */
+public final class JsonWriter {
+    private final StringBuilder out = new StringBuilder();
+    /**
+     * for each open object or array, whether it has a member yet
+     */
+    private final Deque<Boolean> hasMembers = new ArrayDeque<>();
+    private boolean afterName = false;
+
+
+    public JsonWriter beginObject() {
+        return open('{');
+    }
+
+    public JsonWriter endObject() {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() {
+        return open('[');
+    }
+
+    public JsonWriter endArray() {
+        return close(']');
+    }
+
+
+    public JsonWriter name(String name) {
+        separate();
+        quote(name);
+        out.append(": ");
+        afterName = true;
+        return this;
+    }
+
+
+    public JsonWriter value(String value) {
+        separate();
+        if (value == null) out.append("null");
+        else quote(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        separate();
+        out.append(value);
+        return this;
+    }
+
+    /**
+     * NaN and infinities are written as null
+     */
+    public JsonWriter value(double value) {
+        separate();
+        if (Double.isNaN(value) || Double.isInfinite(value)) out.append("null");
+        else out.append(String.format(Locale.ROOT, "%.4f", value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        separate();
+        out.append(value);
+        return this;
+    }
+
+
+    @Override
+    public String toString() {
+        if (!hasMembers.isEmpty()) throw new IllegalStateException("Unclosed JSON object or array");
+        return out.toString();
+    }
+
+
+    private JsonWriter open(char bracket) {
+        separate();
+        out.append(bracket);
+        hasMembers.push(false);
+        return this;
+    }
+
+    private JsonWriter close(char bracket) {
+        if (hasMembers.isEmpty()) throw new IllegalStateException("No JSON object or array to close");
+        if (hasMembers.pop()) newLine();
+        out.append(bracket);
+        return this;
+    }
+
+    /**
+     * Comma and line break before a member, nothing between a name and its value
+     */
+    private void separate() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (hasMembers.isEmpty()) return;
+        if (hasMembers.pop()) out.append(',');
+        hasMembers.push(true);
+        newLine();
+    }
+
+    private void newLine() {
+        out.append('\n');
+        out.append("  ".repeat(hasMembers.size()));
+    }
+
+    private void quote(String s) {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+                    else out.append(c);
+                }
+            }
+        }
+        out.append('"');
+    }
+
+}
@@ -0,0 +1,136 @@
+package FileProcess;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Compact encoding of the lengthsTable, used from format version 6 on.
+ * <p>
+ * Most bytePatterns of a small file have no code, so only the used ones store a length,
+ * and every length takes just as many bits as the longest one needs.
+ * <p>
+ * CompactCodeTable: width--presenceBitmap(33 bytes)--(length - 1) in width bits for each used bytePattern, padded to a byte
+ * <p>
+ * Bit i of the bitmap, counting from the most significant bit of the first byte, tells whether bytePattern i has a code.
+ * A width of 0 means all lengths are 1.
+ */
+final class LengthsTable {
+    /**
+     * first format version with compact lengthsTables
+     */
+    static final int MIN_VERSION = 6;
+    /**
+     * Size of the presence bitmap, the bits after the last bytePattern are 0
+     */
+    static final int BITMAP_SIZE = (FrequencyTable.BYTE_PATTERNS_NUM + 7) / 8;
+    /**
+     * Smallest CompactCodeTable: width and bitmap
+     */
+    static final int MIN_SIZE = 1 + BITMAP_SIZE;
+    /**
+     * Largest width, enough for a length of {@code Huffman.CodeLengths.MAX_CODE_LENGTH}
+     */
+    private static final int MAX_WIDTH = 5;
+
+    private LengthsTable() {
+    }
+
+
+    /**
+     * Write a lengthsTable as a CompactCodeTable
+     */
+    static void write(OutputStream out, int[] lengthsTable) throws IOException {
+        byte[] bitmap = new byte[BITMAP_SIZE];
+        int maxLength = 1;
+        int numUsed = 0;
+        for (int i = 0; i < FrequencyTable.BYTE_PATTERNS_NUM; i++) {
+            if (lengthsTable[i] == 0) continue;
+            bitmap[i >>> 3] |= (byte) (0x80 >>> (i & 7));
+            maxLength = Math.max(maxLength, lengthsTable[i]);
+            numUsed++;
+        }
+        int width = 32 - Integer.numberOfLeadingZeros(maxLength - 1);
+        if (width > MAX_WIDTH) throw new IllegalArgumentException("Code length out of range");
+
+        byte[] table = new byte[MIN_SIZE + (numUsed * width + 7) / 8];
+        table[0] = (byte) width;
+        System.arraycopy(bitmap, 0, table, 1, BITMAP_SIZE);
+        int position = MIN_SIZE;
+        long bitBuffer = 0;
+        int numBits = 0;
+        for (int i = 0; i < FrequencyTable.BYTE_PATTERNS_NUM; i++) {
+            if (lengthsTable[i] == 0) continue;
+            bitBuffer = (bitBuffer << width) | (lengthsTable[i] - 1);
+            numBits += width;
+            if (numBits >= 8) {
+                numBits -= 8;
+                table[position++] = (byte) (bitBuffer >>> numBits);
+            }
+        }
+        if (numBits > 0) table[position] = (byte) (bitBuffer << (8 - numBits));
+        out.write(table);
+    }
+
+
+    /**
+     * @return size of the CompactCodeTable of a lengthsTable in BYTES
+     */
+    static int size(int[] lengthsTable) {
+        int maxLength = 1;
+        int numUsed = 0;
+        for (int i = 0; i < FrequencyTable.BYTE_PATTERNS_NUM; i++) {
+            if (lengthsTable[i] == 0) continue;
+            maxLength = Math.max(maxLength, lengthsTable[i]);
+            numUsed++;
+        }
+        int width = 32 - Integer.numberOfLeadingZeros(maxLength - 1);
+        return MIN_SIZE + (numUsed * width + 7) / 8;
+    }
+
+
+    /**
+     * Read a CompactCodeTable
+     *
+     * @return lengthsTable, 0 means no code for the bytePattern
+     * @throws IOException if the table is malformed or the input ends first
+     */
+    static int[] read(InputStream in) throws IOException {
+        int width = in.read();
+        if (width == -1) throw new EOFException("Truncated lengths table");
+        if (width > MAX_WIDTH) throw new ArchiveException("Invalid lengths table width");
+        byte[] bitmap = readFully(in, BITMAP_SIZE);
+        if ((bitmap[BITMAP_SIZE - 1] & (0xFF >>> (FrequencyTable.BYTE_PATTERNS_NUM - 8 * (BITMAP_SIZE - 1)))) != 0)
+            throw new ArchiveException("Invalid lengths table bitmap");
+        int numUsed = 0;
+        for (byte b : bitmap) {
+            numUsed += Integer.bitCount(b & 0xFF);
+        }
+        byte[] packed = readFully(in, (numUsed * width + 7) / 8);
+
+        int[] lengthsTable = new int[FrequencyTable.BYTE_PATTERNS_NUM];
+        int position = 0;
+        long bitBuffer = 0;
+        int numBits = 0;
+        for (int i = 0; i < FrequencyTable.BYTE_PATTERNS_NUM; i++) {
+            if ((bitmap[i >>> 3] & (0x80 >>> (i & 7))) == 0) continue;
+            if (numBits < width) {
+                bitBuffer = (bitBuffer << 8) | (packed[position++] & 0xFF);
+                numBits += 8;
+            }
+            numBits -= width;
+            lengthsTable[i] = (int) ((bitBuffer >>> numBits) & ((1 << width) - 1)) + 1;
+        }
+        return lengthsTable;
+    }
+
+
+    private static byte[] readFully(InputStream in, int size) throws IOException {
+        byte[] bytes = in.readNBytes(size);
+        if (bytes.length != size) throw new EOFException("Truncated lengths table");
+        return bytes;
+    }
+
+}
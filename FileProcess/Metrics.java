@@ -0,0 +1,457 @@
+package FileProcess;
+
+import Huffman.CodeLengths;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counters and nanosecond timers of the phases of compression and decompression.
+ * <p>
+ * Metrics are off until {@link #enable()}, then they are collected for the job of the calling thread: from that
+ * thread and from the threads it starts, such as the workers of its pools, until {@link #disable()}. Jobs run at
+ * the same time, as on a daemon, each collect their own.
+ * Each timed phase is also a {@code huffman.Phase} JFR event and each archive entry a {@code huffman.Entry}
+ * event, recorded when a JFR recording enables them. When neither is on, a phase costs one thread-local read
+ * and a check of the event, and no clock is read.
+ * <p>
+ * Phases nest: encode and decode include the output writes they trigger, frequency counting includes
+ * reading the file. INPUT_READ and OUTPUT_WRITE never nest in each other and isolate the time spent in I/O.
+ * Their share of the thread time, the time from the first to the last phase of each thread of the job summed over
+ * its threads, tells an I/O-bound job from a CPU-bound one, with any number of threads.
+ */
+public final class Metrics {
+    /**
+     * Timed phases
+     */
+    public enum Phase {
+        /**
+         * listing the files and directories to compress
+         */
+        SCAN,
+        /**
+         * reading source files or the archive
+         */
+        INPUT_READ,
+        FREQUENCY_COUNT,
+        /**
+         * code lengths from the frequencies, by package-merge
+         */
+        TREE_BUILD,
+        /**
+         * canonical codes from the code lengths, or decoding tables
+         */
+        CANONICALIZATION,
+        /**
+         * block-sorting transform before encoding, or its inverse after decoding
+         */
+        TRANSFORM,
+        ENCODE,
+        DECODE,
+        /**
+         * writing the archive or the decoded files
+         */
+        OUTPUT_WRITE;
+
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * metrics of the job of a thread, inherited by the threads it starts
+     */
+    private static final InheritableThreadLocal<Metrics> JOB_METRICS = new InheritableThreadLocal<>();
+    private static final EventType PHASE_EVENT = EventType.getEventType(PhaseEvent.class);
+    private static final EventType ENTRY_EVENT = EventType.getEventType(EntryEvent.class);
+    /**
+     * whether a thread is in a transfer timed as a whole, its timed streams record nothing meanwhile
+     */
+    private static final ThreadLocal<boolean[]> IN_TRANSFER = ThreadLocal.withInitial(() -> new boolean[1]);
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder[] phaseNanos = newAdders(Phase.values().length);
+    private final LongAdder[] phaseCalls = newAdders(Phase.values().length);
+    private final LongAdder[] phaseBytes = newAdders(Phase.values().length);
+    private final LongAdder symbolsEncoded = new LongAdder();
+    private final LongAdder symbolsDecoded = new LongAdder();
+    /**
+     * number of symbols coded with each code length, from the frequencies of the encoder
+     */
+    private final LongAdder[] symbolsByCodeLength = newAdders(CodeLengths.MAX_CODE_LENGTH + 1);
+    private final List<CentralDirectory.Entry> entries = new ArrayList<>();
+    /**
+     * time from the first to the last phase of each thread of the job
+     */
+    private final Queue<ThreadSpan> threadSpans = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<ThreadSpan> threadSpan = ThreadLocal.withInitial(() -> {
+        ThreadSpan span = new ThreadSpan();
+        threadSpans.add(span);
+        return span;
+    });
+
+    private Metrics() {
+    }
+
+
+    /**
+     * Start collecting metrics for the calling thread and the threads it starts from now on, dropping the ones
+     * collected so far
+     *
+     * @return the collected metrics
+     */
+    public static Metrics enable() {
+        Metrics metrics = new Metrics();
+        JOB_METRICS.set(metrics);
+        return metrics;
+    }
+
+
+    /**
+     * Stop collecting metrics for the calling thread, to be called when its job ends, as the thread may run other jobs
+     */
+    public static void disable() {
+        JOB_METRICS.remove();
+    }
+
+
+    /**
+     * @return the start time of a phase to give to {@link #stop}, 0 if nothing records it
+     */
+    static long start() {
+        if (JOB_METRICS.get() == null && !PHASE_EVENT.isEnabled()) return 0;
+        return System.nanoTime();
+    }
+
+
+    /**
+     * End a phase started with {@link #start()}
+     *
+     * @param bytes bytes the phase went through, 0 if it does not apply
+     */
+    static void stop(Phase phase, long start, long bytes) {
+        if (start == 0) return;
+        long end = System.nanoTime();
+        long nanos = end - start;
+        Metrics metrics = JOB_METRICS.get();
+        if (metrics != null) {
+            metrics.phaseNanos[phase.ordinal()].add(nanos);
+            metrics.phaseCalls[phase.ordinal()].increment();
+            metrics.phaseBytes[phase.ordinal()].add(bytes);
+            ThreadSpan span = metrics.threadSpan.get();
+            // an enclosing phase stops after the phases it holds, but started before them
+            if (span.first == 0 || start < span.first) span.first = start;
+            span.last = end;
+        }
+        PhaseEvent event = new PhaseEvent();
+        if (event.shouldCommit()) {
+            event.phase = phase.getName();
+            event.elapsed = nanos;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Start a bulk transfer, such as {@link java.nio.channels.FileChannel#transferTo}, timed as one phase: the timed
+     * streams it goes through record nothing until {@link #stopTransfer}, so INPUT_READ and OUTPUT_WRITE do not nest
+     *
+     * @return the start time of the phase, 0 if nothing records it
+     */
+    static long startTransfer() {
+        IN_TRANSFER.get()[0] = true;
+        return start();
+    }
+
+
+    /**
+     * End a transfer started with {@link #startTransfer()}, to be called in a finally block
+     *
+     * @param bytes bytes transferred
+     */
+    static void stopTransfer(Phase phase, long start, long bytes) {
+        IN_TRANSFER.get()[0] = false;
+        stop(phase, start, bytes);
+    }
+
+
+    /**
+     * @return the start time of a read or write of a timed stream, 0 inside a transfer
+     */
+    private static long startIo() {
+        return IN_TRANSFER.get()[0] ? 0 : start();
+    }
+
+
+    /**
+     * Count the symbols of an encoded stream, by code length
+     *
+     * @param freqTable    frequencies of the bytePatterns
+     * @param lengthsTable code length of each bytePattern
+     */
+    static void encoded(FrequencyTable freqTable, int[] lengthsTable) {
+        Metrics metrics = JOB_METRICS.get();
+        if (metrics == null) return;
+        long numSymbols = 0;
+        for (int i = 0; i < FrequencyTable.BYTE_PATTERNS_NUM; i++) {
+            int frequency = freqTable.get(i);
+            if (frequency == 0) continue;
+            metrics.symbolsByCodeLength[lengthsTable[i]].add(frequency);
+            numSymbols += frequency;
+        }
+        metrics.symbolsEncoded.add(numSymbols);
+    }
+
+
+    /**
+     * Count the symbols of an encoded stream whose frequencies are unknown, as with a codebook
+     */
+    static void encoded(long numSymbols) {
+        Metrics metrics = JOB_METRICS.get();
+        if (metrics != null) metrics.symbolsEncoded.add(numSymbols);
+    }
+
+
+    static void decoded(long numSymbols) {
+        Metrics metrics = JOB_METRICS.get();
+        if (metrics != null) metrics.symbolsDecoded.add(numSymbols);
+    }
+
+
+    /**
+     * Record the entries of an archive with their sizes
+     */
+    public static void entries(List<CentralDirectory.Entry> archiveEntries) {
+        Metrics metrics = JOB_METRICS.get();
+        boolean recording = ENTRY_EVENT.isEnabled();
+        if (metrics == null && !recording) return;
+        if (metrics != null) {
+            synchronized (metrics.entries) {
+                metrics.entries.addAll(archiveEntries);
+            }
+        }
+        if (!recording) return;
+        for (CentralDirectory.Entry entry : archiveEntries) {
+            EntryEvent event = new EntryEvent();
+            event.path = entry.path();
+            event.type = typeName(entry.type());
+            event.originalSize = entry.originalSize();
+            event.compressedSize = entry.compressedSize();
+            event.commit();
+        }
+    }
+
+
+    /**
+     * @return the stream, timing its reads as INPUT_READ when metrics are on
+     */
+    public static InputStream timed(InputStream in) {
+        if (JOB_METRICS.get() == null && !PHASE_EVENT.isEnabled()) return in;
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                long start = startIo();
+                int b = super.read();
+                stop(Phase.INPUT_READ, start, b == -1 ? 0 : 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long start = startIo();
+                int n = super.read(b, off, len);
+                stop(Phase.INPUT_READ, start, Math.max(n, 0));
+                return n;
+            }
+        };
+    }
+
+
+    /**
+     * @return the stream, timing its writes as OUTPUT_WRITE when metrics are on
+     */
+    public static OutputStream timed(OutputStream out) {
+        if (JOB_METRICS.get() == null && !PHASE_EVENT.isEnabled()) return out;
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                long start = startIo();
+                out.write(b);
+                stop(Phase.OUTPUT_WRITE, start, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long start = startIo();
+                out.write(b, off, len);
+                stop(Phase.OUTPUT_WRITE, start, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                long start = startIo();
+                out.flush();
+                stop(Phase.OUTPUT_WRITE, start, 0);
+            }
+        };
+    }
+
+
+    /**
+     * @param operation what was measured, such as compress or decompress
+     * @return the metrics collected since {@link #enable()}, as JSON
+     */
+    public String toJson(String operation) {
+        long wallNanos = System.nanoTime() - startNanos;
+        JsonWriter json = new JsonWriter();
+        json.beginObject();
+        json.name("operation").value(operation);
+        json.name("wallMs").value(wallNanos / 1e6);
+        long threadNanos = 0;
+        for (ThreadSpan span : threadSpans) {
+            threadNanos += span.last - span.first;
+        }
+        json.name("threadMs").value(threadNanos / 1e6);
+        long ioNanos = phaseNanos[Phase.INPUT_READ.ordinal()].sum() + phaseNanos[Phase.OUTPUT_WRITE.ordinal()].sum();
+        json.name("ioShare").value(threadNanos == 0 ? 0 : (double) ioNanos / threadNanos);
+
+        json.name("phases").beginObject();
+        for (Phase phase : Phase.values()) {
+            long calls = phaseCalls[phase.ordinal()].sum();
+            if (calls == 0) continue;
+            long nanos = phaseNanos[phase.ordinal()].sum();
+            long bytes = phaseBytes[phase.ordinal()].sum();
+            json.name(phase.getName()).beginObject();
+            json.name("calls").value(calls);
+            json.name("ms").value(nanos / 1e6);
+            if (bytes > 0) {
+                json.name("bytes").value(bytes);
+                json.name("mbPerSecond").value(nanos == 0 ? Double.NaN : bytes / (double) (1 << 20) / (nanos / 1e9));
+            }
+            json.endObject();
+        }
+        json.endObject();
+
+        writeSymbols(json, "encode", symbolsEncoded.sum(), phaseNanos[Phase.ENCODE.ordinal()].sum());
+        writeSymbols(json, "decode", symbolsDecoded.sum(), phaseNanos[Phase.DECODE.ordinal()].sum());
+        json.name("symbolsByCodeLength").beginObject();
+        for (int length = 1; length < symbolsByCodeLength.length; length++) {
+            long count = symbolsByCodeLength[length].sum();
+            if (count > 0) json.name(Integer.toString(length)).value(count);
+        }
+        json.endObject();
+
+        json.name("entries").beginArray();
+        synchronized (entries) {
+            for (CentralDirectory.Entry entry : entries) {
+                json.beginObject();
+                json.name("path").value(entry.path());
+                json.name("type").value(typeName(entry.type()));
+                json.name("originalBytes").value(entry.originalSize());
+                json.name("compressedBytes").value(entry.compressedSize());
+                json.endObject();
+            }
+        }
+        json.endArray();
+        json.endObject();
+        return json.toString();
+    }
+
+
+    private static void writeSymbols(JsonWriter json, String name, long numSymbols, long nanos) {
+        if (numSymbols == 0) return;
+        json.name(name + "Symbols").value(numSymbols);
+        json.name(name + "SymbolsPerSecond").value(nanos == 0 ? Double.NaN : numSymbols / (nanos / 1e9));
+    }
+
+
+    /**
+     * @return name of the block type of an entry
+     */
+    static String typeName(int type) {
+        return switch (type) {
+            case FileIO.SINGLE_FILE_MAGIC -> "file";
+            case FileIO.DIRECTORY_MAGIC -> "directory";
+            case FileIO.CHUNKED_FILE_MAGIC -> "chunked";
+            case FileIO.STREAMED_FILE_MAGIC -> "streamed";
+            case FileIO.SOLID_GROUP_MAGIC -> "solid";
+            case FileIO.CODEBOOK_FILE_MAGIC -> "codebook";
+            case FileIO.DUPLICATE_FILE_MAGIC -> "duplicate";
+            case FileIO.STORED_FILE_MAGIC -> "stored";
+            case FileIO.BLOCK_SORTED_FILE_MAGIC -> "blocksorted";
+            default -> "unknown";
+        };
+    }
+
+
+    private static LongAdder[] newAdders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+
+    /**
+     * first phase start and last phase end of a thread, only written by that thread
+     */
+    private static final class ThreadSpan {
+        long first;
+        long last;
+    }
+
+
+    @Name("huffman.Phase")
+    @Label("Huffman Phase")
+    @Category("Huffman")
+    @Description("A timed phase of compression or decompression")
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+
+    @Name("huffman.Entry")
+    @Label("Huffman Entry")
+    @Category("Huffman")
+    @Description("An entry of an archive with its sizes")
+    static final class EntryEvent extends Event {
+        @Label("Path")
+        String path;
+        @Label("Type")
+        String type;
+        @Label("Original Size")
+        @DataAmount
+        long originalSize;
+        @Label("Compressed Size")
+        @DataAmount
+        long compressedSize;
+    }
+
+}
@@ -0,0 +1,13 @@
+package FileProcess;
+
+
+/**
+ * Thrown when the magic numbers at the start of a file are not the ones of an archive
+ */
+public class NotAnArchiveException extends ArchiveException {
+    private static final long serialVersionUID = 1L;
+
+    public NotAnArchiveException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,140 @@
+package FileProcess;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * A decoded file, written in bulk with {@link FileChannel#write} rather than byte by byte through a stream
+ * <p>
+ * When its original size is known from the central directory, the file is given that length before the first
+ * write, so the file system lays it out at once. When asked to be mapped, such a file of at least
+ * {@link #MIN_MAPPED_SIZE} is written through a memory map instead. A file that decodes past that size is an
+ * {@link ArchiveException}.
+ */
+final class OutputFile extends OutputStream {
+    /**
+     * Smallest file written through a memory map, a mapping costs more than it saves on small files
+     */
+    static final long MIN_MAPPED_SIZE = 1 << 20;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private final FileChannel channel;
+    /**
+     * original size, -1 if unknown
+     */
+    private final long size;
+    /**
+     * the whole file if mapped, else null
+     */
+    private final MappedByteBuffer map;
+    /**
+     * small writes gathered for the channel, null if mapped
+     */
+    private final ByteBuffer buffer;
+    private long written;
+
+    /**
+     * @param size original size of the file, -1 if unknown
+     */
+    private OutputFile(File file, long size, boolean mapped) throws IOException {
+        this.file = file;
+        this.size = size;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(Math.max(size, 0));
+            channel = raf.getChannel();
+            if (mapped && size >= MIN_MAPPED_SIZE && size <= Integer.MAX_VALUE) {
+                map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer = null;
+            } else {
+                map = null;
+                buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        written = 0;
+    }
+
+    /**
+     * Create or replace a file for decoded bytes
+     *
+     * @param size original size of the file, -1 if unknown
+     */
+    static OutputStream open(File file, long size) throws IOException {
+        return open(file, size, false);
+    }
+
+
+    /**
+     * Create or replace a file for decoded bytes
+     *
+     * @param size   original size of the file, -1 if unknown
+     * @param mapped whether a file of a known size of at least {@link #MIN_MAPPED_SIZE} is written through a memory map
+     */
+    static OutputStream open(File file, long size, boolean mapped) throws IOException {
+        return Metrics.timed(new OutputFile(file, size, mapped));
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+        reserve(1);
+        if (map != null) {
+            map.put((byte) b);
+            return;
+        }
+        if (!buffer.hasRemaining()) flushBuffer();
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        reserve(len);
+        if (map != null) {
+            map.put(b, off, len);
+        } else if (len >= buffer.capacity()) {
+            flushBuffer();
+            writeFully(ByteBuffer.wrap(b, off, len));
+        } else {
+            if (len > buffer.remaining()) flushBuffer();
+            buffer.put(b, off, len);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            if (buffer != null) flushBuffer();
+        }
+    }
+
+
+    private void reserve(int len) throws IOException {
+        if (size >= 0 && written + len > size) {
+            throw new ArchiveException(file + " decodes past its size in the central directory");
+        }
+        written += len;
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+}
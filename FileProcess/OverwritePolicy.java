@@ -0,0 +1,37 @@
+package FileProcess;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+
+
+/**
+ * What to do with a file or directory that is already where an archive or an extracted entry goes
+ * <p>
+ * A skipped file is left as it is. A skipped directory is not created again, the entries in it
+ * are still extracted, each asking the policy for itself.
+ */
+@FunctionalInterface
+public interface OverwritePolicy {
+    /**
+     * Replace every existing file
+     */
+    OverwritePolicy OVERWRITE = existing -> true;
+    /**
+     * Keep every existing file, the entry is not extracted
+     */
+    OverwritePolicy SKIP = existing -> false;
+    /**
+     * Stop at the first existing file, with a {@link FileAlreadyExistsException}
+     */
+    OverwritePolicy FAIL = existing -> {
+        throw new FileAlreadyExistsException(existing.toString());
+    };
+
+    /**
+     * @param existing the file or directory that already exists
+     * @return true to overwrite it, false to skip the entry
+     * @throws IOException to stop, such as a {@link FileAlreadyExistsException}
+     */
+    boolean overwrite(Path existing) throws IOException;
+}
@@ -1,42 +1,72 @@
 package FileProcess;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Scanner;
 
-public class OverwriteProtector {
+/**
+ * Overwrite policy of the command line, asking on the console before overwriting
+ */
+public class OverwriteProtector implements OverwritePolicy {
+    private final Scanner scanner;
+    private final PrintStream out;
     private boolean overwriteAll;
 
     public OverwriteProtector() {
+        this(System.in, System.out);
+    }
+
+    /**
+     * @param in  where the answers are read
+     * @param out where the questions are printed
+     */
+    public OverwriteProtector(InputStream in, PrintStream out) {
+        scanner = new Scanner(in);
+        this.out = out;
         overwriteAll = false;
     }
 
-    public void askUser(File f) {
+    /**
+     * @throws FileAlreadyExistsException if the user answers not to overwrite, which stops the program
+     */
+    @Override
+    public boolean overwrite(Path f) throws IOException {
         if(overwriteAll){
-            return;
+            return true;
         }
-        Scanner scanner = new Scanner(System.in);
         String fileClass;
-        if (f.isDirectory()) {
+        if (Files.isDirectory(f)) {
             fileClass = "Directory: ";
         } else {
             fileClass = "File: ";
         }
-        System.out.println(fileClass + f + " already exists.");
-        System.out.println("Do you want to overwrite it? (y/n)  Overwrite All files? (a)");
-        String input = scanner.nextLine();
+        out.println(fileClass + f + " already exists.");
+        out.println("Do you want to overwrite it? (y/n)  Overwrite All files? (a)");
+        String input = nextAnswer();
 
         while (!input.equalsIgnoreCase("y") && !input.equalsIgnoreCase("n") && !input.equalsIgnoreCase("a")) {
-            System.out.println("Invalid input. 'y' to overwrite, 'n' to terminate, 'a' to overwrite all");
-            input = scanner.nextLine();
+            out.println("Invalid input. 'y' to overwrite, 'n' to terminate, 'a' to overwrite all");
+            input = nextAnswer();
         }
 
         if(input.equalsIgnoreCase("a")){
             overwriteAll = true;
         }
         if (input.equalsIgnoreCase("n")) {
-            System.out.println("Program terminated.");
-            System.exit(0);
+            throw new FileAlreadyExistsException(f.toString(), null, "not overwritten");
         }
+        return true;
+    }
+
+    /**
+     * @return the next answer, "n" at the end of the input, as nobody is there to answer
+     */
+    private String nextAnswer() {
+        return scanner.hasNextLine() ? scanner.nextLine() : "n";
     }
 
 }
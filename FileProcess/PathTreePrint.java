@@ -1,5 +1,6 @@
 package FileProcess;
 
+import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,21 +16,31 @@ public class PathTreePrint {
      * @param paths List of paths
      */
     public static void printTree(List<String> paths) {
+        printTree(paths, System.out);
+    }
+
+    /**
+     * Print out all paths in tree style
+     *
+     * @param paths List of paths
+     * @param out   where to print
+     */
+    public static void printTree(List<String> paths, PrintStream out) {
         PathTreePrint ptt = new PathTreePrint();
         PathTreePrint.fileNode rootNode = ptt.buildTree(paths);
-        System.out.print("File Structure:");
-        ptt.printTreeHelper(rootNode, "", true);
+        out.print("File Structure:");
+        ptt.printTreeHelper(rootNode, "", true, out);
     }
 
-    private void printTreeHelper(fileNode fileNode, String prefix, boolean isRoot) {
-        System.out.println(prefix + fileNode.name);
+    private void printTreeHelper(fileNode fileNode, String prefix, boolean isRoot, PrintStream out) {
+        out.println(prefix + fileNode.name);
         if (isRoot) {
             for (fileNode child : fileNode.subPaths.values()) {
-                printTreeHelper(child, prefix, false);
+                printTreeHelper(child, prefix, false, out);
             }
         } else {
             for (fileNode child : fileNode.subPaths.values()) {
-                printTreeHelper(child, prefix + "│---", false);
+                printTreeHelper(child, prefix + "│---", false, out);
             }
         }
     }
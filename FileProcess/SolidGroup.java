@@ -0,0 +1,145 @@
+package FileProcess;
+
+import BitwiseStream.BitInputStream;
+import BitwiseStream.BitWriter;
+import Huffman.TreeCanonization;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+
+/**
+ * Solid mode for small files: a group of files shares one code, built from the frequencies
+ * of all of them, so the lengthsTable is paid once per group instead of once per file.
+ * <p>
+ * Each member is coded on its own, byte-aligned and ending with the EOF symbol, and its length
+ * is recorded, so a reader can skip members without decoding them.
+ * <p>
+ * SolidGroupBlock: SOLID_GROUP_MAGIC--numMembers(4 bytes)--MaxCodeLength--CanonicalCodeTable--members
+ * <p>
+ * member: StringOfPath--STRING_END_SIGN--memberLength(4 bytes)--encodedBits(ending with special EOF)
+ * <p>
+ * In the central directory, every member has an entry of type SOLID_GROUP_MAGIC with the offset of
+ * its group. The sizes of the members add up to the size of the block, the first member pays for the table.
+ */
+public final class SolidGroup {
+    private SolidGroup() {
+    }
+
+
+    /**
+     * Where the members of a group are decoded to
+     */
+    @FunctionalInterface
+    interface MemberSink {
+        /**
+         * @param path relative path of the member
+         * @return stream for the decoded member, closed when the member is done, or null to skip the member
+         */
+        OutputStream open(String path) throws IOException;
+    }
+
+
+    /**
+     * Encode a group of small files into a SolidGroupBlock, reading each file once
+     *
+     * @param root        the root path of source file(s)
+     * @param members     the files of the group, in archive order
+     * @param memberSizes output, the share of each member in the block
+     * @param checksums   output, the CRC32C of each member
+     */
+    static byte[] encode(File root, List<File> members, int maxCodeLength, long[] memberSizes, long[] checksums) throws IOException {
+        byte[][] contents = new byte[members.size()][];
+        FrequencyTable freqTable = new FrequencyTable();
+        int totalSize = 0;
+        for (int i = 0; i < members.size(); i++) {
+            long start = Metrics.start();
+            contents[i] = Files.readAllBytes(members.get(i).toPath());
+            Metrics.stop(Metrics.Phase.INPUT_READ, start, contents[i].length);
+            CRC32C checksum = new CRC32C();
+            checksum.update(contents[i]);
+            checksums[i] = checksum.getValue();
+            start = Metrics.start();
+            freqTable.increment(contents[i], 0, contents[i].length);
+            freqTable.increment(256);  // every member ends with an EOF symbol
+            Metrics.stop(Metrics.Phase.FREQUENCY_COUNT, start, contents[i].length);
+            totalSize += contents[i].length;
+        }
+        long start = Metrics.start();
+        TreeCanonization canonCode = new TreeCanonization(freqTable, maxCodeLength);
+        Metrics.stop(Metrics.Phase.TREE_BUILD, start, 0);
+        start = Metrics.start();
+        int[] codes = canonCode.getCodes();
+        byte[] codeLengths = canonCode.getCodeLengths();
+        Metrics.stop(Metrics.Phase.CANONICALIZATION, start, 0);
+        Metrics.encoded(freqTable, canonCode.getLengthsTable());
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(ChunkedFile.CHUNK_HEADER_SIZE + totalSize + totalSize / 8);
+        block.write(FileIO.SOLID_GROUP_MAGIC);
+        FileIO.writeInt(block, members.size());
+        block.write(maxCodeLength);
+        Compression.writeLengthsTable(block, canonCode.getLengthsTable());
+        memberSizes[0] = block.size();
+
+        ByteArrayOutputStream bits = new ByteArrayOutputStream();
+        BitWriter out = new BitWriter(bits);
+        Encoder enc = new Encoder(out, codes, codeLengths);
+        for (int i = 0; i < members.size(); i++) {
+            start = Metrics.start();
+            enc.write(contents[i], 0, contents[i].length);
+            enc.write(256);  // EOF
+            out.close();
+            Metrics.stop(Metrics.Phase.ENCODE, start, contents[i].length);
+            contents[i] = null;
+
+            int memberStart = block.size();
+            FileIO.writeString(block, FileIO.getRelativePathStr(root, members.get(i)));
+            FileIO.writeInt(block, bits.size());
+            bits.writeTo(block);
+            bits.reset();
+            memberSizes[i] += block.size() - memberStart;
+        }
+        return block.toByteArray();
+    }
+
+
+    /**
+     * Read the rest of a SolidGroupBlock after the magic number, and decode its members
+     *
+     * @param in      byteWise input stream, positioned after the magic number
+     * @param version format version of the archive
+     * @param sink    gives the stream of each member to decode
+     * @return number of decoded members
+     */
+    static int decompress(InputStream in, int version, MemberSink sink) throws IOException {
+        int numMembers = FileIO.readInt(in);
+        if (numMembers < 0) throw new ArchiveException("Invalid solid group header");
+        int maxCodeLength = in.read();
+        int[] lengthsTable = Decompression.readLengthsTable(in, version);
+        long start = Metrics.start();
+        TableDecoder code = TableDecoder.tables(lengthsTable, maxCodeLength);
+        Metrics.stop(Metrics.Phase.CANONICALIZATION, start, 0);
+
+        int numDecoded = 0;
+        for (int i = 0; i < numMembers; i++) {
+            String path = FileIO.readString(in);
+            int length = FileIO.readInt(in);
+            if (length < 0) throw new ArchiveException("Invalid member length");
+            OutputStream os = sink.open(path);
+            if (os == null) {
+                in.skipNBytes(length);
+                continue;
+            }
+            byte[] member = in.readNBytes(length);
+            if (member.length != length) throw new EOFException("Truncated solid group");
+            try (os) {
+                Decompression.writeDecodedBytes(new TableDecoder(code, new BitInputStream(member, 0, length)), os);
+            }
+            numDecoded++;
+        }
+        return numDecoded;
+    }
+
+}
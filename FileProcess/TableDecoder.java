@@ -0,0 +1,237 @@
+package FileProcess;
+
+import BitwiseStream.BitInputStream;
+
+import java.io.IOException;
+import java.util.Objects;
+
+
+/**
+ * Reads from a Huffman-coded bit stream and decodes
+ * <p>
+ * Use lookup tables built from the canonical lengthsTable, so that a whole symbol is
+ * decoded from one peeked window instead of walking the tree bit by bit.
+ * <p>
+ * The root table is indexed by the next {@code ROOT_BITS} bits. Codes longer than that
+ * share a root entry pointing to a second-level table indexed by the following bits.
+ * Codes too long even for a second-level table are decoded bit by bit from the
+ * canonical counts. When the maximum code length of the block is at most
+ * {@code MAX_ROOT_BITS}, the root table alone covers every code.
+ * {@link Decoder} does the same job with the tree form.
+ */
+public final class TableDecoder {
+    /**
+     * Width of the window looked up in the root table
+     */
+    static final int ROOT_BITS = 11;
+    /**
+     * Widest root table, used when the maximum code length fits in it
+     */
+    static final int MAX_ROOT_BITS = 12;
+    /**
+     * Largest width of a second-level table
+     */
+    static final int MAX_SUB_BITS = 8;
+
+    // entry layout: symbol (or sub table offset) << 8 | flags | code length (or sub table bits)
+    private static final int LENGTH_MASK = 0x3F;
+    private static final int SUB_TABLE = 0x40;
+    private static final int SLOW = 0x80;
+    private static final int INVALID = 0;
+
+    private final BitInputStream input;
+    private final int rootBits;
+    /**
+     * root table followed by all second-level tables
+     */
+    private final int[] table;
+    /**
+     * number of codes of each length, for the bit by bit path
+     */
+    private final int[] lengthCounts;
+    /**
+     * symbols sorted by code length, then by value, for the bit by bit path
+     */
+    private final int[] sortedSymbols;
+
+    /**
+     * Constructs a table decoder based on the specified bit input stream.
+     *
+     * @param in            the bit input stream to read from
+     * @param lengthsTable  canonical code length of each bytePattern, 0 means no code
+     * @param maxCodeLength the maximum code length recorded for the block
+     * @throws NullPointerException     if the input stream is {@code null}
+     * @throws IllegalArgumentException if the lengths do not describe a prefix code within the maximum
+     */
+    public TableDecoder(BitInputStream in, int[] lengthsTable, int maxCodeLength) {
+        this(lengthsTable, maxCodeLength, Objects.requireNonNull(in));
+    }
+
+    /**
+     * Builds the decoding tables of a code with no input stream, to share them between the decoders
+     * made by {@link #TableDecoder(TableDecoder, BitInputStream)}; it cannot read by itself.
+     *
+     * @param lengthsTable  canonical code length of each bytePattern, 0 means no code
+     * @param maxCodeLength the maximum code length recorded for the block
+     * @throws IllegalArgumentException if the lengths do not describe a prefix code within the maximum
+     */
+    public static TableDecoder tables(int[] lengthsTable, int maxCodeLength) {
+        return new TableDecoder(lengthsTable, maxCodeLength, null);
+    }
+
+    private TableDecoder(int[] lengthsTable, int maxCodeLength, BitInputStream in) {
+        input = in;
+        Objects.requireNonNull(lengthsTable);
+        if (maxCodeLength <= 0 || maxCodeLength > BitInputStream.MAX_PEEK_BITS)
+            throw new IllegalArgumentException("Maximum code length out of range");
+
+        int maxLength = 0;
+        for (int length : lengthsTable) {
+            if (length < 0 || length > maxCodeLength)
+                throw new IllegalArgumentException("Code length out of range");
+            maxLength = Math.max(maxLength, length);
+        }
+        if (maxLength == 0) throw new IllegalArgumentException("No symbol has a code");
+        rootBits = Math.min(maxLength, maxCodeLength <= MAX_ROOT_BITS ? maxCodeLength : ROOT_BITS);
+
+        lengthCounts = new int[maxLength + 1];
+        for (int length : lengthsTable) lengthCounts[length]++;
+        lengthCounts[0] = 0;
+
+        // canonical codes: shorter codes first, same length in symbol order
+        long[] nextCode = new long[maxLength + 1];
+        int[] nextIndex = new int[maxLength + 1];
+        long code = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            nextCode[length] = code;
+            nextIndex[length] = nextIndex[length - 1] + lengthCounts[length - 1];
+            if (code + lengthCounts[length] > 1L << length)
+                throw new IllegalArgumentException("Code lengths over-subscribed");
+        }
+
+        sortedSymbols = new int[nextIndex[maxLength] + lengthCounts[maxLength]];
+        long[] codes = new long[lengthsTable.length];
+        // the longest code behind each root entry
+        int[] longest = new int[1 << rootBits];
+        for (int symbol = 0; symbol < lengthsTable.length; symbol++) {
+            int length = lengthsTable[symbol];
+            if (length == 0) continue;
+            codes[symbol] = nextCode[length]++;
+            sortedSymbols[nextIndex[length]++] = symbol;
+            if (length > rootBits) {
+                int prefix = (int) (codes[symbol] >>> (length - rootBits));
+                longest[prefix] = Math.max(longest[prefix], length);
+            }
+        }
+
+        // lay out the second-level tables behind the root table
+        int tableSize = 1 << rootBits;
+        int[] root = new int[1 << rootBits];
+        for (int prefix = 0; prefix < root.length; prefix++) {
+            int subBits = longest[prefix] - rootBits;
+            if (longest[prefix] == 0) continue;
+            if (subBits > MAX_SUB_BITS) {
+                root[prefix] = SLOW;
+            } else {
+                root[prefix] = (tableSize << 8) | SUB_TABLE | subBits;
+                tableSize += 1 << subBits;
+            }
+        }
+        table = new int[tableSize];
+        System.arraycopy(root, 0, table, 0, root.length);
+
+        for (int symbol = 0; symbol < lengthsTable.length; symbol++) {
+            int length = lengthsTable[symbol];
+            if (length == 0) continue;
+            int entry = (symbol << 8) | length;
+            if (length <= rootBits) {
+                int first = (int) (codes[symbol] << (rootBits - length));
+                fill(first, 1 << (rootBits - length), entry);
+            } else {
+                int link = table[(int) (codes[symbol] >>> (length - rootBits))];
+                if (link == SLOW) continue;
+                int subBits = link & LENGTH_MASK;
+                int rest = length - rootBits;
+                int low = (int) (codes[symbol] & ((1L << rest) - 1));
+                fill((link >>> 8) + (low << (subBits - rest)), 1 << (subBits - rest), entry);
+            }
+        }
+    }
+
+    /**
+     * Constructs a table decoder with the code of another one, reading a different bit input stream.
+     * <p>
+     * The tables are only read after construction, so they are shared instead of built again.
+     *
+     * @param code the decoder whose tables are used
+     * @param in   the bit input stream to read from
+     */
+    public TableDecoder(TableDecoder code, BitInputStream in) {
+        input = Objects.requireNonNull(in);
+        rootBits = code.rootBits;
+        table = code.table;
+        lengthCounts = code.lengthCounts;
+        sortedSymbols = code.sortedSymbols;
+    }
+
+    /**
+     * Reads from the input stream to decode the next Huffman-coded symbol.
+     *
+     * @return the next symbol in the stream, which is non-negative
+     */
+    public int read() throws IOException {
+        int entry = table[(int) input.peekBits(rootBits)];
+        if ((entry & SUB_TABLE) != 0) {
+            int subBits = entry & LENGTH_MASK;
+            int index = (int) input.peekBits(rootBits + subBits) & ((1 << subBits) - 1);
+            entry = table[(entry >>> 8) + index];
+        } else if (entry == SLOW) {
+            return readSlow();
+        }
+        if (entry == INVALID) throw new ArchiveException("Invalid Huffman code in input");
+        input.consumeBits(entry & LENGTH_MASK);
+        return entry >>> 8;
+    }
+
+    /**
+     * Decodes symbols into {@code b} until {@code len} bytes are decoded or the EOF symbol is read,
+     * so a whole buffer is filled without a call per symbol to the consumer.
+     *
+     * @return number of bytes decoded, fewer than {@code len} only if the EOF symbol was read, which is not stored
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int i = off;
+        while (i < end) {
+            int symbol = read();
+            if (symbol == 256)  // EOF symbol
+                break;
+            b[i++] = (byte) symbol;
+        }
+        return i - off;
+    }
+
+    /**
+     * Decode one symbol bit by bit, comparing against the first canonical code of each length
+     */
+    private int readSlow() throws IOException {
+        long code = 0;
+        long first = 0;
+        int index = 0;
+        for (int length = 1; length < lengthCounts.length; length++) {
+            code |= input.read();
+            int count = lengthCounts[length];
+            if (code - first < count) return sortedSymbols[index + (int) (code - first)];
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+        throw new ArchiveException("Invalid Huffman code in input");
+    }
+
+    private void fill(int from, int count, int entry) {
+        for (int i = from; i < from + count; i++) table[i] = entry;
+    }
+
+}
@@ -0,0 +1,21 @@
+package FileProcess;
+
+
+/**
+ * Thrown when an archive has a format version this reader does not know, newer than
+ * {@link FileIO#FORMAT_VERSION} or older than {@link FileIO#MIN_FORMAT_VERSION}
+ */
+public class UnsupportedVersionException extends ArchiveException {
+    private static final long serialVersionUID = 1L;
+
+    private final int version;
+
+    public UnsupportedVersionException(int version) {
+        super("Archive format version " + version + " NOT supported");
+        this.version = version;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,195 @@
+package Huffman;
+
+import FileProcess.FrequencyTable;
+
+import java.util.Arrays;
+
+
+/**
+ * Computes Huffman code lengths on primitive arrays, without building a tree.
+ * <p>
+ * Gives lengths as good as {@link HuffmanTree}, ties may be broken differently.
+ * Codes longer than a given maximum are avoided with the package-merge algorithm.
+ */
+public final class CodeLengths {
+    /**
+     * Longest code length an archive may use, the encoder keeps codes in an int
+     */
+    public static final int MAX_CODE_LENGTH = 32;
+    /**
+     * Smallest maximum that always fits all 257 bytePatterns
+     */
+    public static final int MIN_CODE_LENGTH_LIMIT = 9;
+
+    /**
+     * bytePatterns are packed below the frequency when sorting
+     */
+    private static final int SYMBOL_BITS = 9;
+    private static final long SYMBOL_MASK = (1L << SYMBOL_BITS) - 1;
+
+    private CodeLengths() {
+    }
+
+
+    /**
+     * Compute the code length of each bytePattern, no longer than {@code MAX_CODE_LENGTH}
+     *
+     * @return lengthsTable, 0 means no code for the bytePattern
+     */
+    public static int[] compute(FrequencyTable frequencyTable) {
+        return compute(frequencyTable, MAX_CODE_LENGTH);
+    }
+
+
+    /**
+     * Compute the code length of each bytePattern
+     * <p>
+     * bytePatterns with frequency 0 get no code, unless fewer than two patterns are used.
+     *
+     * @param maxLength longest code length allowed, in [MIN_CODE_LENGTH_LIMIT, MAX_CODE_LENGTH]
+     * @return lengthsTable, 0 means no code for the bytePattern
+     */
+    public static int[] compute(FrequencyTable frequencyTable, int maxLength) {
+        if (maxLength < MIN_CODE_LENGTH_LIMIT || maxLength > MAX_CODE_LENGTH)
+            throw new IllegalArgumentException("Maximum code length out of range");
+
+        // sort used bytePatterns by ascending frequency
+        long[] weights = new long[FrequencyTable.BYTE_PATTERNS_NUM];
+        int n = 0;
+        for (int i = 0; i < FrequencyTable.BYTE_PATTERNS_NUM; i++) {
+            int frequency = frequencyTable.get(i);
+            if (frequency > 0) weights[n++] = ((long) frequency << SYMBOL_BITS) | i;
+        }
+        // To avoid empty file conner case add patterns, until the code has two leaves
+        for (int i = 0; i < FrequencyTable.BYTE_PATTERNS_NUM && n < 2; i++) {
+            if (frequencyTable.get(i) == 0) weights[n++] = i;
+        }
+        Arrays.sort(weights, 0, n);
+
+        int[] symbols = new int[n];
+        for (int k = 0; k < n; k++) {
+            symbols[k] = (int) (weights[k] & SYMBOL_MASK);
+            weights[k] >>>= SYMBOL_BITS;
+        }
+
+        long[] lengths = Arrays.copyOf(weights, n);
+        minimumRedundancy(lengths, n);
+        // the lightest pattern has the longest code
+        if (lengths[0] > maxLength) packageMerge(weights, n, maxLength, lengths);
+
+        int[] lengthsTable = new int[FrequencyTable.BYTE_PATTERNS_NUM];
+        for (int k = 0; k < n; k++)
+            lengthsTable[symbols[k]] = (int) lengths[k];
+        return lengthsTable;
+    }
+
+
+    /**
+     * Optimal code lengths no longer than {@code maxLength} (Larmore and Hirschberg, 1990).
+     * <p>
+     * Each level holds the leaves merged with packages of two items of the level below.
+     * The first 2n-2 items of the top level are chosen, a chosen package chooses the first
+     * two items it was made of on the level below, and so on down. The code length of a leaf
+     * is the number of levels it was chosen on. Chosen leaves are always the lightest ones,
+     * so only their count on each level is needed.
+     *
+     * @param weights {@code weights[0, n)} in ascending order
+     * @param lengths output, the code length of each weight
+     */
+    private static void packageMerge(long[] weights, int n, int maxLength, long[] lengths) {
+        // isLeaf[level][i]: whether the i-th item of the level is a leaf, level 0 is the top
+        boolean[][] isLeaf = new boolean[maxLength][2 * n];
+        long[] below = new long[2 * n];
+        long[] current = new long[2 * n];
+        int belowSize = n;
+        System.arraycopy(weights, 0, below, 0, n);
+        Arrays.fill(isLeaf[maxLength - 1], 0, n, true);
+
+        for (int level = maxLength - 2; level >= 0; level--) {
+            int numPackages = belowSize / 2;
+            int leaf = 0;
+            int pack = 0;
+            int size = 0;
+            while (leaf < n || pack < numPackages) {
+                long packageWeight = pack < numPackages ? below[2 * pack] + below[2 * pack + 1] : Long.MAX_VALUE;
+                if (leaf < n && weights[leaf] <= packageWeight) {
+                    isLeaf[level][size] = true;
+                    current[size++] = weights[leaf++];
+                } else {
+                    current[size++] = packageWeight;
+                    pack++;
+                }
+            }
+            long[] swap = below;
+            below = current;
+            current = swap;
+            belowSize = size;
+        }
+
+        Arrays.fill(lengths, 0, n, 0);
+        int chosen = 2 * n - 2;
+        for (int level = 0; level < maxLength; level++) {
+            int numLeaves = 0;
+            for (int i = 0; i < chosen; i++) {
+                if (isLeaf[level][i]) lengths[numLeaves++]++;
+            }
+            chosen = 2 * (chosen - numLeaves);
+        }
+    }
+
+
+    /**
+     * In-place computation of minimum-redundancy codes (Moffat and Katajainen, 1995).
+     * <p>
+     * On input {@code a[0, n)} holds the weights in ascending order, on output the code lengths.
+     * The first pass pairs nodes and keeps parent pointers in the array,
+     * the second one turns them into depths of internal nodes, the last one into depths of leaves.
+     *
+     * @param n at least 2
+     */
+    private static void minimumRedundancy(long[] a, int n) {
+        a[0] += a[1];
+        int root = 0;
+        int leaf = 2;
+        for (int next = 1; next < n - 1; next++) {
+            // first item of the pair
+            if (leaf >= n || a[root] < a[leaf]) {
+                a[next] = a[root];
+                a[root++] = next;
+            } else {
+                a[next] = a[leaf++];
+            }
+            // second item of the pair
+            if (leaf >= n || (root < next && a[root] < a[leaf])) {
+                a[next] += a[root];
+                a[root++] = next;
+            } else {
+                a[next] += a[leaf++];
+            }
+        }
+
+        a[n - 2] = 0;
+        for (int next = n - 3; next >= 0; next--)
+            a[next] = a[(int) a[next]] + 1;
+
+        int available = 1;
+        int used = 0;
+        int depth = 0;
+        root = n - 2;
+        int next = n - 1;
+        while (available > 0) {
+            while (root >= 0 && a[root] == depth) {
+                used++;
+                root--;
+            }
+            while (available > used) {
+                a[next--] = depth;
+                available--;
+            }
+            available = 2 * used;
+            depth++;
+            used = 0;
+        }
+    }
+
+}
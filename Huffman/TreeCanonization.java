@@ -28,6 +28,19 @@ public final class TreeCanonization {
         this.lengthsTable = lengthsTable;
     }
 
+    /**
+     * Builds a canonical Huffman code straight from the frequencies, without a code tree.
+     * <p>
+     * This constructor is for Encode
+     *
+     * @param frequencyTable frequencies of the bytePatterns
+     * @param maxLength      longest code length allowed
+     */
+    public TreeCanonization(FrequencyTable frequencyTable, int maxLength) {
+        Objects.requireNonNull(frequencyTable);
+        lengthsTable = CodeLengths.compute(frequencyTable, maxLength);
+    }
+
     /**
      * Builds a canonical Huffman code from the specified code tree.
      *
@@ -85,6 +98,57 @@ public final class TreeCanonization {
     }
 
 
+    /**
+     * @return the longest code length in this canonical code
+     */
+    public int getMaxLength() {
+        return getMaxItemInIntArray(lengthsTable);
+    }
+
+
+    /**
+     * @return the code lengths as a byte array, for the encoder
+     */
+    public byte[] getCodeLengths() {
+        byte[] lengths = new byte[lengthsTable.length];
+        for (int i = 0; i < lengthsTable.length; i++)
+            lengths[i] = (byte) lengthsTable[i];
+        return lengths;
+    }
+
+
+    /**
+     * Assign the canonical codes straight from the lengthsTable.
+     * <p>
+     * Shorter codes come first, codes of the same length are given in bytePattern order.
+     * Gives the same codes as the tree from {@link #getHuffmanTree()}.
+     *
+     * @return the code of each bytePattern, right aligned
+     * @throws IllegalStateException if a code is longer than 32 bits
+     */
+    public int[] getCodes() {
+        int maxLength = getMaxLength();
+        if (maxLength > Integer.SIZE) throw new IllegalStateException("Code length exceeds 32 bits");
+        int[] lengthCounts = new int[maxLength + 1];
+        for (int length : lengthsTable)
+            lengthCounts[length]++;
+        lengthCounts[0] = 0;
+
+        long[] nextCode = new long[maxLength + 1];
+        long code = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            nextCode[length] = code;
+        }
+
+        int[] codes = new int[lengthsTable.length];
+        for (int i = 0; i < lengthsTable.length; i++) {
+            if (lengthsTable[i] != 0) codes[i] = (int) nextCode[lengthsTable[i]]++;
+        }
+        return codes;
+    }
+
+
     /**
      * Build a canonical Huffman with frequencyTable
      * <p>
@@ -0,0 +1,193 @@
+import Daemon.JobClient;
+import Daemon.Terminal;
+import FileProcess.BatchCompressor;
+import FileProcess.CompressionOptions;
+import FileProcess.FileIO;
+import FileProcess.OverwritePolicy;
+import FileProcess.StopWatch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Class for command line interface of batch compression
+ * <p>
+ * Usage: java batch [options] Manifest
+ * <p>
+ * Options: --io N, --cpu N, --threads N, --max-code-length N, --max-buffer-mb N, --solid N, --dedup, --overwrite
+ * <p>
+ * Each line of the manifest is a source and its archive, separated by a tab, or only a source, archived next to it
+ * as cf would. Blank lines and lines starting with # are skipped, and Manifest "-" reads stdin. All archives are
+ * written in one JVM, see {@code BatchCompressor}; a line is printed as each one ends, and a failed archive does
+ * not stop the others.
+ */
+public final class batch {
+    /**
+     * Manifest for stdin
+     */
+    private static final String STANDARD_STREAM = "-";
+
+    // Command line main application function, run by the daemon if one listens.
+    public static void main(String[] args) throws IOException {
+        int status = JobClient.tryRun("batch", args);
+        if (status == -1) status = run(args, Terminal.system());
+        System.exit(status);
+    }
+
+
+    /**
+     * Run batch with the streams and working directory of a terminal
+     *
+     * @return exit status, 1 if any archive failed
+     */
+    public static int run(String[] args, Terminal terminal) throws IOException {
+        StopWatch stopWatch = new StopWatch();
+        CompressionOptions options = new CompressionOptions();
+        int ioLimit = 16;
+        int cpuLimit = Runtime.getRuntime().availableProcessors();
+        OverwritePolicy policy = OverwritePolicy.FAIL;
+        List<String> paths = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--io" -> ioLimit = intArgument(args, ++i);
+                    case "--cpu" -> cpuLimit = intArgument(args, ++i);
+                    case "--threads" -> options.threads(intArgument(args, ++i));
+                    case "--max-code-length" -> options.maxCodeLength(intArgument(args, ++i));
+                    case "--max-buffer-mb" -> options.maxBufferedBytes((long) intArgument(args, ++i) << 20);
+                    case "--solid" -> options.solidGroupSize(Math.multiplyExact(intArgument(args, ++i), 1 << 10));
+                    case "--dedup" -> options.dedup(true);
+                    case "--bwt" -> options.blockSortSize(Math.multiplyExact(intArgument(args, ++i), 1 << 10));
+                    case "--overwrite" -> policy = OverwritePolicy.OVERWRITE;
+                    default -> paths.add(args[i]);
+                }
+            }
+            if (paths.size() != 1) throw new IllegalArgumentException("Expected one manifest");
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            terminal.getErr().println(e.getMessage());
+            printUsage(terminal.getErr());
+            return 1;
+        }
+
+        List<BatchCompressor.Job> jobs;
+        try {
+            jobs = readManifest(paths.get(0), terminal);
+        } catch (NoSuchFileException e) {
+            terminal.getErr().println("ERROR: " + e.getFile() + " does not exist");
+            return 1;
+        } catch (IOException e) {
+            terminal.getErr().println("ERROR: " + e.getMessage());
+            return 1;
+        }
+
+        BatchCompressor compressor;
+        try {
+            compressor = new BatchCompressor(options, ioLimit, cpuLimit, policy);
+        } catch (IllegalArgumentException e) {
+            terminal.getErr().println(e.getMessage());
+            printUsage(terminal.getErr());
+            return 1;
+        }
+        PrintStream out = terminal.getOut();
+        List<BatchCompressor.Result> results = compressor.run(jobs, result -> out.println(describe(result)));
+
+        long originalSize = 0;
+        long archiveSize = 0;
+        int numFailed = 0;
+        for (BatchCompressor.Result result : results) {
+            if (!result.isSuccess()) numFailed++;
+            originalSize += result.originalSize();
+            archiveSize += result.archiveSize();
+        }
+        out.println("Batch finished: " + (results.size() - numFailed) + " archives written, " + numFailed + " failed");
+        out.println("Time Usage:      " + stopWatch.getRunningSeconds() + " seconds");
+        out.println("Original Size:   " + originalSize / 1000.0 + "KB");
+        out.println("Compressed Size: " + archiveSize / 1000.0 + "KB");
+        return numFailed == 0 ? 0 : 1;
+    }
+
+
+    /**
+     * @return the jobs of the manifest, paths resolved against the working directory
+     * @throws IOException if the manifest can not be read or a line has more than two fields
+     */
+    private static List<BatchCompressor.Job> readManifest(String manifest, Terminal terminal) throws IOException {
+        List<BatchCompressor.Job> jobs = new ArrayList<>();
+        BufferedReader reader = manifest.equals(STANDARD_STREAM)
+                ? new BufferedReader(new InputStreamReader(terminal.getIn(), StandardCharsets.UTF_8))
+                : Files.newBufferedReader(terminal.resolve(manifest).toPath(), StandardCharsets.UTF_8);
+        try (reader) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) continue;
+                String[] fields = line.split("\t", -1);
+                if (fields.length > 2 || fields[0].isEmpty()) {
+                    throw new IOException("Line " + lineNumber + " of the manifest must be a source and an optional archive, separated by a tab");
+                }
+                String archive = fields.length == 2 && !fields[1].isEmpty() ? fields[1] : FileIO.changeFileExtension(fields[0]);
+                jobs.add(new BatchCompressor.Job(terminal.resolve(fields[0]).toPath(), terminal.resolve(archive).toPath()));
+            }
+        }
+        return jobs;
+    }
+
+
+    private static String describe(BatchCompressor.Result result) {
+        String seconds = String.format(Locale.ROOT, "%8.3fs", result.nanos() / 1e9);
+        BatchCompressor.Job job = result.job();
+        if (!result.isSuccess()) {
+            Exception e = result.failure();
+            String reason;
+            if (e instanceof NoSuchFileException) {
+                reason = "does not exist";
+            } else if (e instanceof FileAlreadyExistsException) {
+                reason = job.archive() + " already exists, --overwrite replaces it";
+            } else {
+                reason = e.getMessage() != null ? e.getMessage() : e.toString();
+            }
+            return "FAILED " + seconds + "  " + job.source() + ": " + reason;
+        }
+        String ratio = result.originalSize() == 0 ? "      -"
+                : String.format(Locale.ROOT, "%6.2f%%", 100.0 * result.archiveSize() / result.originalSize());
+        return "OK     " + seconds + " " + ratio + "  " + job.source() + " -> " + job.archive();
+    }
+
+    /**
+     * @return the value of the option at args[i - 1]
+     * @throws IllegalArgumentException if the value is missing or not an integer
+     */
+    private static int intArgument(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        try {
+            return Integer.parseInt(args[i]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(args[i - 1] + " needs an integer, got " + args[i]);
+        }
+    }
+
+    private static void printUsage(PrintStream err) {
+        err.println("Usage: java batch [options] <Manifest>");
+        err.println("  --io N                archives scanned or written at the same time (default 16)");
+        err.println("  --cpu N               archives encoded at the same time (default the number of processors)");
+        err.println("  --threads N           files encoded in parallel within an archive (default 1)");
+        err.println("  --max-code-length N   longest Huffman code, 9 to 32 bits (default 32)");
+        err.println("  --max-buffer-mb N     encoded archives held in memory before they are written (default 256)");
+        err.println("  --solid N             files smaller than N KB share a code in groups of about N KB");
+        err.println("  --dedup               store a file with the same content as an earlier one as a reference to it");
+        err.println("  --bwt N               cut files into N KB blocks (up to 4096) coded after the block-sorting transform");
+        err.println("  --overwrite           replace existing archives, otherwise their jobs fail");
+        err.println("  Manifest: one 'source<TAB>archive' or 'source' per line, - reads stdin");
+    }
+}
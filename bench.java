@@ -0,0 +1,184 @@
+import Bench.CodecResult;
+import Bench.EndToEnd;
+import Bench.TreeGenerator;
+import FileProcess.CompressionOptions;
+import FileProcess.FileIO;
+import FileProcess.JsonWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+
+/**
+ * Class for command line interface of end-to-end benchmarks
+ * <p>
+ * Usage: java bench [options]
+ * <p>
+ * Options: --scenario tiny|huge|deep|blobs, may be repeated, --scale F, --runs N, --warmup N, --threads N,
+ * --seed N, --dir DIR, --json FILE
+ * <p>
+ * Generates each synthetic tree, then measures the archive round trip, each file alone, and the
+ * {@code Deflater} Huffman-only baseline on the same files. The report is JSON, on stdout or in the --json file.
+ */
+public final class bench {
+
+    // Command line main application function.
+    public static void main(String[] args) throws IOException {
+        Set<TreeGenerator.Scenario> scenarios = EnumSet.noneOf(TreeGenerator.Scenario.class);
+        CompressionOptions options = new CompressionOptions();
+        double scale = 1;
+        int runs = 3;
+        int warmup = 1;
+        long seed = 42;
+        File directory = null;
+        File jsonFile = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--scenario" -> scenarios.add(TreeGenerator.Scenario.parse(argument(args, ++i)));
+                    case "--scale" -> scale = doubleArgument(args, ++i);
+                    case "--runs" -> runs = intArgument(args, ++i);
+                    case "--warmup" -> warmup = intArgument(args, ++i);
+                    case "--threads" -> options.threads(intArgument(args, ++i));
+                    case "--seed" -> seed = intArgument(args, ++i);
+                    case "--dir" -> directory = new File(argument(args, ++i));
+                    case "--json" -> jsonFile = new File(argument(args, ++i));
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (runs < 1 || warmup < 0) throw new IllegalArgumentException("Need at least one run and no negative warm-up");
+            if (!(scale > 0)) throw new IllegalArgumentException("Scale must be positive");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+            return;
+        }
+        if (scenarios.isEmpty()) scenarios = EnumSet.allOf(TreeGenerator.Scenario.class);
+
+        // the trees are always generated fresh, and removed at the end
+        boolean temporary = directory == null;
+        File work = temporary ? Files.createTempDirectory("huff-bench").toFile() : new File(directory, "huff-bench");
+        if (work.exists() && !temporary) {
+            System.err.println(work + " already exists. Program terminated.");
+            System.exit(1);
+        }
+        Files.createDirectories(work.toPath());
+
+        // JSON on stdout, unless it goes to a file
+        PrintStream log = jsonFile == null ? System.err : System.out;
+        JsonWriter json = new JsonWriter();
+        json.beginObject();
+        json.name("formatVersion").value(FileIO.FORMAT_VERSION);
+        json.name("java").value(System.getProperty("java.version"));
+        json.name("os").value(System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+        json.name("processors").value(Runtime.getRuntime().availableProcessors());
+        json.name("maxHeapMB").value(Runtime.getRuntime().maxMemory() >> 20);
+        json.name("seed").value(seed);
+        json.name("scale").value(scale);
+        json.name("warmupRuns").value(warmup);
+        json.name("runs").value(runs);
+        json.name("threads").value(options.getThreads());
+        json.name("scenarios").beginArray();
+        try {
+            TreeGenerator generator = new TreeGenerator(seed, scale);
+            EndToEnd endToEnd = new EndToEnd(warmup, runs, options, work);
+            for (TreeGenerator.Scenario scenario : scenarios) {
+                File root = new File(work, scenario.getName());
+                log.println("Generating " + scenario.getName());
+                generator.generate(scenario, root);
+                List<File> files = EndToEnd.listFiles(root);
+                long originalBytes = 0;
+                for (File f : files) {
+                    originalBytes += f.length();
+                }
+
+                List<CodecResult> results = new ArrayList<>();
+                log.println("Running " + scenario.getName() + ": " + files.size() + " files, " + originalBytes / 1000.0 + "KB");
+                results.add(endToEnd.runArchive(root, files, originalBytes));
+                results.add(endToEnd.runPerFile(files, originalBytes));
+                results.add(endToEnd.runDeflater(files, originalBytes));
+                EndToEnd.deleteTree(root);
+
+                json.beginObject();
+                json.name("name").value(scenario.getName());
+                json.name("files").value(files.size());
+                json.name("originalBytes").value(originalBytes);
+                for (CodecResult result : results) {
+                    json.name(result.getName());
+                    result.writeTo(json);
+                    log.println(String.format(Locale.ROOT, "  %-22s ratio %7.2f%%  compress %9.2f MB/s  decompress %9.2f MB/s",
+                            result.getName(), result.getRatioPercent(), result.getCompressMBPerSecond(), result.getDecompressMBPerSecond()));
+                }
+                json.endObject();
+            }
+        } finally {
+            EndToEnd.deleteTree(work);
+        }
+        json.endArray();
+        json.endObject();
+
+        if (jsonFile == null) {
+            System.out.println(json);
+        } else {
+            Files.writeString(jsonFile.toPath(), json + System.lineSeparator(), StandardCharsets.UTF_8);
+            log.println("Report written to " + jsonFile);
+        }
+    }
+
+    /**
+     * @return the value of the option at args[i - 1]
+     * @throws IllegalArgumentException if the value is missing
+     */
+    private static String argument(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    /**
+     * @return the value of the option at args[i - 1]
+     * @throws IllegalArgumentException if the value is missing or not an integer
+     */
+    private static int intArgument(String[] args, int i) {
+        String value = argument(args, i);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(args[i - 1] + " needs an integer, got " + value);
+        }
+    }
+
+    /**
+     * @return the value of the option at args[i - 1]
+     * @throws IllegalArgumentException if the value is missing or not a number
+     */
+    private static double doubleArgument(String[] args, int i) {
+        String value = argument(args, i);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a number, got " + value);
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java bench [options]");
+        System.err.println("  --scenario NAME   tiny, huge, deep or blobs, may be repeated (default all)");
+        System.err.println("  --scale F         factor of file counts and sizes (default 1)");
+        System.err.println("  --runs N          measured runs (default 3)");
+        System.err.println("  --warmup N        warm-up runs before them (default 1)");
+        System.err.println("  --threads N       threads of the archive round trip (default 1)");
+        System.err.println("  --seed N          seed of the generated trees (default 42)");
+        System.err.println("  --dir DIR         where the trees are generated (default a temporary directory)");
+        System.err.println("  --json FILE       write the JSON report to FILE instead of stdout");
+    }
+
+}
@@ -0,0 +1,107 @@
+package Benchmarks;
+
+import FileProcess.Compression;
+import FileProcess.CompressionOptions;
+import FileProcess.Decompression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Whole archives: Compression.compress of a file, Compression.compressStream of the corpus in memory,
+ * and Decompression.decompressToStream of the archive in memory
+ * <p>
+ * With a blockSort size, the file is coded after the block-sorting transform in blocks of that size and the archive
+ * decoded is the one of the file, so the cost of the transform and of its inverse shows against {@code -p blockSort=0}.
+ * Streams are coded without the transform.
+ * <p>
+ * The archive is written to memory and decoded files to a null stream, so the disk only holds the source
+ * of Compression.compress, read from the page cache after the first run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ArchiveBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Archive {
+        public File source;
+        public byte[] archive;
+        public CompressionOptions options;
+
+        @Param({"0", "1MB"})
+        public String blockSort;
+
+        @Setup(Level.Trial)
+        public void setUp(CorpusState corpus) throws IOException {
+            source = Files.createTempFile("huffman-bench", ".bin").toFile();
+            Files.write(source.toPath(), corpus.data);
+            options = new CompressionOptions().blockSortSize(Corpus.parseSize(blockSort));
+            ByteArrayOutputStream out = new ByteArrayOutputStream(corpus.encoded.length + 1024);
+            if (options.getBlockSortSize() > 0) {
+                try (BufferedOutputStream file = new BufferedOutputStream(out)) {
+                    Compression.compress(source.getParentFile(), source, file, options);
+                }
+            } else {
+                Compression.compressStream(source.getName(), new ByteArrayInputStream(corpus.data), out, options);
+            }
+            archive = out.toByteArray();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(source.toPath());
+        }
+    }
+
+
+    @Benchmark
+    public int compress(CorpusState corpus, Archive archive, ByteCounter counter) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(corpus.encoded.length + 1024);
+        try (BufferedOutputStream out = new BufferedOutputStream(bytes)) {
+            Compression.compress(archive.source.getParentFile(), archive.source, out, archive.options);
+        }
+        counter.bytes += corpus.data.length;
+        return bytes.size();
+    }
+
+
+    @Benchmark
+    public int compressStream(CorpusState corpus, Archive archive, ByteCounter counter) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(corpus.encoded.length + 1024);
+        Compression.compressStream("corpus", new ByteArrayInputStream(corpus.data), out, archive.options);
+        counter.bytes += corpus.data.length;
+        return out.size();
+    }
+
+
+    @Benchmark
+    public int decompress(CorpusState corpus, Archive archive, ByteCounter counter) throws IOException {
+        int numFiles = Decompression.decompressToStream(new ByteArrayInputStream(archive.archive), OutputStream.nullOutputStream());
+        counter.bytes += corpus.data.length;
+        return numFiles;
+    }
+
+}
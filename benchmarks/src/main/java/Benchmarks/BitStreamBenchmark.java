@@ -0,0 +1,79 @@
+package Benchmarks;
+
+import BitwiseStream.BitInputStream;
+import BitwiseStream.BitOutputStream;
+import BitwiseStream.BitWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Raw bit stream throughput: the bit-by-bit BitOutputStream against the word-wise BitWriter,
+ * and BitInputStream read one bit or one byte at a time
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BitStreamBenchmark {
+
+    @Benchmark
+    public void writeBitByBit(CorpusState corpus, ByteCounter counter) throws IOException {
+        BitOutputStream out = new BitOutputStream(OutputStream.nullOutputStream());
+        for (byte b : corpus.data) {
+            for (int i = 7; i >= 0; i--) {
+                out.write((b >>> i) & 1);
+            }
+        }
+        out.close();
+        counter.bytes += corpus.data.length;
+    }
+
+
+    @Benchmark
+    public void writeBits(CorpusState corpus, ByteCounter counter) throws IOException {
+        BitWriter out = new BitWriter(OutputStream.nullOutputStream());
+        for (byte b : corpus.data) {
+            out.writeBits(b & 0xFF, 8);
+        }
+        out.close();
+        counter.bytes += corpus.data.length;
+    }
+
+
+    @Benchmark
+    public long readBitByBit(CorpusState corpus, ByteCounter counter) throws IOException {
+        long sum = 0;
+        try (BitInputStream in = new BitInputStream(corpus.data, 0, corpus.data.length)) {
+            for (long i = 8L * corpus.data.length; i > 0; i--) {
+                sum += in.read();
+            }
+        }
+        counter.bytes += corpus.data.length;
+        return sum;
+    }
+
+
+    @Benchmark
+    public long readBits(CorpusState corpus, ByteCounter counter) throws IOException {
+        long sum = 0;
+        try (BitInputStream in = new BitInputStream(corpus.data, 0, corpus.data.length)) {
+            for (int i = corpus.data.length; i > 0; i--) {
+                sum += in.readBits(8);
+            }
+        }
+        counter.bytes += corpus.data.length;
+        return sum;
+    }
+
+}
@@ -0,0 +1,88 @@
+package Benchmarks;
+
+import BitwiseStream.BitInputStream;
+import BitwiseStream.BitWriter;
+import FileProcess.Decoder;
+import FileProcess.Encoder;
+import FileProcess.TableDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Per-symbol coding with a ready code: Encoder, table-driven TableDecoder and the tree-walking Decoder
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CodingBenchmark {
+
+    @Benchmark
+    public void encode(CorpusState corpus, ByteCounter counter) throws IOException {
+        BitWriter out = new BitWriter(OutputStream.nullOutputStream());
+        Encoder enc = new Encoder(out, corpus.canonCode.getCodes(), corpus.canonCode.getCodeLengths());
+        enc.write(corpus.data, 0, corpus.data.length);
+        enc.write(256);
+        out.close();
+        counter.bytes += corpus.data.length;
+    }
+
+
+    @Benchmark
+    public long decodeWithTables(CorpusState corpus, ByteCounter counter) throws IOException {
+        long sum = 0;
+        try (BitInputStream in = new BitInputStream(corpus.encoded, 0, corpus.encoded.length)) {
+            TableDecoder decoder = new TableDecoder(in, corpus.canonCode.getLengthsTable(), corpus.canonCode.getMaxLength());
+            int symbol;
+            while ((symbol = decoder.read()) != 256) {
+                sum += symbol;
+            }
+        }
+        counter.bytes += corpus.data.length;
+        return sum;
+    }
+
+
+    @Benchmark
+    public long decodeWithTablesInBulk(CorpusState corpus, ByteCounter counter) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        long sum = 0;
+        try (BitInputStream in = new BitInputStream(corpus.encoded, 0, corpus.encoded.length)) {
+            TableDecoder decoder = new TableDecoder(in, corpus.canonCode.getLengthsTable(), corpus.canonCode.getMaxLength());
+            int n;
+            do {
+                n = decoder.read(buffer, 0, buffer.length);
+                sum += n;
+            } while (n == buffer.length);
+        }
+        counter.bytes += corpus.data.length;
+        return sum;
+    }
+
+
+    @Benchmark
+    public long decodeWithTree(CorpusState corpus, ByteCounter counter) throws IOException {
+        long sum = 0;
+        try (BitInputStream in = new BitInputStream(corpus.encoded, 0, corpus.encoded.length)) {
+            Decoder decoder = new Decoder(in, corpus.treeRoot);
+            int symbol;
+            while ((symbol = decoder.read()) != 256) {
+                sum += symbol;
+            }
+        }
+        counter.bytes += corpus.data.length;
+        return sum;
+    }
+
+}
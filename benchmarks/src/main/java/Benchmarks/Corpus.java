@@ -0,0 +1,95 @@
+package Benchmarks;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+
+/**
+ * In-memory corpora for the benchmarks, generated from a fixed seed so every run codes the same bytes
+ */
+public enum Corpus {
+    /**
+     * uniform random bytes, incompressible
+     */
+    RANDOM {
+        @Override
+        void fill(byte[] data, SplittableRandom random) {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) random.nextInt(256);
+            }
+        }
+    },
+    /**
+     * English-like words and lines, about 4.5 bits per byte
+     */
+    TEXT {
+        @Override
+        void fill(byte[] data, SplittableRandom random) {
+            int i = 0;
+            int lineLength = 0;
+            while (i < data.length) {
+                // low ranks far more often, as in natural text
+                String word = WORDS[Math.min(random.nextInt(WORDS.length), random.nextInt(WORDS.length))];
+                for (int j = 0; j < word.length() && i < data.length; j++) {
+                    data[i++] = (byte) word.charAt(j);
+                }
+                lineLength += word.length() + 1;
+                if (i < data.length) data[i++] = (byte) (lineLength > 72 ? '\n' : ' ');
+                if (lineLength > 72) lineLength = 0;
+            }
+        }
+    },
+    /**
+     * geometric distribution, byte k with probability 2^-(k+1), codes of 1 to 9 bits
+     */
+    SKEWED {
+        @Override
+        void fill(byte[] data, SplittableRandom random) {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) Math.min(Long.numberOfTrailingZeros(random.nextLong()), 255);
+            }
+        }
+    },
+    /**
+     * a single byte repeated, one 1-bit code plus EOF
+     */
+    SAME {
+        @Override
+        void fill(byte[] data, SplittableRandom random) {
+            Arrays.fill(data, (byte) 'a');
+        }
+    };
+
+    private static final String[] WORDS = {
+            "the", "of", "and", "to", "a", "in", "is", "that", "for", "it", "as", "was", "with", "be", "by", "on",
+            "not", "he", "this", "are", "or", "his", "from", "at", "which", "but", "have", "an", "had", "they",
+            "you", "were", "their", "one", "all", "we", "can", "her", "has", "there", "been", "if", "more", "when",
+            "will", "would", "who", "so", "no", "compression", "Huffman", "frequency", "archive", "symbol", "tree"
+    };
+
+    abstract void fill(byte[] data, SplittableRandom random);
+
+
+    /**
+     * @param size number of bytes
+     * @return the same bytes for the same kind, size and seed
+     */
+    public byte[] generate(int size, long seed) {
+        byte[] data = new byte[size];
+        fill(data, new SplittableRandom(seed));
+        return data;
+    }
+
+
+    /**
+     * Parse a size such as 1KB, 64KB, 16MB or 256MB
+     */
+    public static int parseSize(String size) {
+        String s = size.trim().toUpperCase();
+        if (s.endsWith("KB")) return Math.multiplyExact(Integer.parseInt(s.substring(0, s.length() - 2)), 1 << 10);
+        if (s.endsWith("MB")) return Math.multiplyExact(Integer.parseInt(s.substring(0, s.length() - 2)), 1 << 20);
+        if (s.endsWith("B")) return Integer.parseInt(s.substring(0, s.length() - 1));
+        return Integer.parseInt(s);
+    }
+
+}
@@ -0,0 +1,65 @@
+package Benchmarks;
+
+import BitwiseStream.BitWriter;
+import FileProcess.Encoder;
+import FileProcess.FrequencyTable;
+import Huffman.CodeLengths;
+import Huffman.InternalNode;
+import Huffman.TreeCanonization;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+
+/**
+ * A corpus and its code, built once per trial, outside the measured time
+ * <p>
+ * Narrow the matrix on the command line, e.g. {@code -p kind=TEXT -p size=1MB}.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+    static final long SEED = 0x5EED;
+
+    @Param({"RANDOM", "TEXT", "SKEWED", "SAME"})
+    public Corpus kind;
+
+    @Param({"1KB", "64KB", "1MB", "16MB", "256MB"})
+    public String size;
+
+    public byte[] data;
+    public FrequencyTable frequencyTable;
+    public TreeCanonization canonCode;
+    /**
+     * the canonical code as a tree, for the tree-walking decoder
+     */
+    public InternalNode treeRoot;
+    /**
+     * data coded with canonCode, ending with EOF
+     */
+    public byte[] encoded;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = kind.generate(Corpus.parseSize(size), SEED);
+        frequencyTable = new FrequencyTable();
+        frequencyTable.increment(data, 0, data.length);
+        frequencyTable.increment(256);  // EOF
+        canonCode = new TreeCanonization(frequencyTable, CodeLengths.MAX_CODE_LENGTH);
+        treeRoot = canonCode.getHuffmanTree().getRoot();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + data.length / 8 + 16);
+        BitWriter out = new BitWriter(bytes);
+        Encoder enc = new Encoder(out, canonCode.getCodes(), canonCode.getCodeLengths());
+        enc.write(data, 0, data.length);
+        enc.write(256);
+        out.close();
+        encoded = bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,88 @@
+package Benchmarks;
+
+import FileProcess.FrequencyTable;
+import FileProcess.TableDecoder;
+import Huffman.HuffmanTree;
+import Huffman.TreeCanonization;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Frequency counting, in bytes per second, and building the code from the frequencies: Huffman tree,
+ * length-limited canonical code, canonical codes and tree from a stored lengthsTable, and decoding tables
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ModelBenchmark {
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public FrequencyTable countFrequencies(CorpusState corpus, ByteCounter counter) {
+        FrequencyTable table = new FrequencyTable();
+        table.increment(corpus.data, 0, corpus.data.length);
+        counter.bytes += corpus.data.length;
+        return table;
+    }
+
+
+    @Benchmark
+    public HuffmanTree huffmanTree(CorpusState corpus) {
+        return new HuffmanTree(corpus.frequencyTable);
+    }
+
+
+    /**
+     * Package-merge within the given maximum code length
+     */
+    @Benchmark
+    public TreeCanonization canonicalCode(CorpusState corpus, CodeLimit limit) {
+        return new TreeCanonization(corpus.frequencyTable, limit.maxCodeLength);
+    }
+
+
+    /**
+     * Canonical codes from a lengthsTable, as the encoder gets them
+     */
+    @Benchmark
+    public int[] canonicalCodes(CorpusState corpus) {
+        return new TreeCanonization(corpus.canonCode.getLengthsTable()).getCodes();
+    }
+
+
+    /**
+     * Canonical code tree from a lengthsTable, as the tree-walking decoder gets it
+     */
+    @Benchmark
+    public HuffmanTree canonicalTree(CorpusState corpus) {
+        return new TreeCanonization(corpus.canonCode.getLengthsTable()).getHuffmanTree();
+    }
+
+
+    @Benchmark
+    public TableDecoder decodingTables(CorpusState corpus) {
+        return TableDecoder.tables(corpus.canonCode.getLengthsTable(), corpus.canonCode.getMaxLength());
+    }
+
+
+    @State(Scope.Benchmark)
+    public static class CodeLimit {
+        @Param({"12", "32"})
+        public int maxCodeLength;
+    }
+
+}
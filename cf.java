@@ -1,80 +1,321 @@
-import FileProcess.Compression;
+import Daemon.JobClient;
+import Daemon.Terminal;
+import FileProcess.ArchiveWriter;
+import FileProcess.Codebook;
+import FileProcess.CompressionOptions;
 import FileProcess.FileIO;
-import FileProcess.OverwriteProtector;
+import FileProcess.Metrics;
+import FileProcess.OverwritePolicy;
 import FileProcess.StopWatch;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Usage: Usage: java cf InputFile OutputFile(optional).
+ * Usage: Usage: java cf [options] InputFile OutputFile(optional).
+ * <p>
+ * Options: --max-code-length N, --threads N, --max-buffer-mb N, --chunk-size N, --solid N, --solid-files N, --name NAME,
+ * --codebook ID, --codebook-dir DIR, --stats-json FILE, --update, --compare-content, --dedup, --overwrite
+ * <p>
+ * InputFile "-" reads a stream of unknown length from stdin, stored as a single file named by --name. Stdin then
+ * carries no answer to the overwrite question, so an existing OutputFile is an error unless --overwrite is given.
+ * OutputFile "-", or no OutputFile for stdin, writes the archive to stdout.
+ * <p>
+ * --update writes OutputFile again from InputFile, copying the blocks of files unchanged since it was written, by
+ * size and modification time, or by CRC32C with --compare-content.
  * <p>
  * Class for command line interface.
  * <p>
  * OutputFile Structure:
  * <p>
- * 1. header: MagicNumber(2 bytes)--fileStructureHeader(Strings of file path ending with STRING_END_SIGN)--HEADER_END_SIGN
+ * 1. header: MagicNumber(2 bytes)--FormatVersion--fileStructureHeader(Strings of file path ending with STRING_END_SIGN)--HEADER_END_SIGN
  * <p>
  * 2. continuous FileBlocks or DirectoryBlocks, one for a path in source file.
  * <p>
- * FileBocks: SINGLE_FILE_MAGIC--StringOfPath--STRING_END_SIGN--CanonicalCodeTable--encodedBits(ending with special EOF)
+ * FileBocks: SINGLE_FILE_MAGIC--StringOfPath--STRING_END_SIGN--MaxCodeLength--CanonicalCodeTable--encodedBits(ending with special EOF)
+ * <p>
+ * ChunkedFileBlocks: CHUNKED_FILE_MAGIC--StringOfPath--STRING_END_SIGN--chunkSize--numChunks--chunks, see {@code ChunkedFile}
+ * <p>
+ * StreamedFileBlocks: STREAMED_FILE_MAGIC--StringOfPath--STRING_END_SIGN--chunkSize--chunks--0, see {@code ChunkedFile}
+ * <p>
+ * CodebookFileBlocks: CODEBOOK_FILE_MAGIC--StringOfPath--STRING_END_SIGN--StringOfCodebookId--STRING_END_SIGN--checksum--encodedBits,
+ * see {@code Codebook}
+ * <p>
+ * StoredFileBlocks: STORED_FILE_MAGIC--StringOfPath--STRING_END_SIGN--size(8 bytes)--bytes, a file coding would not shrink
+ * <p>
+ * BlockSortedFileBlocks: BLOCK_SORTED_FILE_MAGIC--StringOfPath--STRING_END_SIGN--blockSize--numBlocks--blocks, see {@code BlockSort}
+ * <p>
+ * SolidGroupBlocks: SOLID_GROUP_MAGIC--numMembers--MaxCodeLength--CanonicalCodeTable--members, see {@code SolidGroup}
+ * <p>
+ * DuplicateFileBlocks: DUPLICATE_FILE_MAGIC--StringOfPath--STRING_END_SIGN--StringOfOriginalPath--STRING_END_SIGN,
+ * see {@code Deduplication}
  * <p>
  * DirectoryBlocks: DIRECTORY_MAGIC--StringOfPath--STRING_END_SIGN
  * <p>
+ * 3. central directory with the offset, sizes, CRC32C and modification time of every block, see {@code CentralDirectory}
+ * <p>
  * PS:
  * String is stored in file in C style instead of Java style. String = chars + STRING_END_SIGN
  */
 public final class cf {
-    // Command line main application function.
+    /**
+     * InputFile or OutputFile for stdin or stdout
+     */
+    private static final String STANDARD_STREAM = "-";
+
+    // Command line main application function, run by the daemon if one listens.
     public static void main(String[] args) throws IOException {
+        int status = JobClient.tryRun("cf", args);
+        if (status == -1) status = run(args, Terminal.system());
+        System.exit(status);
+    }
+
+
+    /**
+     * Run cf with the streams and working directory of a terminal
+     *
+     * @return exit status
+     */
+    public static int run(String[] args, Terminal terminal) throws IOException {
+        try {
+            return compress(args, terminal);
+        } finally {
+            // the thread may run the next job of a daemon
+            Metrics.disable();
+        }
+    }
+
+
+    private static int compress(String[] args, Terminal terminal) throws IOException {
         StopWatch stopWatch = new StopWatch();
-        long original_size;
 
         // Handle command line arguments
-        // set output file
+        CompressionOptions options = new CompressionOptions();
+        List<String> paths = new ArrayList<>();
+        String streamName = "stdin";
+        String codebookId = null;
+        File codebookDirectory = Codebook.getDirectory();
+        File statsFile = null;
+        boolean update = false;
+        boolean compareContent = false;
+        boolean estimate = false;
+        boolean overwrite = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--name" -> streamName = stringArgument(args, ++i);
+                    case "--max-code-length" -> options.maxCodeLength(intArgument(args, ++i));
+                    case "--threads" -> options.threads(intArgument(args, ++i));
+                    case "--max-buffer-mb" -> options.maxBufferedBytes((long) intArgument(args, ++i) << 20);
+                    case "--chunk-size" -> options.chunkSize(Math.multiplyExact(intArgument(args, ++i), 1 << 20));
+                    case "--solid" -> options.solidGroupSize(Math.multiplyExact(intArgument(args, ++i), 1 << 10));
+                    case "--solid-files" -> options.solidGroupFiles(intArgument(args, ++i));
+                    case "--codebook" -> codebookId = stringArgument(args, ++i);
+                    case "--codebook-dir" -> codebookDirectory = terminal.resolve(stringArgument(args, ++i));
+                    case "--stats-json" -> statsFile = terminal.resolve(stringArgument(args, ++i));
+                    case "--dedup" -> options.dedup(true);
+                    case "--bwt" -> options.blockSortSize(Math.multiplyExact(intArgument(args, ++i), 1 << 10));
+                    case "--update" -> update = true;
+                    case "--compare-content" -> compareContent = update = true;
+                    case "--estimate" -> estimate = true;
+                    case "--overwrite" -> overwrite = true;
+                    default -> paths.add(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            terminal.getErr().println(e.getMessage());
+            printUsage(terminal.getErr());
+            return 1;
+        }
+        if (paths.isEmpty() || paths.size() > 2) {
+            printUsage(terminal.getErr());
+            return 1;
+        }
+        if (codebookId != null) {
+            try {
+                options.codebook(Codebook.load(codebookId, codebookDirectory));
+            } catch (IOException | IllegalArgumentException e) {
+                terminal.getErr().println("Fail to load codebook: " + e.getMessage());
+                return 1;
+            }
+        }
+        boolean fromStdin = paths.get(0).equals(STANDARD_STREAM);
+        if (options.getBlockSortSize() > 0 && (fromStdin || options.getChunkSize() > 0 || codebookId != null || estimate)) {
+            terminal.getErr().println("--bwt codes files in blocks of its own, not with stdin, --chunk-size, --codebook or --estimate");
+            return 1;
+        }
+        if (estimate) {
+            if (fromStdin || paths.size() > 1 || update) {
+                terminal.getErr().println("--estimate needs an InputFile only, and writes no archive");
+                return 1;
+            }
+            if (codebookId != null || options.getSolidGroupSize() > 0 || options.isDedup()) {
+                terminal.getErr().println("--estimate does not take --codebook, --solid or --dedup");
+                return 1;
+            }
+            return printEstimate(new ArchiveWriter(options), terminal.resolve(paths.get(0)), terminal);
+        }
+        // set output file, null for stdout
         File outputFile;
-        if (args.length == 1) {
-            outputFile = new File(FileIO.changeFileExtension(args[0]));
-        } else if (args.length == 2) {
-            outputFile = new File(args[1]);
+        if (paths.size() == 2) {
+            outputFile = paths.get(1).equals(STANDARD_STREAM) ? null : terminal.resolve(paths.get(1));
         } else {
-            System.err.println("Usage: java cf <InputFile> [OutputFile](optional)");
-            System.exit(1);
-            return;
+            outputFile = fromStdin ? null : terminal.resolve(FileIO.changeFileExtension(paths.get(0)));
         }
         // set input file
-        File inputFile = new File(args[0]);
-
-        if (inputFile.equals(outputFile)) {
-            System.err.println("InputPath equals outputPath. Program terminated.");
-            System.exit(1);
-        }
-        // Overwrite Protection
-        OverwriteProtector protector = new OverwriteProtector();
-        if (outputFile.exists()) {
-            protector.askUser(outputFile);
+        File inputFile = terminal.resolve(paths.get(0));
+        if (update && (fromStdin || outputFile == null)) {
+            terminal.getErr().println("--update needs an InputFile and an OutputFile, not a stream");
+            return 1;
         }
 
-
-        try (BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(outputFile))) {
-            original_size = Compression.compress(inputFile.getParentFile(), inputFile, os);
+        Metrics metrics = statsFile == null ? null : Metrics.enable();
+        ArchiveWriter writer = new ArchiveWriter(options);
+        ArchiveWriter.Summary summary;
+        ArchiveWriter.UpdateSummary updateSummary = null;
+        try {
+            ReadableByteChannel stdin = Channels.newChannel(terminal.getIn());
+            if (update) {
+                updateSummary = writer.update(inputFile.toPath(), outputFile.toPath(), compareContent);
+                summary = new ArchiveWriter.Summary(updateSummary.originalSize(), updateSummary.archiveSize());
+            } else if (outputFile == null) {
+                try (WritableByteChannel out = Channels.newChannel(terminal.getStdout())) {
+                    summary = fromStdin ? writer.writeStream(streamName, stdin, out) : writer.write(inputFile.toPath(), out);
+                }
+            } else {
+                // Overwrite Protection
+                OverwritePolicy policy = overwrite ? OverwritePolicy.OVERWRITE : terminal.overwritePolicy(fromStdin);
+                summary = fromStdin ? writer.writeStream(streamName, stdin, outputFile.toPath(), policy)
+                        : writer.write(inputFile.toPath(), outputFile.toPath(), policy);
+            }
+        } catch (FileAlreadyExistsException e) {
+            if (fromStdin) {
+                terminal.getErr().println("ERROR: " + e.getFile() + " already exists, --overwrite replaces it when reading stdin");
+                return 1;
+            }
+            terminal.getOut().println("Program terminated.");
+            return 0;
+        } catch (NoSuchFileException e) {
+            terminal.getErr().println("ERROR: " + e.getFile() + " does not exist");
+            return 1;
+        } catch (IllegalArgumentException | IOException e) {
+            terminal.getErr().println("ERROR: " + e.getMessage());
+            return 1;
         }
 
 
-        // Print Summary
-        long compressed_size = outputFile.length();
+        // Print Summary, out of the way of an archive on stdout
+        PrintStream log = outputFile == null ? terminal.getErr() : terminal.getOut();
+        long original_size = summary.originalSize();
+        long compressed_size = summary.archiveSize();
         double compression_percentage = Math.round((((double) compressed_size / original_size) * 10000)) / 100.0;
-        System.out.println("Compression finished");
+        log.println("Compression finished");
+        if (updateSummary != null) {
+            log.println("Files copied:    " + updateSummary.copiedFiles() + " unchanged, " + updateSummary.encodedFiles() + " encoded");
+        }
         if (original_size == 0) {
-            System.out.println("Compression ratio: No non-empty file");
+            log.println("Compression ratio: No non-empty file");
         } else {
-            System.out.println("Compression ratio: " + compression_percentage + "%");
+            log.println("Compression ratio: " + compression_percentage + "%");
+        }
+        log.println("Time Usage:      " + stopWatch.getRunningSeconds() + " seconds");
+        log.println("Original Size:   " + original_size / 1000.0 + "KB");
+        log.println("Compressed Size: " + compressed_size / 1000.0 + "KB");
+        if (metrics != null) {
+            Files.writeString(statsFile.toPath(), metrics.toJson("compress") + System.lineSeparator(), StandardCharsets.UTF_8);
+        }
+        return 0;
+    }
+
+    /**
+     * Print the size each file would take in the archive, without writing it
+     *
+     * @return exit status
+     */
+    private static int printEstimate(ArchiveWriter writer, File inputFile, Terminal terminal) {
+        List<ArchiveWriter.Estimate> estimates;
+        try {
+            estimates = writer.estimate(inputFile.toPath());
+        } catch (NoSuchFileException e) {
+            terminal.getErr().println("ERROR: " + e.getFile() + " does not exist");
+            return 1;
+        } catch (IllegalArgumentException | IOException e) {
+            terminal.getErr().println("ERROR: " + e.getMessage());
+            return 1;
+        }
+        PrintStream out = terminal.getOut();
+        String format = "%-8s %12s %12s %12s %12s  %s%n";
+        out.printf(format, "Method", "Original", "Entropy", "Huffman", "Archived", "Path");
+        long[] totals = new long[4];
+        for (ArchiveWriter.Estimate e : estimates) {
+            out.printf(format, e.method(), e.originalSize(), e.entropySize(), e.huffmanSize(), e.archivedSize(), e.path());
+            totals[0] += e.originalSize();
+            totals[1] += e.entropySize();
+            totals[2] += e.huffmanSize();
+            totals[3] += e.archivedSize();
+        }
+        out.printf(format, "total", totals[0], totals[1], totals[2], totals[3], estimates.size() + " files");
+        if (totals[0] > 0) {
+            out.println("Estimated ratio: " + Math.round((double) totals[3] / totals[0] * 10000) / 100.0
+                    + "% without the header and the central directory");
+        }
+        return 0;
+    }
+
+    /**
+     * @return the value of the option at args[i - 1]
+     * @throws IllegalArgumentException if the value is missing
+     */
+    private static String stringArgument(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    /**
+     * @return the value of the option at args[i - 1]
+     * @throws IllegalArgumentException if the value is missing or not an integer
+     */
+    private static int intArgument(String[] args, int i) {
+        stringArgument(args, i);
+        try {
+            return Integer.parseInt(args[i]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(args[i - 1] + " needs an integer, got " + args[i]);
         }
-        System.out.println("Time Usage:      " + stopWatch.getRunningSeconds() + " seconds");
-        System.out.println("Original Size:   " + original_size / 1000.0 + "KB");
-        System.out.println("Compressed Size: " + compressed_size / 1000.0 + "KB");
+    }
+
+    private static void printUsage(PrintStream err) {
+        err.println("Usage: java cf [options] <InputFile> [OutputFile](optional)");
+        err.println("  --max-code-length N   longest Huffman code, 9 to 32 bits (default 32)");
+        err.println("  --threads N           files encoded in parallel (default 1)");
+        err.println("  --max-buffer-mb N     cap of encoded files held in memory with --threads (default 256)");
+        err.println("  --chunk-size N        split files larger than N MB (up to 256) into independently coded chunks");
+        err.println("                        (a stream from stdin is always chunked, 4 MB by default)");
+        err.println("  --solid N             files smaller than N KB share a code in groups of about N KB");
+        err.println("  --solid-files N       most files in a solid group (default 1024)");
+        err.println("  --name NAME           name of the file read from stdin (default stdin)");
+        err.println("  --codebook ID         code every file in one pass with a codebook made by train");
+        err.println("  --codebook-dir DIR    directory of codebooks (default $" + Codebook.DIRECTORY_ENV + " or ~/.huff/codebooks)");
+        err.println("  --stats-json FILE     write timings of each phase and sizes of each entry to FILE");
+        err.println("  --dedup               store a file with the same content as an earlier one as a reference to it");
+        err.println("  --bwt N               cut files into N KB blocks (up to 4096) that go through the block-sorting");
+        err.println("                        transform before coding, for text; solid groups are coded without it");
+        err.println("  --update              rewrite OutputFile, copying the blocks of files unchanged in size and time");
+        err.println("  --compare-content     with --update, compare files by CRC32C instead of modification time");
+        err.println("  --estimate            print the entropy, Huffman and archived size of each file, write nothing");
+        err.println("                        (without --solid, --codebook or --dedup)");
+        err.println("  --overwrite           replace an existing OutputFile without asking");
+        err.println("  InputFile - reads stdin, OutputFile - writes the archive to stdout");
     }
 
 }
@@ -0,0 +1,106 @@
+import Daemon.JobClient;
+import Daemon.JobServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+
+/**
+ * Class for command line interface of the compression daemon
+ * <p>
+ * Usage: java huffd [options]
+ * <p>
+ * Options: --socket PATH, --threads N, --queue N, --stop
+ * <p>
+ * While the daemon runs, cf, xf, pv and batch send their jobs to it instead of compiling the coding loops again
+ * in a new JVM. {@code --stop} asks a running daemon to finish its jobs and exit.
+ */
+public final class huffd {
+
+    // Command line main application function.
+    public static void main(String[] args) {
+        Path socket = JobServer.getDefaultSocket();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queueSize = -1;
+        boolean stop = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--socket" -> socket = Path.of(argument(args, ++i));
+                    case "--threads" -> threads = intArgument(args, ++i);
+                    case "--queue" -> queueSize = intArgument(args, ++i);
+                    case "--stop" -> stop = true;
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (threads < 1) throw new IllegalArgumentException("--threads must be positive");
+            if (queueSize == -1) queueSize = 4 * threads;
+            if (queueSize < 1) throw new IllegalArgumentException("--queue must be positive");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+            return;
+        }
+
+        if (stop) {
+            if (!Files.exists(socket)) {
+                System.err.println("No daemon listens on " + socket);
+                System.exit(1);
+                return;
+            }
+            try {
+                System.exit(JobClient.stop(socket, System.err));
+            } catch (IOException e) {
+                System.err.println("ERROR: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
+        // jobs of this process must not be sent back to itself
+        System.setProperty(JobClient.DISABLE_PROPERTY, "true");
+        JobServer server = new JobServer(socket, Map.of("cf", cf::run, "xf", xf::run, "pv", pv::run, "batch", batch::run), threads, queueSize);
+        System.out.println("huffd listening on " + socket + " with " + threads + " workers");
+        try {
+            server.serve();
+        } catch (IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("huffd stopped");
+    }
+
+    /**
+     * @return the value of the option at args[i - 1]
+     * @throws IllegalArgumentException if the value is missing
+     */
+    private static String argument(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    /**
+     * @return the value of the option at args[i - 1]
+     * @throws IllegalArgumentException if the value is missing or not an integer
+     */
+    private static int intArgument(String[] args, int i) {
+        String value = argument(args, i);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(args[i - 1] + " needs an integer, got " + value);
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java huffd [options]");
+        System.err.println("Options:");
+        System.err.println("  --socket PATH  socket of the daemon, default $HUFFD_SOCKET or ~/.huff/huffd.sock");
+        System.err.println("  --threads N    jobs run at the same time, default the number of processors");
+        System.err.println("  --queue N      jobs waiting for a worker before new ones are refused, default 4 per thread");
+        System.err.println("  --stop         ask the running daemon to finish its jobs and exit");
+    }
+}
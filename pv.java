@@ -1,54 +1,91 @@
-import FileProcess.FileIO;
+import Daemon.JobClient;
+import Daemon.Terminal;
+import FileProcess.ArchiveReader;
+import FileProcess.CentralDirectory;
 import FileProcess.PathTreePrint;
 import FileProcess.StopWatch;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.PrintStream;
 import java.util.List;
 
 
 /**
  * Preview file Structure in compressed file
  * <p>
- * Print out in tree style
+ * Print out in tree style, then the size and compression ratio of each entry from the central directory
  */
 public class pv {
+    // Command line main application function, run by the daemon if one listens.
     public static void main(String[] args) throws IOException {
+        int status = JobClient.tryRun("pv", args);
+        if (status == -1) status = run(args, Terminal.system());
+        System.exit(status);
+    }
+
+
+    /**
+     * Run pv with the streams and working directory of a terminal
+     *
+     * @return exit status
+     */
+    public static int run(String[] args, Terminal terminal) {
         StopWatch stopWatch = new StopWatch();
+        PrintStream out = terminal.getOut();
 
         if (args.length != 1) {
-            System.err.println("Usage: java pv <source>");
-            System.exit(1);
+            terminal.getErr().println("Usage: java pv <source>");
+            return 1;
         }
 
-        File inputFile = new File(args[0]);
+        File inputFile = terminal.resolve(args[0]);
         if(!inputFile.isFile()){
-            System.err.println("Usage: java pv <source>");
-            System.err.println("<source> must be a file");
-            System.exit(1);
+            terminal.getErr().println("Usage: java pv <source>");
+            terminal.getErr().println("<source> must be a file");
+            return 1;
         }
-        try (BufferedInputStream is = new BufferedInputStream(new FileInputStream(inputFile))) {
-            List<String> paths = previewHelper(is);
-            PathTreePrint.printTree(paths);
+        ArchiveReader reader = new ArchiveReader(inputFile.toPath());
+        try {
+            PathTreePrint.printTree(reader.getPaths(), out);
+            List<CentralDirectory.Entry> entries = reader.getEntries();
+            if (entries != null) {
+                printEntries(entries, out);
+            }
+        } catch (IOException e) {
+            terminal.getErr().println("ERROR: " + e.getMessage());
+            return 1;
         }
 
-        System.out.println("Preview finished in " + stopWatch.getRunningSeconds() + " seconds");
+        out.println("Preview finished in " + stopWatch.getRunningSeconds() + " seconds");
+        return 0;
     }
 
-    public static List<String> previewHelper(BufferedInputStream in) throws IOException {
-        List<String> paths = new ArrayList<>();
-        FileIO.checkHeader(in);
-        // read a char first, check FileIO.HEADER_END_SIGN
-        int firstByte;
-        while ((firstByte = in.read()) != FileIO.HEADER_END_SIGN) {
-            String restBytes = FileIO.readString(in);
-            char firstChar = (char) firstByte;
-            paths.add(firstChar + restBytes);
+    /**
+     * Print original size, compressed size, ratio and CRC32C of each entry, and the totals
+     */
+    public static void printEntries(List<CentralDirectory.Entry> entries, PrintStream out) {
+        out.printf("%n%14s %14s %8s %8s  %s%n", "Original", "Compressed", "Ratio", "CRC32C", "Path");
+        long totalOriginal = 0;
+        long totalCompressed = 0;
+        for (CentralDirectory.Entry entry : entries) {
+            totalOriginal += entry.originalSize();
+            totalCompressed += entry.compressedSize();
+            if (entry.isDirectory()) {
+                out.printf("%14s %14s %8s %8s  %s%n", "-", "-", "-", "-", entry.path() + File.separator);
+            } else {
+                out.printf("%14d %14d %8s %8s  %s%n", entry.originalSize(), entry.compressedSize(),
+                        ratio(entry.compressedSize(), entry.originalSize()),
+                        entry.hasChecksum() ? String.format("%08x", entry.checksum()) : "-", entry.path());
+            }
         }
-        return paths;
+        out.printf("%14d %14d %8s %8s  %d entries%n", totalOriginal, totalCompressed,
+                ratio(totalCompressed, totalOriginal), "", entries.size());
+    }
+
+    private static String ratio(long compressed, long original) {
+        if (original == 0) return "-";
+        return Math.round((double) compressed / original * 10000) / 100.0 + "%";
     }
 
 }
@@ -0,0 +1,96 @@
+import Daemon.JobClient;
+import Daemon.JobServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.fail;
+
+
+/**
+ * Jobs of the daemon that feed each other through their standard streams, as a shell pipeline of cf and xf does
+ */
+class DaemonPipelineTest {
+
+    @Test
+    void pipelineOnOneWorker(@TempDir Path dir) throws Exception {
+        Path socket = dir.resolve("huffd.sock");
+        JobServer server = new JobServer(socket, Map.of("cf", cf::run, "xf", xf::run), 1, 4);
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, "huffd");
+        serving.start();
+        waitForDaemon(socket);
+
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(18);
+        while (text.length() < 200_000) {
+            text.append("job ").append(random.nextInt(100)).append(" reads the output of the job before it\n");
+        }
+        byte[] data = text.toString().getBytes(StandardCharsets.UTF_8);
+        PipedOutputStream archiveOut = new PipedOutputStream();
+        PipedInputStream archiveIn = new PipedInputStream(archiveOut, 1 << 16);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+                // xf takes the only worker first, then waits for the archive that cf writes on its stdin
+                Future<Integer> decompress = clients.submit(() -> JobClient.run(socket, "xf", new String[]{"--stdout", "-"},
+                        archiveIn, decoded, errors));
+                Thread.sleep(500);
+                Future<Integer> compress = clients.submit(() -> {
+                    try (archiveOut) {
+                        return JobClient.run(socket, "cf", new String[]{"-"}, new ByteArrayInputStream(data), archiveOut, errors);
+                    }
+                });
+                assertEquals(0, compress.get(), errors::toString);
+                assertEquals(0, decompress.get(), errors::toString);
+            });
+            assertArrayEquals(data, decoded.toByteArray());
+        } finally {
+            clients.shutdownNow();
+            JobClient.stop(socket, OutputStream.nullOutputStream());
+            serving.join(10_000);
+        }
+    }
+
+
+    private static void waitForDaemon(Path socket) throws Exception {
+        for (int i = 0; i < 200; i++) {
+            try {
+                // an unknown command only gets an answer
+                JobClient.run(socket, "none", new String[0], InputStream.nullInputStream(), OutputStream.nullOutputStream(),
+                        OutputStream.nullOutputStream());
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        fail("the daemon did not listen on " + socket);
+    }
+
+}
@@ -0,0 +1,252 @@
+package FileProcess;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Round trips of the block-sorting transform, its symbols, whole blocks and archives, and the checks of corrupt blocks
+ */
+class BlockSortTest {
+    private static final int MAX_CODE_LENGTH = 32;
+
+    @Test
+    void suffixArrayMatchesNaiveSort() {
+        Random random = new Random(1);
+        for (int t = 0; t < 3000; t++) {
+            int n = 1 + random.nextInt(t < 2000 ? 40 : 2000);
+            int upper = random.nextInt(t % 3 == 0 ? 2 : 256);
+            int period = 1 + random.nextInt(5);
+            int[] s = new int[n];
+            for (int i = 0; i < n; i++) {
+                // a third of the inputs periodic, which recurse the deepest
+                s[i] = t % 3 == 1 && i >= period ? s[i - period] : random.nextInt(upper + 1);
+            }
+            assertArrayEquals(naiveSuffixArray(s), BlockSort.suffixArray(s, upper), "input " + t);
+        }
+    }
+
+    @Test
+    void transformRoundTrip() {
+        Random random = new Random(2);
+        for (int t = 0; t < 2000; t++) {
+            byte[] data = randomBlock(random, 1 + random.nextInt(3000), 1 + random.nextInt(256));
+            byte[] last = new byte[data.length];
+            int primaryIndex = BlockSort.transform(data, last);
+            assertArrayEquals(data, BlockSort.inverseTransform(last, data.length, primaryIndex), "input " + t);
+        }
+    }
+
+    @Test
+    void allEqualBlocks() throws IOException {
+        for (int n : new int[]{1, 2, 3, 10, 1000, 1 << 16}) {
+            byte[] data = new byte[n];
+            Arrays.fill(data, (byte) 'x');
+            assertBlockRoundTrip(data);
+        }
+        // one long run of move-to-front zeros
+        byte[] block = BlockSort.encodeBlock(new byte[1 << 16], MAX_CODE_LENGTH);
+        assertTrue(ByteBuffer.wrap(block).getInt() >= 0);
+        assertTrue(block.length < 100);
+    }
+
+    @Test
+    void twoSymbolBlocks() throws IOException {
+        Random random = new Random(3);
+        assertBlockRoundTrip("ab".repeat(5000).getBytes(StandardCharsets.US_ASCII));
+        assertBlockRoundTrip("aab".repeat(3333).getBytes(StandardCharsets.US_ASCII));
+        for (int n : new int[]{2, 17, 1000, 100_000}) {
+            byte[] data = new byte[n];
+            for (int i = 0; i < n; i++) {
+                data[i] = (byte) (random.nextBoolean() ? 'a' : 'b');
+            }
+            assertBlockRoundTrip(data);
+        }
+    }
+
+    @Test
+    void escapedIndices() throws IOException {
+        // after all 256 byte values, each one again is at move-to-front index 255, and 1 right after 0 at 254
+        byte[] last = new byte[3 * 256];
+        for (int i = 0; i < last.length; i++) {
+            last[i] = (byte) (i < 512 ? i : 255 - i);
+        }
+        byte[] symbols = new byte[2 * last.length];
+        int numSymbols = BlockSort.encodeSymbols(last, symbols);
+        boolean escape254 = false;
+        boolean escape255 = false;
+        for (int i = 0; i < numSymbols - 1; i++) {
+            if ((symbols[i] & 0xFF) == 255) {
+                escape254 |= symbols[i + 1] == 0;
+                escape255 |= symbols[i + 1] == 1;
+                i++;
+            }
+        }
+        assertTrue(escape254 && escape255);
+        byte[] decoded = new byte[last.length];
+        assertEquals(last.length, BlockSort.decodeSymbols(Arrays.copyOf(symbols, numSymbols), decoded));
+        assertArrayEquals(last, decoded);
+
+        byte[] data = new byte[1 << 16];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 167);
+        }
+        assertBlockRoundTrip(data);
+        assertBlockRoundTrip(last);
+    }
+
+    @Test
+    void randomBlocks() throws IOException {
+        Random random = new Random(4);
+        for (int t = 0; t < 500; t++) {
+            assertBlockRoundTrip(randomBlock(random, 1 + random.nextInt(5000), 1 + random.nextInt(256)));
+        }
+    }
+
+    @Test
+    void maximumSizeBlock() throws IOException {
+        // text-like bytes, so the block is sorted and coded rather than kept raw
+        Random random = new Random(5);
+        byte[] data = new byte[CompressionOptions.MAX_BLOCK_SORT_SIZE];
+        String[] words = {"block ", "sort ", "huffman ", "code ", "the ", "of ", "a ", "\n"};
+        for (int i = 0; i < data.length; ) {
+            byte[] word = words[random.nextInt(words.length)].getBytes(StandardCharsets.US_ASCII);
+            int length = Math.min(word.length, data.length - i);
+            System.arraycopy(word, 0, data, i, length);
+            i += length;
+        }
+        byte[] block = BlockSort.encodeBlock(data, MAX_CODE_LENGTH);
+        assertTrue(ByteBuffer.wrap(block).getInt() >= 0);
+        assertArrayEquals(data, BlockSort.decodeBlock(block, data.length, FileIO.FORMAT_VERSION));
+        assertThrows(ArchiveException.class, () -> BlockSort.decodeBlock(block, data.length + 1, FileIO.FORMAT_VERSION));
+    }
+
+    @Test
+    void corruptPrimaryIndex() throws IOException {
+        byte[] data = randomBlock(new Random(6), 5000, 16);
+        byte[] block = BlockSort.encodeBlock(data, MAX_CODE_LENGTH);
+        assertTrue(ByteBuffer.wrap(block).getInt() >= 0);
+        for (int primaryIndex : new int[]{data.length + 1, Integer.MAX_VALUE, -2, Integer.MIN_VALUE}) {
+            ByteBuffer.wrap(block).putInt(primaryIndex);
+            assertThrows(ArchiveException.class, () -> BlockSort.decodeBlock(block, data.length, FileIO.FORMAT_VERSION));
+        }
+        // a wrong row within the block decodes to other bytes, which the CRC32C of the entry tells
+        ByteBuffer.wrap(block).putInt((BlockSort.transform(data, new byte[data.length]) + 1) % (data.length + 1));
+        assertFalse(Arrays.equals(data, BlockSort.decodeBlock(block, data.length, FileIO.FORMAT_VERSION)));
+    }
+
+    @Test
+    void corruptRuns() throws IOException {
+        // a run longer than the block
+        byte[] runaway = new byte[30];
+        Arrays.fill(runaway, (byte) 1);
+        assertThrows(ArchiveException.class, () -> BlockSort.decodeSymbols(runaway, new byte[1000]));
+        assertThrows(ArchiveException.class, () -> decodeBlock(runaway, 1000));
+        // more bytes than the block
+        byte[] tooMany = new byte[11];
+        Arrays.fill(tooMany, (byte) 2);
+        assertThrows(ArchiveException.class, () -> BlockSort.decodeSymbols(tooMany, new byte[10]));
+        assertThrows(ArchiveException.class, () -> decodeBlock(tooMany, 10));
+        // an escape at the end, or followed by a symbol other than 0 and 1
+        assertThrows(ArchiveException.class, () -> BlockSort.decodeSymbols(new byte[]{2, (byte) 255}, new byte[10]));
+        assertThrows(ArchiveException.class, () -> BlockSort.decodeSymbols(new byte[]{(byte) 255, 2}, new byte[10]));
+        assertThrows(ArchiveException.class, () -> decodeBlock(new byte[]{(byte) 255, 7}, 10));
+        // a block size beyond the largest one
+        assertThrows(ArchiveException.class, () -> decodeBlock(new byte[]{2}, CompressionOptions.MAX_BLOCK_SORT_SIZE + 1));
+    }
+
+    @Test
+    void archiveRoundTrip(@TempDir Path dir) throws IOException {
+        // text over several blocks, random bytes stored raw, a file within one block and an empty one
+        Path source = Files.createDirectories(dir.resolve("src"));
+        Random random = new Random(10);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 300_000) {
+            text.append("block ").append(random.nextInt(1000)).append(" sorts the rotations of its bytes\n");
+        }
+        Files.writeString(source.resolve("text.txt"), text);
+        Files.write(source.resolve("random.bin"), randomBlock(random, 100_000, 256));
+        Files.write(source.resolve("small.txt"), "a small file".getBytes(StandardCharsets.UTF_8));
+        Files.write(Files.createDirectories(source.resolve("empty")).resolve("zero"), new byte[0]);
+        Path archive = dir.resolve("a.huff");
+        new ArchiveWriter(new CompressionOptions().blockSortSize(1 << 16).threads(2)).write(source, archive, OverwritePolicy.FAIL);
+
+        ArchiveReader reader = new ArchiveReader(archive);
+        assertTrue(reader.getEntries().stream().anyMatch(entry -> entry.type() == FileIO.BLOCK_SORTED_FILE_MAGIC));
+        assertEquals(4, reader.test(2));
+        Path output = dir.resolve("out");
+        reader.extract(output, List.of(), 2, OverwritePolicy.FAIL);
+        Map<String, byte[]> files = new ArchiveReader(Files.readAllBytes(archive)).readFiles();
+        for (String name : List.of("text.txt", "random.bin", "small.txt", "empty/zero")) {
+            byte[] original = Files.readAllBytes(source.resolve(name));
+            assertArrayEquals(original, Files.readAllBytes(output.resolve("src").resolve(name)), name);
+            assertArrayEquals(original, files.get("src/" + name), name);
+        }
+    }
+
+
+    private static void assertBlockRoundTrip(byte[] data) throws IOException {
+        byte[] block = BlockSort.encodeBlock(data, MAX_CODE_LENGTH);
+        assertTrue(block.length <= Integer.BYTES + data.length, "a block is never larger than raw");
+        assertArrayEquals(data, BlockSort.decodeBlock(block, data.length, FileIO.FORMAT_VERSION));
+    }
+
+    /**
+     * Decode a sorted block made of the given symbols, with primary index 0
+     */
+    private static byte[] decodeBlock(byte[] symbols, int blockSize) throws IOException {
+        byte[] chunk = ChunkedFile.encodeChunk(symbols, MAX_CODE_LENGTH);
+        ByteBuffer block = ByteBuffer.allocate(Integer.BYTES + chunk.length);
+        block.putInt(0);
+        block.put(chunk);
+        return BlockSort.decodeBlock(block.array(), blockSize, FileIO.FORMAT_VERSION);
+    }
+
+    /**
+     * @return bytes below the alphabet size, a fifth of the blocks repeating a short period
+     */
+    private static byte[] randomBlock(Random random, int n, int alphabet) {
+        byte[] data = new byte[n];
+        boolean periodic = random.nextInt(5) == 0;
+        int period = 1 + random.nextInt(5);
+        for (int i = 0; i < n; i++) {
+            data[i] = (byte) (periodic && i >= period ? data[i - period] : random.nextInt(alphabet));
+        }
+        return data;
+    }
+
+    /**
+     * @return the suffix array by comparing suffixes, a suffix that is a prefix of another one first
+     */
+    private static int[] naiveSuffixArray(int[] s) {
+        int n = s.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> {
+            for (int i = x, j = y; i < n && j < n; i++, j++) {
+                if (s[i] != s[j]) return Integer.compare(s[i], s[j]);
+            }
+            return Integer.compare(y, x);
+        });
+        return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+    }
+
+}
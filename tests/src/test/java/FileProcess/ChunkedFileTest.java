@@ -0,0 +1,97 @@
+package FileProcess;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Chunk sizes out of range, from the options and from an archive, and files that shrink while their chunks are read
+ */
+class ChunkedFileTest {
+    private static final int MAX_CODE_LENGTH = 32;
+
+    @Test
+    void chunkSizeOption() {
+        CompressionOptions options = new CompressionOptions();
+        assertEquals(CompressionOptions.MAX_CHUNK_SIZE, options.chunkSize(CompressionOptions.MAX_CHUNK_SIZE).getChunkSize());
+        assertThrows(IllegalArgumentException.class, () -> options.chunkSize(CompressionOptions.MAX_CHUNK_SIZE + 1));
+        assertThrows(IllegalArgumentException.class, () -> options.chunkSize(CompressionOptions.MIN_CHUNK_SIZE - 1));
+    }
+
+    @Test
+    void chunkSizeFromArchive() throws IOException {
+        for (int chunkSize : new int[]{CompressionOptions.MAX_CHUNK_SIZE + 1, Integer.MAX_VALUE}) {
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            FileIO.writeInt(block, chunkSize);
+            FileIO.writeInt(block, 1);
+            byte[] header = block.toByteArray();
+            // no chunk of that size is allocated
+            ArchiveException e = assertThrows(ArchiveException.class, () -> ChunkedFile.decompress(new ByteArrayInputStream(header),
+                    OutputStream.nullOutputStream(), 1, FileIO.FORMAT_VERSION));
+            assertEquals("Invalid chunk size: " + chunkSize, e.getMessage());
+            assertThrows(ArchiveException.class, () -> ChunkedFile.decompressStream(new ByteArrayInputStream(header),
+                    OutputStream.nullOutputStream(), 1, FileIO.FORMAT_VERSION));
+        }
+    }
+
+    @Test
+    void roundTrip(@TempDir Path dir) throws IOException {
+        int chunkSize = 4 * CompressionOptions.MIN_CHUNK_SIZE;
+        byte[] data = text(new Random(7), 3 * chunkSize + 100);
+        Path src = dir.resolve("data.txt");
+        Files.write(src, data);
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        ChunkedFile.compress(dir.toFile(), src.toFile(), block, FileIO.CHUNKED_FILE_MAGIC, chunkSize, 1,
+                chunk -> ChunkedFile.encodeChunk(chunk, MAX_CODE_LENGTH));
+
+        ByteArrayInputStream in = new ByteArrayInputStream(block.toByteArray());
+        assertEquals(FileIO.CHUNKED_FILE_MAGIC, in.read());
+        assertEquals("data.txt", FileIO.readString(in));
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        ChunkedFile.decompress(in, decoded, 1, FileIO.FORMAT_VERSION);
+        assertArrayEquals(data, decoded.toByteArray());
+    }
+
+    @Test
+    void fileShrinks(@TempDir Path dir) throws IOException {
+        int chunkSize = CompressionOptions.MIN_CHUNK_SIZE;
+        // cut at the end of the first chunk, the second has no byte left; cut to nothing, it starts past the end
+        for (int cut : new int[]{chunkSize, 0}) {
+            Path src = dir.resolve("shrinking" + cut);
+            Files.write(src, text(new Random(cut), 3 * chunkSize));
+            EOFException e = assertThrows(EOFException.class, () -> ChunkedFile.compress(dir.toFile(), src.toFile(),
+                    OutputStream.nullOutputStream(), FileIO.CHUNKED_FILE_MAGIC, chunkSize, 1, chunk -> {
+                        // the first chunk is read, then the file is cut before the next one
+                        try (RandomAccessFile file = new RandomAccessFile(src.toFile(), "rw")) {
+                            file.setLength(cut);
+                        }
+                        return ChunkedFile.encodeChunk(chunk, MAX_CODE_LENGTH);
+                    }));
+            assertEquals("File shrank while compressing", e.getMessage());
+        }
+    }
+
+
+    private static byte[] text(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append("chunk ").append(random.nextInt(1000)).append(" has a code of its own\n");
+        }
+        return text.substring(0, length).getBytes();
+    }
+
+}
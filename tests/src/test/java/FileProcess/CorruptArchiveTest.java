@@ -0,0 +1,214 @@
+package FileProcess;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Archives whose blocks disagree with their central directory, or whose central directory is cut, must fail
+ * {@code xf --test} and extraction, from a file on one or more threads and from a stream alike
+ */
+class CorruptArchiveTest {
+    private static final List<String> FILES = List.of("text.txt", "random.bin", "sub/small.txt");
+
+    @Test
+    void checksumMismatch(@TempDir Path dir) throws IOException {
+        byte[] archive = writeArchive(dir, new Random(21));
+        // the last byte of a stored file: the same size, another content
+        CentralDirectory.Entry stored = entry(archive, "src/random.bin");
+        assertEquals(FileIO.STORED_FILE_MAGIC, stored.type());
+        archive[(int) (stored.offset() + stored.compressedSize() - 1)] ^= 1;
+        assertCorrupt(dir, archive, "src/random.bin", "src/random.bin fails its CRC32C check, the archive is corrupt");
+    }
+
+    @Test
+    void sizeMismatch(@TempDir Path dir) throws IOException {
+        byte[] archive = writeArchive(dir, new Random(21));
+        CentralDirectory.Entry text = entry(archive, "src/text.txt");
+        long size = text.originalSize();
+        setOriginalSize(archive, "src/text.txt", size - 1);
+        assertCorrupt(dir.resolve("smaller"), archive, "src/text.txt",
+                "src/text.txt decodes to " + size + " bytes, the central directory tells " + (size - 1));
+        setOriginalSize(archive, "src/text.txt", size + 1);
+        assertCorrupt(dir.resolve("larger"), archive, "src/text.txt",
+                "src/text.txt decodes to " + size + " bytes, the central directory tells " + (size + 1));
+    }
+
+    @Test
+    void truncatedCentralDirectory(@TempDir Path dir) throws IOException {
+        byte[] archive = writeArchive(dir, new Random(21));
+        int directoryOffset = directoryOffset(archive);
+        for (int cut : new int[]{archive.length - 1, archive.length - CentralDirectory.TRAILER_SIZE, directoryOffset + 10, directoryOffset}) {
+            byte[] truncated = Arrays.copyOf(archive, cut);
+            Path file = dir.resolve("cut" + cut + ".huff");
+            Files.write(file, truncated);
+            // the trailer is found at the end of a file, which no longer has one
+            ArchiveException e = assertThrows(ArchiveException.class, () -> new ArchiveReader(file).test(1));
+            assertEquals("Invalid central directory trailer", e.getMessage());
+            assertThrows(ArchiveException.class, () -> new ArchiveReader(file).test(2));
+            assertThrows(ArchiveException.class, () -> new ArchiveReader(file).extract(dir.resolve("out" + cut), List.of(), 2, OverwritePolicy.FAIL));
+            // a stream reaches the directory after the blocks, and ends inside it
+            assertThrows(EOFException.class, () -> new ArchiveReader(truncated).test(1));
+            assertThrows(EOFException.class, () -> new ArchiveReader(truncated).readFiles());
+        }
+    }
+
+    @Test
+    void olderThanChecksums(@TempDir Path dir) throws IOException {
+        // stored files came with version 12, so the files of a version 8 archive are all coded
+        Path source = Files.createDirectories(dir.resolve("src"));
+        Random random = new Random(9);
+        Files.writeString(source.resolve("text.txt"), text(random, 40_000));
+        Files.writeString(Files.createDirectories(source.resolve("sub")).resolve("small.txt"), text(random, 500));
+        Path file = dir.resolve("a.huff");
+        new ArchiveWriter().write(source, file, OverwritePolicy.FAIL);
+        byte[] archive = withoutChecksums(Files.readAllBytes(file));
+        Files.write(file, archive);
+
+        ArchiveReader reader = new ArchiveReader(file);
+        assertTrue(reader.getEntries().stream().noneMatch(CentralDirectory.Entry::hasChecksum));
+        assertEquals(2, reader.test(1));
+        assertEquals(2, reader.test(2));
+        assertEquals(2, new ArchiveReader(archive).test(1));
+        Path output = dir.resolve("out");
+        reader.extract(output, List.of(), 2, OverwritePolicy.FAIL);
+        Map<String, byte[]> files = new ArchiveReader(archive).readFiles();
+        for (String name : List.of("text.txt", "sub/small.txt")) {
+            byte[] original = Files.readAllBytes(source.resolve(name));
+            assertArrayEquals(original, Files.readAllBytes(output.resolve("src").resolve(name)), name);
+            assertArrayEquals(original, files.get("src/" + name), name);
+        }
+
+        // without checksums the sizes are still checked
+        long size = entry(archive, "src/text.txt").originalSize();
+        setOriginalSize(archive, "src/text.txt", size - 1);
+        assertCorrupt(dir.resolve("smaller"), archive, "src/text.txt",
+                "src/text.txt decodes to " + size + " bytes, the central directory tells " + (size - 1));
+    }
+
+
+    /**
+     * Test and extract a corrupt archive every way, each must fail: a test with the message, an extraction naming the
+     * path, as a file laid out at the size of the central directory may stop at a write past it
+     */
+    private static void assertCorrupt(Path dir, byte[] archive, String path, String message) throws IOException {
+        Files.createDirectories(dir);
+        Path file = dir.resolve("corrupt.huff");
+        Files.write(file, archive);
+        ArchiveReader reader = new ArchiveReader(file);
+        assertEquals(message, assertFails(path, () -> reader.test(1)));
+        assertEquals(message, assertFails(path, () -> reader.test(2)));
+        assertFails(path, () -> reader.extract(dir.resolve("out1"), List.of(), 1, OverwritePolicy.FAIL));
+        assertFails(path, () -> reader.extract(dir.resolve("out2"), List.of(), 2, OverwritePolicy.FAIL));
+        ArchiveReader stream = new ArchiveReader(archive);
+        assertEquals(message, assertFails(path, () -> stream.test(1)));
+        assertEquals(message, assertFails(path, () -> stream.extract(dir.resolve("out3"), OverwritePolicy.FAIL)));
+        assertEquals(message, assertFails(path, stream::readFiles));
+    }
+
+    /**
+     * @return the message of the ArchiveException thrown, which names the path
+     */
+    private static String assertFails(String path, Executable executable) {
+        String message = assertThrows(ArchiveException.class, executable).getMessage();
+        assertTrue(message.contains(path), message);
+        return message;
+    }
+
+    /**
+     * @return the bytes of an archive of a text, which is coded, random bytes, which are stored, and a small text
+     */
+    private static byte[] writeArchive(Path dir, Random random) throws IOException {
+        Path source = Files.createDirectories(dir.resolve("src"));
+        Files.writeString(source.resolve("text.txt"), text(random, 60_000));
+        byte[] bytes = new byte[20_000];
+        random.nextBytes(bytes);
+        Files.write(source.resolve("random.bin"), bytes);
+        Files.writeString(Files.createDirectories(source.resolve("sub")).resolve("small.txt"), text(random, 300));
+        Path file = dir.resolve("a.huff");
+        new ArchiveWriter().write(source, file, OverwritePolicy.FAIL);
+        byte[] archive = Files.readAllBytes(file);
+        for (String name : FILES) {
+            assertFalse(entry(archive, "src/" + name).isDirectory());
+        }
+        return archive;
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append("entry ").append(random.nextInt(1000)).append(" is checked against the central directory\n");
+        }
+        return text.substring(0, length);
+    }
+
+    private static CentralDirectory.Entry entry(byte[] archive, String path) throws IOException {
+        return CentralDirectory.read(archive).stream().filter(entry -> entry.path().equals(path)).findFirst().orElseThrow();
+    }
+
+    private static int directoryOffset(byte[] archive) {
+        return (int) ByteBuffer.wrap(archive).getLong(archive.length - CentralDirectory.TRAILER_SIZE);
+    }
+
+    /**
+     * Overwrite the originalSize of an entry, found before its path at the end of the central directory
+     */
+    private static void setOriginalSize(byte[] archive, String path, long size) {
+        byte[] name = (path + '\0').getBytes(StandardCharsets.US_ASCII);
+        int end = archive.length - CentralDirectory.TRAILER_SIZE;
+        int at = -1;
+        for (int i = directoryOffset(archive); i + name.length <= end && at < 0; i++) {
+            if (Arrays.equals(archive, i, i + name.length, name, 0, name.length)) at = i;
+        }
+        assertTrue(at >= 0, path);
+        int version = archive[2];
+        // checksum(4 bytes) and modifiedTime(8 bytes) come between originalSize and the path
+        int afterSize = at - (version >= CentralDirectory.MIN_CHECKSUM_VERSION ? Integer.BYTES + Long.BYTES : 0);
+        ByteBuffer.wrap(archive).putLong(afterSize - Long.BYTES, size);
+    }
+
+    /**
+     * @return the archive with the version byte and the central directory of version 8, whose entries have no
+     * checksum and no modification time
+     */
+    private static byte[] withoutChecksums(byte[] archive) throws IOException {
+        List<CentralDirectory.Entry> entries = CentralDirectory.read(archive);
+        int directoryOffset = directoryOffset(archive);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(archive, 0, directoryOffset);
+        out.write(FileIO.CENTRAL_DIRECTORY_MAGIC);
+        FileIO.writeInt(out, entries.size());
+        for (CentralDirectory.Entry entry : entries) {
+            out.write(entry.type());
+            FileIO.writeLong(out, entry.offset());
+            FileIO.writeLong(out, entry.compressedSize());
+            FileIO.writeLong(out, entry.originalSize());
+            FileIO.writeString(out, entry.path());
+        }
+        FileIO.writeLong(out, directoryOffset);
+        out.write(FileIO.CENTRAL_DIRECTORY_END_SIGN);
+        byte[] old = out.toByteArray();
+        old[2] = (byte) (CentralDirectory.MIN_CHECKSUM_VERSION - 1);
+        return old;
+    }
+
+}
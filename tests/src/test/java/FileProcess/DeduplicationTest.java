@@ -0,0 +1,141 @@
+package FileProcess;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Archives written in dedup mode: which files become duplicates, what their entries record, and how a duplicate is
+ * extracted with or without its original
+ */
+class DeduplicationTest {
+    private static final List<String> COPIES = List.of("src/a.txt", "src/sub/b.txt", "src/sub/deep/c.txt");
+    private static final List<String> FILES = List.of("a.txt", "sub/b.txt", "sub/deep/c.txt", "same-size.txt",
+            "tiny1", "tiny2", "empty1", "empty2");
+
+    @Test
+    void duplicatesRoundTrip(@TempDir Path dir) throws IOException {
+        Path source = writeSource(dir);
+        Path archive = dir.resolve("a.huff");
+        new ArchiveWriter(new CompressionOptions().dedup(true)).write(source, archive, OverwritePolicy.FAIL);
+        Path plain = dir.resolve("plain.huff");
+        new ArchiveWriter().write(source, plain, OverwritePolicy.FAIL);
+        assertTrue(Files.size(archive) < Files.size(plain));
+
+        ArchiveReader reader = new ArchiveReader(archive);
+        List<CentralDirectory.Entry> entries = reader.getEntries();
+        Map<String, CentralDirectory.Entry> byPath = entries.stream()
+                .collect(Collectors.toMap(CentralDirectory.Entry::path, entry -> entry));
+        // the first copy keeps its block, the other two refer to it
+        List<CentralDirectory.Entry> duplicates = entries.stream()
+                .filter(entry -> entry.type() == FileIO.DUPLICATE_FILE_MAGIC).collect(Collectors.toList());
+        assertEquals(2, duplicates.size());
+        CentralDirectory.Entry original = byPath.get(original(entries));
+        for (CentralDirectory.Entry duplicate : duplicates) {
+            assertTrue(COPIES.contains(duplicate.path()), duplicate.path());
+            byte[] content = Files.readAllBytes(dir.resolve(duplicate.path()));
+            assertEquals(original.originalSize(), duplicate.originalSize());
+            assertEquals(original.checksum(), duplicate.checksum());
+            assertEquals(content.length, duplicate.originalSize());
+        }
+        // same size but another content, and copies below the smallest deduplicated size, keep blocks of their own
+        for (String name : List.of("same-size.txt", "tiny1", "tiny2", "empty1", "empty2")) {
+            assertFalse(byPath.get("src/" + name).type() == FileIO.DUPLICATE_FILE_MAGIC, name);
+        }
+        assertTrue(Files.size(source.resolve("tiny1")) < Deduplication.MIN_FILE_SIZE);
+
+        assertEquals(FILES.size(), reader.test(1));
+        assertEquals(FILES.size(), reader.test(2));
+        for (int threads : new int[]{1, 2}) {
+            Path output = dir.resolve("out" + threads);
+            reader.extract(output, List.of(), threads, OverwritePolicy.FAIL);
+            for (String name : FILES) {
+                assertArrayEquals(Files.readAllBytes(source.resolve(name)), Files.readAllBytes(output.resolve("src").resolve(name)), name);
+            }
+        }
+        Map<String, byte[]> files = new ArchiveReader(Files.readAllBytes(archive)).readFiles();
+        for (String name : FILES) {
+            assertArrayEquals(Files.readAllBytes(source.resolve(name)), files.get("src/" + name), name);
+        }
+        // duplicates are decoded again from their original
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        reader.decompressTo(Channels.newChannel(stream));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (CentralDirectory.Entry entry : entries) {
+            if (!entry.isDirectory()) expected.write(Files.readAllBytes(dir.resolve(entry.path())));
+        }
+        assertArrayEquals(expected.toByteArray(), stream.toByteArray());
+    }
+
+    @Test
+    void duplicateWithoutItsOriginal(@TempDir Path dir) throws IOException {
+        Path source = writeSource(dir);
+        Path archive = dir.resolve("a.huff");
+        new ArchiveWriter(new CompressionOptions().dedup(true)).write(source, archive, OverwritePolicy.FAIL);
+        ArchiveReader reader = new ArchiveReader(archive);
+        List<CentralDirectory.Entry> entries = reader.getEntries();
+        String duplicate = entries.stream()
+                .filter(entry -> entry.type() == FileIO.DUPLICATE_FILE_MAGIC).findFirst().orElseThrow().path();
+        String original = original(entries);
+
+        for (int threads : new int[]{1, 2}) {
+            Path output = dir.resolve("out" + threads);
+            assertEquals(1, reader.extract(output, List.of(duplicate), threads, OverwritePolicy.FAIL));
+            assertArrayEquals(Files.readAllBytes(dir.resolve(duplicate)), Files.readAllBytes(output.resolve(duplicate)));
+            assertFalse(Files.exists(output.resolve(original)));
+        }
+    }
+
+
+    /**
+     * @return path of the copy that keeps its block
+     */
+    private static String original(List<CentralDirectory.Entry> entries) {
+        return entries.stream().filter(entry -> COPIES.contains(entry.path()) && entry.type() != FileIO.DUPLICATE_FILE_MAGIC)
+                .findFirst().orElseThrow().path();
+    }
+
+    /**
+     * @return a directory with three copies of a text, a file of the same size with another content, two copies of a
+     * file below the smallest deduplicated size, and two empty files
+     */
+    private static Path writeSource(Path dir) throws IOException {
+        Path source = Files.createDirectories(dir.resolve("src"));
+        Files.createDirectories(source.resolve("sub/deep"));
+        Random random = new Random(23);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 30_000) {
+            text.append("copy ").append(random.nextInt(1000)).append(" of a vendored source\n");
+        }
+        byte[] shared = text.toString().getBytes();
+        for (String name : List.of("a.txt", "sub/b.txt", "sub/deep/c.txt")) {
+            Files.write(source.resolve(name), shared);
+        }
+        byte[] other = Arrays.copyOf(shared, shared.length);
+        other[other.length / 2] ^= 1;
+        Files.write(source.resolve("same-size.txt"), other);
+        byte[] tiny = Arrays.copyOf(shared, (int) Deduplication.MIN_FILE_SIZE - 1);
+        Files.write(source.resolve("tiny1"), tiny);
+        Files.write(source.resolve("tiny2"), tiny);
+        Files.write(source.resolve("empty1"), new byte[0]);
+        Files.write(source.resolve("empty2"), new byte[0]);
+        return source;
+    }
+
+}
@@ -0,0 +1,143 @@
+package FileProcess;
+
+import BitwiseStream.BitWriter;
+import Huffman.HuffmanTree;
+import Huffman.TreeCanonization;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Archives written before the format version byte, laid out by hand as the first cf wrote them
+ */
+class LegacyArchiveTest {
+
+    @Test
+    void readLegacyArchive(@TempDir Path dir) throws IOException {
+        Map<String, byte[]> files = sampleFiles();
+        Path archive = dir.resolve("old.huf");
+        Files.write(archive, legacyArchive(files));
+
+        ArchiveReader reader = new ArchiveReader(archive);
+        assertEquals(List.of("src", "src/text.txt", "src/skewed.bin", "src/empty"), reader.getPaths());
+        assertNull(reader.getEntries());
+        assertEquals(3, reader.test(1));
+
+        Map<String, byte[]> decoded = new ArchiveReader(Files.readAllBytes(archive)).readFiles();
+        assertEquals(files.keySet(), decoded.keySet());
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            assertArrayEquals(file.getValue(), decoded.get(file.getKey()), file.getKey());
+        }
+
+        Path output = dir.resolve("out");
+        assertEquals(4, reader.extract(output, OverwritePolicy.FAIL));
+        assertTrue(Files.isDirectory(output.resolve("src")));
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            assertArrayEquals(file.getValue(), Files.readAllBytes(output.resolve(file.getKey())), file.getKey());
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        assertEquals(3, reader.decompressTo(Channels.newChannel(stream)));
+        ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+        for (byte[] data : files.values()) {
+            concatenated.write(data);
+        }
+        assertArrayEquals(concatenated.toByteArray(), stream.toByteArray());
+    }
+
+    @Test
+    void unknownVersion() {
+        byte[] archive = {(byte) FileIO.HEADER_MAGIC_1, (byte) FileIO.HEADER_MAGIC_2, (byte) (FileIO.FORMAT_VERSION + 1)};
+        UnsupportedVersionException e = assertThrows(UnsupportedVersionException.class,
+                () -> new ArchiveReader(archive).getPaths());
+        assertEquals(FileIO.FORMAT_VERSION + 1, e.getVersion());
+    }
+
+
+    /**
+     * @return a text, a file with codes too long for the root table, and an empty file, under the directory src
+     */
+    private static Map<String, byte[]> sampleFiles() {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(1);
+        while (text.length() < 50_000) {
+            text.append("archive ").append(random.nextInt(1000)).append(" has no version byte\n");
+        }
+        files.put("src/text.txt", text.toString().getBytes(StandardCharsets.UTF_8));
+        // Fibonacci frequencies give codes up to 25 bits
+        ByteArrayOutputStream skewed = new ByteArrayOutputStream();
+        int previous = 1;
+        int frequency = 1;
+        for (int symbol = 0; symbol < 25; symbol++) {
+            for (int i = 0; i < frequency; i++) {
+                skewed.write(symbol);
+            }
+            int next = previous + frequency;
+            previous = frequency;
+            frequency = next;
+        }
+        files.put("src/skewed.bin", skewed.toByteArray());
+        files.put("src/empty", new byte[0]);
+        return files;
+    }
+
+    /**
+     * Lay out the magic numbers, the header of paths, then a DirectoryBlock for src and a FileBlock for every file:
+     * its path, a lengthsTable of one byte per bytePattern and the codes of the bytes and EOF
+     */
+    private static byte[] legacyArchive(Map<String, byte[]> files) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(FileIO.HEADER_MAGIC_1);
+        out.write(FileIO.HEADER_MAGIC_2);
+        writeLegacyString(out, "src");
+        for (String path : files.keySet()) {
+            writeLegacyString(out, path);
+        }
+        out.write(FileIO.HEADER_END_SIGN);
+
+        out.write(FileIO.DIRECTORY_MAGIC);
+        writeLegacyString(out, "src");
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            out.write(FileIO.SINGLE_FILE_MAGIC);
+            writeLegacyString(out, file.getKey());
+            byte[] data = file.getValue();
+            FrequencyTable freqTable = new FrequencyTable();
+            freqTable.increment(data, 0, data.length);
+            freqTable.increment(256);  // EOF
+            TreeCanonization canonCode = new TreeCanonization(new HuffmanTree(freqTable));
+            for (int length : canonCode.getLengthsTable()) {
+                out.write(length);
+            }
+            BitWriter bits = new BitWriter(out);
+            Encoder encoder = new Encoder(bits, canonCode.getCodes(), canonCode.getCodeLengths());
+            encoder.write(data, 0, data.length);
+            encoder.write(256);  // EOF
+            bits.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeLegacyString(ByteArrayOutputStream out, String s) {
+        out.writeBytes(s.getBytes(StandardCharsets.US_ASCII));
+        out.write(FileIO.STRING_END_SIGN);
+    }
+
+}
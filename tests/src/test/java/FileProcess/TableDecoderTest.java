@@ -0,0 +1,240 @@
+package FileProcess;
+
+import BitwiseStream.BitInputStream;
+import BitwiseStream.BitWriter;
+import Huffman.CodeLengths;
+import Huffman.TreeCanonization;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Differential tests of the table-driven {@link TableDecoder} against the tree-walking {@link Decoder}
+ * <p>
+ * Each length table is canonical and complete, as written by the encoder, with the EOF symbol coded.
+ * Messages are encoded with {@link Encoder} and must decode to the same symbols both ways.
+ */
+class TableDecoderTest {
+    private static final int EOF = 256;
+
+    @Test
+    void oneByteValue() throws IOException {
+        int[] lengthsTable = new int[FrequencyTable.BYTE_PATTERNS_NUM];
+        lengthsTable['a'] = 1;
+        lengthsTable[EOF] = 1;
+        int[] message = new int[1000];
+        Arrays.fill(message, 'a');
+        assertDecodes(lengthsTable, message);
+    }
+
+    @Test
+    void singleCode() throws IOException {
+        // an incomplete code the tree can not hold: the only code is 0, and 1 decodes to nothing
+        int[] lengthsTable = new int[FrequencyTable.BYTE_PATTERNS_NUM];
+        lengthsTable[EOF] = 1;
+        TableDecoder decoder = new TableDecoder(new BitInputStream(new byte[]{0x7F}, 0, 1), lengthsTable, 1);
+        assertEquals(EOF, decoder.read());
+        assertThrows(ArchiveException.class, decoder::read);
+    }
+
+    @Test
+    void rootTableOnly() throws IOException {
+        Random random = new Random(11);
+        for (int maxCodeLength = CodeLengths.MIN_CODE_LENGTH_LIMIT; maxCodeLength <= TableDecoder.MAX_ROOT_BITS; maxCodeLength++) {
+            int[] lengthsTable = randomLengths(random, maxCodeLength, 1 << 12);
+            assertDecodes(lengthsTable, randomMessage(random, lengthsTable, 5000));
+        }
+    }
+
+    @Test
+    void subTables() throws IOException {
+        // longest codes from 12 to 19 bits go through second-level tables of up to MAX_SUB_BITS
+        for (int longest = TableDecoder.ROOT_BITS + 1; longest <= TableDecoder.ROOT_BITS + TableDecoder.MAX_SUB_BITS; longest++) {
+            int[] lengthsTable = chain(longest);
+            assertDecodes(lengthsTable, randomMessage(new Random(longest), lengthsTable, 5000));
+        }
+    }
+
+    @Test
+    void bitByBit() throws IOException {
+        // codes over 19 bits are decoded by readSlow
+        for (int longest = TableDecoder.ROOT_BITS + TableDecoder.MAX_SUB_BITS + 1; longest <= CodeLengths.MAX_CODE_LENGTH; longest++) {
+            int[] lengthsTable = chain(longest);
+            int[] message = new int[longest];
+            for (int i = 0; i < longest; i++) {
+                message[i] = i;
+            }
+            assertDecodes(lengthsTable, message);
+        }
+    }
+
+    @Test
+    void fibonacciFrequencies() throws IOException {
+        // the most skewed frequencies give every kind of root entry at once: direct, sub-table and bit by bit
+        FrequencyTable freqTable = new FrequencyTable();
+        int previous = 1;
+        int frequency = 1;
+        for (int symbol = 0; symbol < 27; symbol++) {
+            for (int i = 0; i < frequency; i++) {
+                freqTable.increment(symbol);
+            }
+            int next = previous + frequency;
+            previous = frequency;
+            frequency = next;
+        }
+        freqTable.increment(EOF);
+        int[] lengthsTable = CodeLengths.compute(freqTable, CodeLengths.MAX_CODE_LENGTH);
+        assertEquals(27, Arrays.stream(lengthsTable).max().orElse(0));
+        assertDecodes(lengthsTable, randomMessage(new Random(27), lengthsTable, 20000));
+    }
+
+    @Test
+    void randomTables() throws IOException {
+        Random random = new Random(2024);
+        for (int i = 0; i < 200; i++) {
+            int maxCodeLength = CodeLengths.MIN_CODE_LENGTH_LIMIT + random.nextInt(CodeLengths.MAX_CODE_LENGTH - CodeLengths.MIN_CODE_LENGTH_LIMIT + 1);
+            int[] lengthsTable = randomLengths(random, maxCodeLength, 1 + random.nextInt(1 << 16));
+            assertDecodes(lengthsTable, randomMessage(random, lengthsTable, random.nextInt(3000)));
+        }
+    }
+
+    @Test
+    void truncatedInput() throws IOException {
+        Random random = new Random(7);
+        for (int[] lengthsTable : List.of(randomLengths(random, 11, 1 << 12), chain(16), chain(CodeLengths.MAX_CODE_LENGTH))) {
+            int[] message = randomMessage(random, lengthsTable, 2000);
+            byte[] encoded = encode(lengthsTable, message);
+            for (int cut : new int[]{0, 1, encoded.length / 2, encoded.length - 1}) {
+                byte[] truncated = Arrays.copyOf(encoded, cut);
+                assertThrows(EOFException.class, () -> decodeWithTables(lengthsTable, truncated));
+                assertThrows(EOFException.class, () -> decodeWithTree(lengthsTable, truncated));
+            }
+        }
+    }
+
+
+    /**
+     * Encode a message, then check that both decoders and the bulk read of a table decoder with shared tables give it back
+     */
+    private static void assertDecodes(int[] lengthsTable, int[] message) throws IOException {
+        byte[] encoded = encode(lengthsTable, message);
+        assertArrayEquals(message, decodeWithTree(lengthsTable, encoded), "tree decoder");
+        assertArrayEquals(message, decodeWithTables(lengthsTable, encoded), "table decoder");
+
+        int maxCodeLength = Arrays.stream(lengthsTable).max().orElse(0);
+        byte[] bytes = new byte[message.length];
+        try (BitInputStream in = new BitInputStream(encoded, 0, encoded.length)) {
+            TableDecoder decoder = new TableDecoder(TableDecoder.tables(lengthsTable, maxCodeLength), in);
+            assertEquals(message.length, decoder.read(bytes, 0, bytes.length));
+            assertEquals(EOF, decoder.read());
+        }
+        for (int i = 0; i < message.length; i++) {
+            assertEquals(message[i], bytes[i] & 0xFF, "bulk read");
+        }
+    }
+
+    /**
+     * @return the message followed by the EOF symbol, coded with the canonical code of the lengths
+     */
+    private static byte[] encode(int[] lengthsTable, int[] message) throws IOException {
+        TreeCanonization canonCode = new TreeCanonization(lengthsTable);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitWriter out = new BitWriter(bytes);
+        Encoder encoder = new Encoder(out, canonCode.getCodes(), canonCode.getCodeLengths());
+        for (int symbol : message) {
+            encoder.write(symbol);
+        }
+        encoder.write(EOF);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the symbols before EOF
+     */
+    private static int[] decodeWithTables(int[] lengthsTable, byte[] encoded) throws IOException {
+        try (BitInputStream in = new BitInputStream(encoded, 0, encoded.length)) {
+            TableDecoder decoder = new TableDecoder(in, lengthsTable, Arrays.stream(lengthsTable).max().orElse(0));
+            List<Integer> symbols = new ArrayList<>();
+            int symbol;
+            while ((symbol = decoder.read()) != EOF) {
+                symbols.add(symbol);
+            }
+            return symbols.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * @return the symbols before EOF
+     */
+    private static int[] decodeWithTree(int[] lengthsTable, byte[] encoded) throws IOException {
+        try (BitInputStream in = new BitInputStream(encoded, 0, encoded.length)) {
+            Decoder decoder = new Decoder(in, new TreeCanonization(lengthsTable).getHuffmanTree().getRoot());
+            List<Integer> symbols = new ArrayList<>();
+            int symbol;
+            while ((symbol = decoder.read()) != EOF) {
+                symbols.add(symbol);
+            }
+            return symbols.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * @return lengths of a complete code where symbol i has length i + 1, and the last byte value and EOF
+     * share the longest length
+     */
+    private static int[] chain(int longest) {
+        int[] lengthsTable = new int[FrequencyTable.BYTE_PATTERNS_NUM];
+        for (int symbol = 0; symbol < longest; symbol++) {
+            lengthsTable[symbol] = Math.min(symbol + 1, longest);
+        }
+        lengthsTable[EOF] = longest;
+        return lengthsTable;
+    }
+
+    /**
+     * @return code lengths of random frequencies, from flat to skewed, with EOF coded
+     */
+    private static int[] randomLengths(Random random, int maxCodeLength, int maxFrequency) {
+        FrequencyTable freqTable = new FrequencyTable();
+        int numUsed = 1 + random.nextInt(FrequencyTable.BYTE_PATTERNS_NUM - 1);
+        double skew = random.nextDouble() * 8;
+        for (int i = 0; i < numUsed; i++) {
+            int symbol = random.nextInt(FrequencyTable.BYTE_PATTERNS_NUM - 1);
+            int frequency = 1 + (int) (maxFrequency * Math.pow(random.nextDouble(), skew));
+            for (int j = 0; j < frequency; j++) {
+                freqTable.increment(symbol);
+            }
+        }
+        freqTable.increment(EOF);
+        return CodeLengths.compute(freqTable, maxCodeLength);
+    }
+
+    /**
+     * @return byte values drawn evenly from the ones with a code
+     */
+    private static int[] randomMessage(Random random, int[] lengthsTable, int length) {
+        int[] coded = new int[EOF];
+        int numCoded = 0;
+        for (int symbol = 0; symbol < EOF; symbol++) {
+            if (lengthsTable[symbol] > 0) coded[numCoded++] = symbol;
+        }
+        int[] message = new int[length];
+        for (int i = 0; i < length; i++) {
+            message[i] = coded[random.nextInt(numCoded)];
+        }
+        return message;
+    }
+
+}
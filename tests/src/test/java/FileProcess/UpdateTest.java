@@ -0,0 +1,205 @@
+package FileProcess;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Updates of an archive: which blocks are copied from the old archive and which are encoded again, and that the
+ * result extracts to the source as it is now, with every checksum checked
+ */
+class UpdateTest {
+
+    @Test
+    void modifyAddAndRemove(@TempDir Path dir) throws IOException {
+        Path source = Files.createDirectories(dir.resolve("src"));
+        Random random = new Random(22);
+        Files.writeString(source.resolve("a.txt"), text(random, 20_000));
+        Files.writeString(source.resolve("b.txt"), text(random, 10_000));
+        Files.writeString(source.resolve("c.txt"), text(random, 5_000));
+        Files.write(Files.createDirectories(source.resolve("sub")).resolve("d.bin"), randomBytes(random, 5_000));
+        Path archive = dir.resolve("a.huff");
+        ArchiveWriter writer = new ArchiveWriter();
+        writer.write(source, archive, OverwritePolicy.FAIL);
+
+        ArchiveWriter.UpdateSummary summary = writer.update(source, archive, false);
+        assertEquals(4, summary.copiedFiles());
+        assertEquals(0, summary.encodedFiles());
+        assertArchiveHolds(archive, source, dir.resolve("out1"));
+
+        Files.writeString(source.resolve("b.txt"), text(random, 12_000));
+        Files.writeString(source.resolve("e.txt"), text(random, 3_000));
+        Files.delete(source.resolve("c.txt"));
+        summary = writer.update(source, archive, false);
+        assertEquals(2, summary.copiedFiles());
+        assertEquals(2, summary.encodedFiles());
+        List<String> paths = new ArchiveReader(archive).getPaths();
+        assertTrue(paths.contains("src/e.txt"));
+        assertFalse(paths.contains("src/c.txt"));
+        assertArchiveHolds(archive, source, dir.resolve("out2"));
+    }
+
+    @Test
+    void solidGroups(@TempDir Path dir) throws IOException {
+        Path source = Files.createDirectories(dir.resolve("src"));
+        Random random = new Random(7);
+        for (int i = 0; i < 10; i++) {
+            Files.writeString(source.resolve("small" + i + ".txt"), text(random, 200));
+        }
+        Files.writeString(source.resolve("large.txt"), text(random, 50_000));
+        Path archive = dir.resolve("a.huff");
+        ArchiveWriter writer = new ArchiveWriter(new CompressionOptions().solidGroupSize(1 << 12));
+        writer.write(source, archive, OverwritePolicy.FAIL);
+        assertTrue(new ArchiveReader(archive).getEntries().stream().anyMatch(entry -> entry.type() == FileIO.SOLID_GROUP_MAGIC));
+
+        ArchiveWriter.UpdateSummary summary = writer.update(source, archive, false);
+        assertEquals(11, summary.copiedFiles());
+        assertEquals(0, summary.encodedFiles());
+        assertArchiveHolds(archive, source, dir.resolve("out1"));
+
+        // a changed member encodes its whole group again
+        Files.writeString(source.resolve("small3.txt"), text(random, 300));
+        summary = writer.update(source, archive, false);
+        assertEquals(1, summary.copiedFiles());
+        assertEquals(10, summary.encodedFiles());
+        assertArchiveHolds(archive, source, dir.resolve("out2"));
+    }
+
+    @Test
+    void duplicates(@TempDir Path dir) throws IOException {
+        Path source = Files.createDirectories(dir.resolve("src"));
+        Random random = new Random(23);
+        byte[] shared = text(random, 8_000).getBytes(StandardCharsets.UTF_8);
+        Files.write(source.resolve("shared.txt"), shared);
+        Files.write(Files.createDirectories(source.resolve("sub")).resolve("shared.txt"), shared);
+        Files.writeString(source.resolve("unique.txt"), text(random, 4_000));
+        Path archive = dir.resolve("a.huff");
+        ArchiveWriter writer = new ArchiveWriter(new CompressionOptions().dedup(true));
+        writer.write(source, archive, OverwritePolicy.FAIL);
+
+        // duplicates are written again, and counted neither as copied nor as encoded
+        ArchiveWriter.UpdateSummary summary = writer.update(source, archive, false);
+        assertEquals(2, summary.copiedFiles());
+        assertEquals(0, summary.encodedFiles());
+        assertArchiveHolds(archive, source, dir.resolve("out1"));
+
+        Files.writeString(source.resolve("unique.txt"), text(random, 5_000));
+        summary = writer.update(source, archive, false);
+        assertEquals(1, summary.copiedFiles());
+        assertEquals(1, summary.encodedFiles());
+        assertTrue(new ArchiveReader(archive).getEntries().stream().anyMatch(entry -> entry.type() == FileIO.DUPLICATE_FILE_MAGIC));
+        assertArchiveHolds(archive, source, dir.resolve("out2"));
+
+        // the first copy in archive order is the original, the duplicate is encoded once its original changes
+        String duplicate = new ArchiveReader(archive).getEntries().stream()
+                .filter(entry -> entry.type() == FileIO.DUPLICATE_FILE_MAGIC).findFirst().orElseThrow().path();
+        Path original = source.resolve(duplicate.equals("src/shared.txt") ? "sub/shared.txt" : "shared.txt");
+        Files.writeString(original, text(random, 9_000));
+        summary = writer.update(source, archive, false);
+        assertEquals(1, summary.copiedFiles());
+        assertEquals(2, summary.encodedFiles());
+        assertFalse(new ArchiveReader(archive).getEntries().stream().anyMatch(entry -> entry.type() == FileIO.DUPLICATE_FILE_MAGIC));
+        assertArchiveHolds(archive, source, dir.resolve("out3"));
+    }
+
+    @Test
+    void compareContent(@TempDir Path dir) throws IOException {
+        Path source = Files.createDirectories(dir.resolve("src"));
+        Random random = new Random(5);
+        Files.writeString(source.resolve("a.txt"), text(random, 10_000));
+        Files.writeString(source.resolve("b.txt"), text(random, 10_000));
+        Path archive = dir.resolve("a.huff");
+        ArchiveWriter writer = new ArchiveWriter();
+        writer.write(source, archive, OverwritePolicy.FAIL);
+
+        // touched, not changed: copied when compared by content, and its new time is recorded
+        Path touched = source.resolve("a.txt");
+        Files.setLastModifiedTime(touched, FileTime.fromMillis(Files.getLastModifiedTime(touched).toMillis() + 60_000));
+        ArchiveWriter.UpdateSummary summary = writer.update(source, archive, true);
+        assertEquals(2, summary.copiedFiles());
+        assertEquals(0, summary.encodedFiles());
+        summary = writer.update(source, archive, false);
+        assertEquals(2, summary.copiedFiles());
+        assertEquals(0, summary.encodedFiles());
+
+        // touched again, encoded when compared by time
+        Files.setLastModifiedTime(touched, FileTime.fromMillis(Files.getLastModifiedTime(touched).toMillis() + 60_000));
+        summary = writer.update(source, archive, false);
+        assertEquals(1, summary.copiedFiles());
+        assertEquals(1, summary.encodedFiles());
+
+        // changed in place with its size and time kept: only the checksum tells
+        Path changed = source.resolve("b.txt");
+        byte[] content = Files.readAllBytes(changed);
+        content[content.length / 2] ^= 1;
+        FileTime time = Files.getLastModifiedTime(changed);
+        Files.write(changed, content);
+        Files.setLastModifiedTime(changed, time);
+        summary = writer.update(source, archive, true);
+        assertEquals(1, summary.copiedFiles());
+        assertEquals(1, summary.encodedFiles());
+        assertArchiveHolds(archive, source, dir.resolve("out"));
+    }
+
+
+    /**
+     * Test the archive, which checks the CRC32C of every file, then extract it on two threads and compare it with the
+     * source file by file
+     */
+    private static void assertArchiveHolds(Path archive, Path source, Path output) throws IOException {
+        Map<String, byte[]> expected = readTree(source);
+        ArchiveReader reader = new ArchiveReader(archive);
+        assertEquals(expected.size(), reader.test(2));
+        reader.extract(output, List.of(), 2, OverwritePolicy.FAIL);
+        Map<String, byte[]> extracted = readTree(output.resolve(source.getFileName()));
+        assertEquals(expected.keySet(), extracted.keySet());
+        for (Map.Entry<String, byte[]> file : expected.entrySet()) {
+            assertArrayEquals(file.getValue(), extracted.get(file.getKey()), file.getKey());
+        }
+    }
+
+    /**
+     * @return contents of the regular files under a directory, by relative path
+     */
+    private static Map<String, byte[]> readTree(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            Map<String, byte[]> tree = new TreeMap<>();
+            for (Path f : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                tree.put(directory.relativize(f).toString(), Files.readAllBytes(f));
+            }
+            return tree;
+        }
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append("line ").append(random.nextInt(10_000)).append(" of a file that an update may keep\n");
+        }
+        return text.substring(0, length);
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,98 @@
+import FileProcess.Codebook;
+import FileProcess.CompressionOptions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Class for command line interface of codebook training
+ * <p>
+ * Usage: java train [options] ID Sample...
+ * <p>
+ * Options: --max-code-length N, --codebook-dir DIR, --force
+ * <p>
+ * The samples, files or directories, are counted once and the code is saved as ID.codebook
+ * in the codebook directory, for {@code cf --codebook ID}. An existing ID is only replaced with --force,
+ * as the archives coded with the old codebook can not be decoded anymore.
+ */
+public final class train {
+
+    // Command line main application function.
+    public static void main(String[] args) {
+        CompressionOptions options = new CompressionOptions();
+        List<String> paths = new ArrayList<>();
+        File directory = Codebook.getDirectory();
+        boolean force = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--max-code-length" -> options.maxCodeLength(intArgument(args, ++i));
+                    case "--codebook-dir" -> directory = new File(argument(args, ++i));
+                    case "--force" -> force = true;
+                    default -> paths.add(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+            return;
+        }
+        if (paths.size() < 2) {
+            printUsage();
+            System.exit(1);
+            return;
+        }
+
+        List<File> samples = new ArrayList<>();
+        for (String path : paths.subList(1, paths.size())) {
+            samples.add(new File(path));
+        }
+        try {
+            Codebook codebook = Codebook.train(paths.get(0), samples, options.getMaxCodeLength());
+            File file = codebook.save(directory, force);
+            System.out.println("Codebook saved to " + file);
+        } catch (FileAlreadyExistsException e) {
+            System.err.println("Codebook " + paths.get(0) + " exists in " + directory + ", archives coded with it need it unchanged;"
+                    + " choose another ID, or --force to replace it");
+            System.exit(1);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Fail to train codebook: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return the value of the option at args[i - 1]
+     * @throws IllegalArgumentException if the value is missing
+     */
+    private static String argument(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    /**
+     * @return the value of the option at args[i - 1]
+     * @throws IllegalArgumentException if the value is missing or not an integer
+     */
+    private static int intArgument(String[] args, int i) {
+        String value = argument(args, i);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(args[i - 1] + " needs an integer, got " + value);
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: java train [options] <ID> <sample>...");
+        System.err.println("  --max-code-length N   longest Huffman code, 9 to 32 bits (default 32)");
+        System.err.println("  --codebook-dir DIR    directory of codebooks (default $" + Codebook.DIRECTORY_ENV + " or ~/.huff/codebooks)");
+        System.err.println("  --force               replace the codebook saved with the ID, the archives coded with it can not be decoded anymore");
+    }
+
+}
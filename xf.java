@@ -1,47 +1,223 @@
-import FileProcess.Decompression;
+import Daemon.JobClient;
+import Daemon.Terminal;
+import FileProcess.ArchiveReader;
+import FileProcess.Codebook;
+import FileProcess.Metrics;
+import FileProcess.OverwritePolicy;
 import FileProcess.StopWatch;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
  * Class for command line interface of decompression
  * <p>
- * Usage: java xf InputFile OutputPath(optional)
+ * Usage: java xf [options] InputFile OutputPath(optional)
+ * <p>
+ * Options: --only PATH|GLOB, may be repeated, --threads N, --stdout, --test, --mmap, --codebook-dir DIR, --stats-json FILE,
+ * --overwrite
+ * <p>
+ * InputFile "-" reads the archive from stdin. Stdin then carries no answer to the overwrite question, so an existing
+ * file is an error unless --overwrite is given.
  */
 public final class xf {
-    // Command line main application function.
+    /**
+     * InputFile for stdin
+     */
+    private static final String STANDARD_STREAM = "-";
+
+    // Command line main application function, run by the daemon if one listens.
     public static void main(String[] args) throws IOException {
+        int status = JobClient.tryRun("xf", args);
+        if (status == -1) status = run(args, Terminal.system());
+        System.exit(status);
+    }
+
+
+    /**
+     * Run xf with the streams and working directory of a terminal
+     *
+     * @return exit status
+     */
+    public static int run(String[] args, Terminal terminal) throws IOException {
+        try {
+            return decompress(args, terminal);
+        } finally {
+            // the thread may run the next job of a daemon
+            Metrics.disable();
+        }
+    }
+
+
+    private static int decompress(String[] args, Terminal terminal) throws IOException {
         StopWatch stopWatch = new StopWatch();
 
-        if (args.length == 0 || args.length > 2) {
-            System.err.println("Usage: java xf <source> [destination](optional)");
-            System.exit(1);
+        List<String> only = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        int threads = 1;
+        boolean threadsGiven = false;
+        boolean toStdout = false;
+        boolean test = false;
+        boolean mmap = false;
+        boolean overwrite = false;
+        File codebookDirectory = Codebook.getDirectory();
+        File statsFile = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--only" -> only.add(argument(args, ++i));
+                    case "--threads" -> {
+                        threads = intArgument(args, ++i);
+                        threadsGiven = true;
+                    }
+                    case "--stdout" -> toStdout = true;
+                    case "--test" -> test = true;
+                    case "--mmap" -> mmap = true;
+                    case "--overwrite" -> overwrite = true;
+                    case "--codebook-dir" -> codebookDirectory = terminal.resolve(argument(args, ++i));
+                    case "--stats-json" -> statsFile = terminal.resolve(argument(args, ++i));
+                    default -> paths.add(args[i]);
+                }
+            }
+            if (threads < 1) throw new IllegalArgumentException("Number of threads must be positive");
+            if (toStdout && (!only.isEmpty() || threads > 1 || paths.size() > 1))
+                throw new IllegalArgumentException("--stdout reads the archive once, without --only, --threads or a destination");
+            if (test && (toStdout || !only.isEmpty() || paths.size() > 1))
+                throw new IllegalArgumentException("--test writes nothing, without --stdout, --only or a destination");
+        } catch (IllegalArgumentException e) {
+            terminal.getErr().println(e.getMessage());
+            printUsage(terminal.getErr());
+            return 1;
+        }
+        if (paths.isEmpty() || paths.size() > 2) {
+            printUsage(terminal.getErr());
+            return 1;
         }
-        File inputFile = new File(args[0]);
+        boolean fromStdin = paths.get(0).equals(STANDARD_STREAM);
+        ArchiveReader reader = fromStdin ? new ArchiveReader(Channels.newChannel(terminal.getIn()))
+                : new ArchiveReader(terminal.resolve(paths.get(0)).toPath());
+        reader.mmap(mmap).codebookDirectory(codebookDirectory.toPath());
+        Metrics metrics = statsFile == null ? null : Metrics.enable();
+        if (toStdout) {
+            // the archive is read from start to end, so it may come from a pipe
+            try (WritableByteChannel os = Channels.newChannel(terminal.getStdout())) {
+                reader.decompressTo(os);
+            } catch (IOException e) {
+                terminal.getErr().println("ERROR: " + e.getMessage());
+                return 1;
+            }
+            terminal.getErr().println("Decompression finished in " + stopWatch.getRunningSeconds() + " seconds");
+            writeStats(metrics, statsFile);
+            return 0;
+        }
+        if (fromStdin && (!only.isEmpty() || threads > 1)) {
+            terminal.getErr().println("--only and --threads seek in the archive, it can not be read from stdin");
+            return 1;
+        }
+        File inputFile = terminal.resolve(paths.get(0));
 
-        if (!inputFile.isFile()) {
-            System.err.println("Usage: java xf <source> [dest](optional)");
-            System.err.println("<source> must be a file");
-            System.exit(1);
+        if (!fromStdin && !inputFile.isFile()) {
+            printUsage(terminal.getErr());
+            terminal.getErr().println("<source> must be a file");
+            return 1;
+        }
+        if (test) {
+            // a file is checked on all processors unless told otherwise
+            if (!fromStdin && !threadsGiven) threads = Runtime.getRuntime().availableProcessors();
+            try {
+                int numTested = reader.test(threads);
+                terminal.getOut().println(numTested + " files tested, no error found");
+            } catch (IOException e) {
+                terminal.getErr().println("ERROR: " + e.getMessage());
+                return 1;
+            }
+            terminal.getOut().println("Test finished in " + stopWatch.getRunningSeconds() + " seconds");
+            writeStats(metrics, statsFile);
+            return 0;
         }
         File outputRoot;
         // Handle command line arguments
-        if (args.length == 1) {
-            outputRoot = inputFile.getParentFile();
+        if (paths.size() == 1) {
+            outputRoot = fromStdin ? terminal.resolve(".") : inputFile.getAbsoluteFile().getParentFile();
         } else {
-            outputRoot = new File(args[1]);
+            outputRoot = terminal.resolve(paths.get(1));
         }
 
-        try (BufferedInputStream is = new BufferedInputStream(new FileInputStream(inputFile))) {
-            Decompression.decompress(outputRoot, is);
+        OverwritePolicy policy = overwrite ? OverwritePolicy.OVERWRITE : terminal.overwritePolicy(fromStdin);
+        try {
+            // seek to the selected entries with the central directory, if any or with --threads
+            int numExtracted = reader.extract(outputRoot.toPath(), only, threads, policy);
+            if (!only.isEmpty() || threads > 1) {
+                if (numExtracted == 0 && !only.isEmpty()) {
+                    terminal.getErr().println("No entry matches " + String.join(", ", only));
+                    return 1;
+                }
+                terminal.getOut().println(numExtracted + " entries extracted");
+            }
+        } catch (FileAlreadyExistsException e) {
+            if (fromStdin) {
+                terminal.getErr().println("ERROR: " + e.getFile() + " already exists, --overwrite replaces it when reading stdin");
+                return 1;
+            }
+            terminal.getOut().println("Program terminated.");
+            return 0;
+        } catch (IOException e) {
+            terminal.getErr().println("ERROR: " + e.getMessage());
+            return 1;
         }
 
-        System.out.println("Decompression finished in " + stopWatch.getRunningSeconds() + " seconds");
+        terminal.getOut().println("Decompression finished in " + stopWatch.getRunningSeconds() + " seconds");
+        writeStats(metrics, statsFile);
+        return 0;
     }
 
+    private static void writeStats(Metrics metrics, File statsFile) throws IOException {
+        if (metrics == null) return;
+        Files.writeString(statsFile.toPath(), metrics.toJson("decompress") + System.lineSeparator(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the value of the option at args[i - 1]
+     * @throws IllegalArgumentException if the value is missing
+     */
+    private static String argument(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    /**
+     * @return the value of the option at args[i - 1]
+     * @throws IllegalArgumentException if the value is missing or not an integer
+     */
+    private static int intArgument(String[] args, int i) {
+        String value = argument(args, i);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(args[i - 1] + " needs an integer, got " + value);
+        }
+    }
+
+    private static void printUsage(PrintStream err) {
+        err.println("Usage: java xf [options] <source> [destination](optional)");
+        err.println("  --only PATH|GLOB   extract only matching entries, may be repeated");
+        err.println("  --threads N        files decoded in parallel, seeking with the central directory (default 1)");
+        err.println("  --test             decode every file in parallel and check its CRC32C, writing nothing");
+        err.println("  --stdout           write the contents of all files to stdout");
+        err.println("  --mmap             write large files through a memory map");
+        err.println("  --codebook-dir DIR directory of the codebooks files were coded with");
+        err.println("  --stats-json FILE  write timings of each phase and sizes of each entry to FILE");
+        err.println("  --overwrite        replace existing files without asking");
+        err.println("  <source> - reads the archive from stdin");
+    }
 
 }